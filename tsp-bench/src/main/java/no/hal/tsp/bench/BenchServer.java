@@ -0,0 +1,23 @@
+package no.hal.tsp.bench;
+
+import no.hal.tsp.emf.server.EmfEditTspServer;
+import no.hal.tsp.model.Label;
+import org.eclipse.emf.ecore.resource.Resource;
+
+/**
+ * The EMF server, with access to the parts that aren't requests, e.g. labels.
+ */
+class BenchServer extends EmfEditTspServer {
+
+  Resource resource(String documentUri) {
+    return getResource(documentUri);
+  }
+
+  Label label(Object o) {
+    return labelFor(o);
+  }
+
+  String id(Object o) {
+    return objectId(o);
+  }
+}
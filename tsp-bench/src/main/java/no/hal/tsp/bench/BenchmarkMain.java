@@ -0,0 +1,22 @@
+package no.hal.tsp.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the JMH command line, with the gc profiler unless another profiler is given,
+ * so allocation rates are always reported.
+ */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    var jmhArgs = new ArrayList<>(List.of(args));
+    if (!jmhArgs.contains("-prof") && !jmhArgs.contains("-l") && !jmhArgs.contains("-h")) {
+      jmhArgs.addAll(List.of("-prof", "gc"));
+    }
+    org.openjdk.jmh.Main.main(jmhArgs.toArray(String[]::new));
+  }
+}
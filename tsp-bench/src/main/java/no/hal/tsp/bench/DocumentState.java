@@ -0,0 +1,88 @@
+package no.hal.tsp.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import no.hal.tsp.protocol.DocumentApi.CloseDocumentParams;
+import no.hal.tsp.protocol.DocumentApi.OpenDocumentParams;
+import no.hal.tsp.protocol.ServerConfigApi.ConfigureParams;
+import no.hal.tsp.protocol.TreeStructureApi.GetChildrenParams;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A server with a generated document open, and the ids of some of its tree nodes.
+ * Generated models are kept in the temp folder, so they're only generated once for all benchmarks and forks.
+ */
+@State(Scope.Benchmark)
+public class DocumentState {
+
+  @Param({"1000", "100000"})
+  public int objectCount;
+
+  @Param({"BALANCED"})
+  public ModelGenerator.Shape shape;
+
+  BenchServer server;
+  String documentUri;
+  Path imagesDir;
+
+  // the root package, a package halfway down and a class at the bottom of the first branch
+  String rootId;
+  String middleId;
+  String leafId;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    documentUri = modelFile(objectCount, shape).toUri().toString();
+    imagesDir = Files.createTempDirectory("tsp-bench-images");
+    server = new BenchServer();
+    get(server.configure(new ConfigureParams(Map.of("tsp.label.images.dir", imagesDir.toString()))));
+    get(server.openDocument(new OpenDocumentParams(documentUri)));
+    var path = new ArrayList<String>();
+    var nodes = get(server.getChildren(new GetChildrenParams(documentUri, null, 0, 0, 0)));
+    while (nodes.length > 0) {
+      path.add(nodes[0].id());
+      nodes = get(server.getChildren(new GetChildrenParams(documentUri, nodes[0].id(), 0, 0, 1)));
+    }
+    rootId = path.get(0);
+    middleId = path.get((path.size() - 1) / 2);
+    leafId = path.get(path.size() - 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    get(server.closeDocument(new CloseDocumentParams(documentUri)));
+    try (Stream<Path> files = Files.walk(imagesDir)) {
+      for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  static Path modelFile(int objectCount, ModelGenerator.Shape shape) throws IOException {
+    var file = Path.of(System.getProperty("java.io.tmpdir"),
+        "tsp-bench-" + shape.name().toLowerCase() + "-" + objectCount + ".ecore");
+    if (!Files.exists(file)) {
+      var tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      new ModelGenerator(objectCount, shape).generate(tempFile);
+      Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+    return file;
+  }
+
+  static <T> T get(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+    return future.get();
+  }
+}
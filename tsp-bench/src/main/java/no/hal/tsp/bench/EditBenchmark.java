@@ -0,0 +1,87 @@
+package no.hal.tsp.bench;
+
+import static no.hal.tsp.bench.DocumentState.get;
+
+import java.util.concurrent.TimeUnit;
+import no.hal.tsp.model.MenuItem;
+import no.hal.tsp.protocol.TreeEditApi.DoCommandParams;
+import no.hal.tsp.protocol.TreeEditApi.GetCommandMenuParams;
+import no.hal.tsp.protocol.UndoRedoApi.DocumentEditedParams;
+import no.hal.tsp.protocol.UndoRedoApi.RedoEditsParams;
+import no.hal.tsp.protocol.UndoRedoApi.UndoEditsParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Command menus, commands and undoing and redoing several edits at once.
+ * The commands create classes in a package halfway down the tree, and are undone, so the document doesn't grow.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditBenchmark {
+
+  /**
+   * A create command of the middle package.
+   */
+  @State(Scope.Benchmark)
+  public static class CommandState {
+
+    String commandId;
+
+    @Setup(Level.Trial)
+    public void setUp(DocumentState document) throws Exception {
+      var menu = get(document.server.getCommandMenu(new GetCommandMenuParams(document.documentUri, document.middleId)));
+      commandId = ScriptedSession.firstCommand(menu, "new|");
+      if (commandId == null) {
+        throw new IllegalStateException("No create command for " + document.middleId);
+      }
+    }
+  }
+
+  /**
+   * Edits to undo and redo.
+   */
+  @State(Scope.Benchmark)
+  public static class UndoState {
+
+    @Param({"1", "10", "100"})
+    public int steps;
+
+    @Setup(Level.Trial)
+    public void setUp(DocumentState document, CommandState command) throws Exception {
+      for (int i = 0; i < steps; i++) {
+        get(document.server.doCommand(new DoCommandParams(document.documentUri, document.middleId, command.commandId)));
+      }
+    }
+  }
+
+  @Benchmark
+  public MenuItem.Menu getCommandMenu(DocumentState document) throws Exception {
+    return get(document.server.getCommandMenu(new GetCommandMenuParams(document.documentUri, document.middleId)));
+  }
+
+  @Benchmark
+  public DocumentEditedParams doCommandAndUndo(DocumentState document, CommandState command) throws Exception {
+    get(document.server.doCommand(new DoCommandParams(document.documentUri, document.middleId, command.commandId)));
+    return get(document.server.undoEdits(new UndoEditsParams(document.documentUri, 1)));
+  }
+
+  @Benchmark
+  public DocumentEditedParams undoAndRedo(DocumentState document, UndoState undo) throws Exception {
+    get(document.server.undoEdits(new UndoEditsParams(document.documentUri, undo.steps)));
+    return get(document.server.redoEdits(new RedoEditsParams(document.documentUri, undo.steps)));
+  }
+}
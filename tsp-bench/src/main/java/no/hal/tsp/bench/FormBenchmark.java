@@ -0,0 +1,46 @@
+package no.hal.tsp.bench;
+
+import static no.hal.tsp.bench.DocumentState.get;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.hal.tsp.model.Form;
+import no.hal.tsp.model.Property;
+import no.hal.tsp.protocol.FormApi.CommitTreeNodeFormParams;
+import no.hal.tsp.protocol.FormApi.GetTreeNodeFormParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Getting the form of a tree node, and committing a changed property.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormBenchmark {
+
+  private int commitCount;
+
+  @Benchmark
+  public Form getTreeNodeForm(DocumentState document) throws Exception {
+    return get(document.server.getTreeNodeForm(new GetTreeNodeFormParams(document.documentUri, document.leafId)));
+  }
+
+  @Benchmark
+  public Object commitTreeNodeForm(DocumentState document) throws Exception {
+    // a new value each time, so there is something to commit
+    var name = "C" + (commitCount++);
+    return get(document.server.commitTreeNodeForm(new CommitTreeNodeFormParams(document.documentUri, document.leafId,
+        List.of(new Property("name").withValue("ecore:EString", name)))));
+  }
+}
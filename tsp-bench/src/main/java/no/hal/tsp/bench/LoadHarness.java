@@ -0,0 +1,275 @@
+package no.hal.tsp.bench;
+
+import com.google.gson.JsonDeserializer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import no.hal.tsp.emf.server.EmfEditTspServer;
+import no.hal.tsp.launcher.ServerProtocolLauncher;
+import no.hal.tsp.launcher.SessionRecorder;
+import no.hal.tsp.model.MenuItem;
+import no.hal.tsp.model.ServerMetrics;
+import no.hal.tsp.protocol.DocumentApi.DocumentSavedParams;
+import no.hal.tsp.protocol.DocumentApi.LoadProgressParams;
+import no.hal.tsp.protocol.DocumentClientProtocol;
+import no.hal.tsp.protocol.ServerConfigApi.ConfigureParams;
+import no.hal.tsp.protocol.ServerConfigApi.GetMetricsParams;
+import no.hal.tsp.protocol.TreeServerProtocol;
+import no.hal.tsp.protocol.UndoRedoApi.DocumentEditedParams;
+import org.eclipse.lsp4j.jsonrpc.Launcher;
+
+/**
+ * Load harness, that runs sessions against a server hosted by the launcher, over JSON-RPC,
+ * so framing, serialization and notifications are included, as the editor sees them.
+ * Each client runs sessions one after another, on its own copies of the document, and the clients run concurrently,
+ * over one connection, as the webviews of the editor do.
+ * Reports throughput, and latency per method as seen by the clients, and bytes per method as counted by the server.
+ * <pre>
+ * java -cp tsp-bench/target/benchmarks.jar no.hal.tsp.bench.LoadHarness [options] 2>/dev/null
+ *   --clients=4          the number of concurrent clients
+ *   --documents=2        the number of documents per client
+ *   --sessions=10        the number of sessions per document, after one for warming up
+ *   --session=scripted   the scripted session, or a file with a session recorded with -Dtsp.session.record=file
+ *   --document=file      the document of the scripted session, or instead of the recorded one
+ *   --objects=10000      the number of objects of the generated document, when no document is given
+ *   --shape=BALANCED     the shape of the generated document
+ *   --expand=5           the number of nodes the scripted session expands
+ *   --setting=key=value  a server setting, may be repeated
+ * </pre>
+ */
+public class LoadHarness {
+
+  private int clientCount = 4;
+  private int documentsPerClient = 2;
+  private int sessionsPerDocument = 10;
+  private String sessionName = "scripted";
+  private Path documentFile;
+  private int objectCount = 10_000;
+  private ModelGenerator.Shape shape = ModelGenerator.Shape.BALANCED;
+  private int expandCount = 5;
+  private final Map<String, String> settings = new HashMap<>();
+
+  private EmfEditTspServer server;
+  private Launcher<TreeServerProtocol> clientLauncher;
+  private final LongAdder notificationCount = new LongAdder();
+  private final AtomicLong failedSessions = new AtomicLong();
+
+  public static void main(String[] args) throws Exception {
+    var harness = new LoadHarness();
+    harness.parseArgs(args);
+    harness.run();
+    System.exit(0);
+  }
+
+  private void parseArgs(String[] args) {
+    for (var arg : args) {
+      int pos = arg.indexOf('=');
+      if (!arg.startsWith("--") || pos < 0) {
+        throw new IllegalArgumentException("Options are --name=value: " + arg);
+      }
+      var value = arg.substring(pos + 1);
+      switch (arg.substring(2, pos)) {
+        case "clients" -> clientCount = Integer.parseInt(value);
+        case "documents" -> documentsPerClient = Integer.parseInt(value);
+        case "sessions" -> sessionsPerDocument = Integer.parseInt(value);
+        case "session" -> sessionName = value;
+        case "document" -> documentFile = Path.of(value);
+        case "objects" -> objectCount = Integer.parseInt(value);
+        case "shape" -> shape = ModelGenerator.Shape.valueOf(value.toUpperCase());
+        case "expand" -> expandCount = Integer.parseInt(value);
+        case "setting" -> {
+          int settingPos = value.indexOf('=');
+          settings.put(value.substring(0, settingPos), value.substring(settingPos + 1));
+        }
+        default -> throw new IllegalArgumentException("Unknown option: " + arg);
+      }
+    }
+  }
+
+  private void run() throws Exception {
+    Session session;
+    Path templateFile;
+    String documentFileName;
+    if (sessionName.equals("scripted")) {
+      session = new ScriptedSession(expandCount);
+      templateFile = documentFile != null ? documentFile : DocumentState.modelFile(objectCount, shape);
+      documentFileName = templateFile.getFileName().toString();
+    } else {
+      var recordedSession = new RecordedSession(SessionRecorder.read(Path.of(sessionName)));
+      session = recordedSession;
+      // the copies are named as the recorded document, so uris in the session can be mapped to them
+      var recordedFile = Path.of(URI.create(recordedSession.documentUri()));
+      templateFile = documentFile != null ? documentFile : recordedFile;
+      documentFileName = recordedFile.getFileName().toString();
+    }
+    var workDir = Files.createTempDirectory("tsp-load");
+    connect(workDir);
+
+    // one round of sessions for warming up, then the measured ones
+    var timer = new MethodTimer();
+    runClients(session, templateFile, documentFileName, workDir, 1, timer);
+    timer.reset();
+    server.getMetrics(new GetMetricsParams(true)).get();
+    notificationCount.reset();
+    failedSessions.set(0);
+
+    long start = System.nanoTime();
+    runClients(session, templateFile, documentFileName, workDir, sessionsPerDocument, timer);
+    long elapsedNanos = System.nanoTime() - start;
+    report(timer.reset(), server.getMetrics(new GetMetricsParams(true)).get(), elapsedNanos);
+  }
+
+  private void connect(Path workDir) throws IOException, InterruptedException {
+    // pipes rather than piped streams, since the server writes responses from short-lived (virtual) threads
+    Pipe clientToServer = Pipe.open();
+    Pipe serverToClient = Pipe.open();
+    InputStream serverInput = Channels.newInputStream(clientToServer.source());
+    OutputStream serverOutput = Channels.newOutputStream(serverToClient.sink());
+    server = new EmfEditTspServer();
+    var serverLauncher = new ServerProtocolLauncher<TreeServerProtocol>(TreeServerProtocol.class, server);
+    Thread.ofPlatform().daemon().name("tsp-server").start(() -> serverLauncher.startServer(serverInput, serverOutput));
+
+    clientLauncher = new Launcher.Builder<TreeServerProtocol>()
+        .setLocalService(new NotificationCounter())
+        .setRemoteInterface(TreeServerProtocol.class)
+        .setInput(Channels.newInputStream(serverToClient.source()))
+        .setOutput(Channels.newOutputStream(clientToServer.sink()))
+        .configureGson(gsonBuilder -> gsonBuilder.registerTypeAdapter(MenuItem.class, MENU_ITEM_DESERIALIZER))
+        .create();
+    clientLauncher.startListening();
+
+    var allSettings = new HashMap<String, String>();
+    allSettings.put("tsp.label.images.dir", Files.createDirectories(workDir.resolve("images")).toString());
+    allSettings.putAll(settings);
+    try {
+      clientLauncher.getRemoteProxy().configure(new ConfigureParams(allSettings)).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to configure the server", e.getCause());
+    }
+  }
+
+  // menu items are menus if they have items, and commands otherwise
+  private static final JsonDeserializer<MenuItem> MENU_ITEM_DESERIALIZER = (json, type, context) ->
+      context.deserialize(json, json.getAsJsonObject().has("items") ? MenuItem.Menu.class : MenuItem.Command.class);
+
+  // counts the notifications of the server
+  private class NotificationCounter implements DocumentClientProtocol {
+
+    @Override
+    public void documentEdited(DocumentEditedParams params) {
+      notificationCount.increment();
+    }
+
+    @Override
+    public void loadProgress(LoadProgressParams params) {
+      notificationCount.increment();
+    }
+
+    @Override
+    public void documentSaved(DocumentSavedParams params) {
+      notificationCount.increment();
+    }
+  }
+
+  private void runClients(Session session, Path templateFile, String documentFileName, Path workDir,
+      int sessionCount, MethodTimer timer) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(clientCount);
+    try {
+      var clients = new ArrayList<Future<?>>();
+      for (int client = 0; client < clientCount; client++) {
+        var documentFiles = new ArrayList<Path>();
+        for (int document = 0; document < documentsPerClient; document++) {
+          var dir = Files.createDirectories(workDir.resolve("client-" + client + "-document-" + document));
+          documentFiles.add(dir.resolve(documentFileName));
+        }
+        clients.add(executor.submit(() -> {
+          for (int i = 0; i < sessionCount; i++) {
+            for (var documentFile : documentFiles) {
+              runSession(session, templateFile, documentFile, timer);
+            }
+          }
+          return null;
+        }));
+      }
+      for (var client : clients) {
+        client.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void runSession(Session session, Path templateFile, Path documentFile, MethodTimer timer)
+      throws IOException, InterruptedException {
+    // a fresh copy, since sessions edit and save it
+    Files.copy(templateFile, documentFile, StandardCopyOption.REPLACE_EXISTING);
+    var context = new Session.Context(clientLauncher.getRemoteProxy(), clientLauncher.getRemoteEndpoint(), timer,
+        documentFile.toUri().toString());
+    try {
+      session.run(context);
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      failedSessions.incrementAndGet();
+      System.err.println("Session failed: " + e);
+    }
+  }
+
+  private void report(Map<String, MethodTimer.MethodStats> clientMetrics, ServerMetrics serverMetrics,
+      long elapsedNanos) {
+    double seconds = elapsedNanos / 1e9;
+    long sessionCount = (long) clientCount * documentsPerClient * sessionsPerDocument;
+    long requestCount = clientMetrics.values().stream().mapToLong(stats -> stats.latencies().count()).sum();
+    System.out.printf("%d clients, %d documents per client, %d sessions (%d failed) in %.2f s%n",
+        clientCount, documentsPerClient, sessionCount, failedSessions.get(), seconds);
+    System.out.printf("%.1f sessions/s, %.1f requests/s, %d notifications%n%n",
+        sessionCount / seconds, requestCount / seconds, notificationCount.sum());
+
+    var serverMethods = new HashMap<String, ServerMetrics.MethodMetrics>();
+    for (var method : serverMetrics.methods()) {
+      serverMethods.put(method.method() + " " + method.kind(), method);
+    }
+    System.out.printf("%-28s %-13s %8s %6s %9s %9s %9s %9s %10s %10s%n", "method", "kind", "count", "errors",
+        "per s", "p50 ms", "p99 ms", "max ms", "in KB", "out KB");
+    var methods = new TreeSet<>(clientMetrics.keySet());
+    long totalBytes = 0;
+    for (var method : methods) {
+      var stats = clientMetrics.get(method);
+      var latencies = stats.latencies();
+      var bytes = serverMethods.remove(method + " request");
+      long requestBytes = bytes != null ? bytes.requestBytes() : 0;
+      long responseBytes = bytes != null ? bytes.responseBytes() : 0;
+      totalBytes += requestBytes + responseBytes;
+      System.out.printf("%-28s %-13s %8d %6d %9.1f %9.2f %9.2f %9.2f %10.1f %10.1f%n", method, "request",
+          latencies.count(), stats.errorCount().sum(), latencies.count() / seconds,
+          latencies.percentileMillis(50), latencies.percentileMillis(99), latencies.maxMillis(),
+          requestBytes / 1024.0, responseBytes / 1024.0);
+    }
+    // notifications, and requests of the harness itself
+    for (var method : serverMethods.values().stream()
+        .sorted((m1, m2) -> (m1.method() + m1.kind()).compareTo(m2.method() + m2.kind())).toList()) {
+      boolean sent = method.kind().startsWith("sent");
+      totalBytes += method.requestBytes() + method.responseBytes();
+      System.out.printf("%-28s %-13s %8d %6d %9.1f %9s %9s %9s %10.1f %10.1f%n", method.method(), method.kind(),
+          method.count(), method.errorCount(), method.count() / seconds, "", "", "",
+          sent ? 0.0 : method.requestBytes() / 1024.0, (sent ? method.requestBytes() : method.responseBytes()) / 1024.0);
+    }
+    System.out.printf("%n%.1f KB on the wire, %.1f KB/s%n", totalBytes / 1024.0, totalBytes / 1024.0 / seconds);
+  }
+}
@@ -0,0 +1,60 @@
+package no.hal.tsp.bench;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import no.hal.tsp.launcher.LatencyHistogram;
+
+/**
+ * Latencies and errors of the requests of clients, per method, as seen by the clients,
+ * i.e. from sending a request until its response is received and parsed.
+ */
+class MethodTimer {
+
+  record MethodStats(LatencyHistogram latencies, LongAdder errorCount) {
+  }
+
+  // so a lost response doesn't stop a client
+  private static final long TIMEOUT_SECONDS = 60;
+
+  private volatile Map<String, MethodStats> methods = new ConcurrentHashMap<>();
+
+  /**
+   * Sends a request and waits for its response, and records the latency.
+   *
+   * @param method the method, for the metrics
+   * @param request sends the request
+   * @return the result
+   * @throws ExecutionException if the request failed or timed out, the error is also recorded
+   */
+  <T> T call(String method, Supplier<CompletableFuture<T>> request) throws ExecutionException, InterruptedException {
+    var stats = methods.computeIfAbsent(method, m -> new MethodStats(new LatencyHistogram(), new LongAdder()));
+    long start = System.nanoTime();
+    try {
+      return request.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      stats.errorCount().increment();
+      throw e;
+    } catch (TimeoutException e) {
+      stats.errorCount().increment();
+      throw new ExecutionException("No response to " + method, e);
+    } finally {
+      stats.latencies().record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Returns the metrics of each method, and starts over.
+   */
+  Map<String, MethodStats> reset() {
+    var current = methods;
+    methods = new ConcurrentHashMap<>();
+    return new TreeMap<>(current);
+  }
+}
@@ -0,0 +1,141 @@
+package no.hal.tsp.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates Ecore models of a given number of objects and shape, for benchmarking.
+ * The model is a complete tree with the given fan-out, of packages with sub-packages,
+ * and classes as leaves, so every object is a tree node, and the fan-out decides if it's wide or deep.
+ * The XMI is written as it is generated, so models of millions of objects can be generated without keeping them in memory.
+ */
+public final class ModelGenerator {
+
+  /**
+   * Typical shapes, by fan-out.
+   */
+  public enum Shape {
+    WIDE(1000),
+    BALANCED(10),
+    DEEP(2);
+
+    private final int fanOut;
+
+    Shape(int fanOut) {
+      this.fanOut = fanOut;
+    }
+
+    public int fanOut() {
+      return fanOut;
+    }
+  }
+
+  private final int objectCount;
+  private final int fanOut;
+
+  /**
+   * @param objectCount the number of objects in the model
+   * @param fanOut the number of children of each package, at least 2
+   */
+  public ModelGenerator(int objectCount, int fanOut) {
+    if (objectCount < 1) {
+      throw new IllegalArgumentException("A model must have at least one object: " + objectCount);
+    }
+    if (fanOut < 2) {
+      throw new IllegalArgumentException("The fan-out must be at least 2: " + fanOut);
+    }
+    this.objectCount = objectCount;
+    this.fanOut = fanOut;
+  }
+
+  public ModelGenerator(int objectCount, Shape shape) {
+    this(objectCount, shape.fanOut());
+  }
+
+  /**
+   * @return the depth of the tree, with the root at depth 0
+   */
+  public int depth() {
+    int depth = 0;
+    // the first object at each level, in level order
+    for (long first = 1; first < objectCount; first = first * fanOut + 1) {
+      depth++;
+    }
+    return depth;
+  }
+
+  /**
+   * Writes the model to a file.
+   *
+   * @param file the file
+   * @return the file
+   * @throws IOException if the file can't be written
+   */
+  public Path generate(Path file) throws IOException {
+    try (var writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      writer.write("<ecore:EPackage xmi:version=\"2.0\" xmlns:xmi=\"http://www.omg.org/XMI\""
+          + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+          + " xmlns:ecore=\"http://www.eclipse.org/emf/2002/Ecore\"");
+      writeNameAttributes(writer, 0);
+      writer.write(">\n");
+      writeChildren(writer, 0, 1);
+      writer.write("</ecore:EPackage>\n");
+    }
+    return file;
+  }
+
+  // the children of the object at an index in level order, are the objects from index * fanOut + 1
+  private void writeChildren(Writer writer, long index, int depth) throws IOException {
+    long firstChild = index * fanOut + 1;
+    for (long child = firstChild; child < Math.min(firstChild + fanOut, objectCount); child++) {
+      indent(writer, depth);
+      if (child * fanOut + 1 < objectCount) {
+        writer.write("<eSubpackages");
+        writeNameAttributes(writer, child);
+        writer.write(">\n");
+        writeChildren(writer, child, depth + 1);
+        indent(writer, depth);
+        writer.write("</eSubpackages>\n");
+      } else {
+        writer.write("<eClassifiers xsi:type=\"ecore:EClass\" name=\"C");
+        writer.write(Long.toString(child));
+        writer.write("\"/>\n");
+      }
+    }
+  }
+
+  private static void writeNameAttributes(Writer writer, long index) throws IOException {
+    var name = "p" + index;
+    writer.write(" name=\"" + name + "\" nsURI=\"http://no.hal.tsp/bench/" + name + "\" nsPrefix=\"" + name + "\"");
+  }
+
+  private static void indent(Writer writer, int depth) throws IOException {
+    for (int i = 0; i < depth; i++) {
+      writer.write("  ");
+    }
+  }
+
+  /**
+   * Generates a model, for use outside the benchmarks.
+   * Arguments: file, object count and shape (WIDE, BALANCED or DEEP) or fan-out.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: ModelGenerator <file> <object count> [WIDE|BALANCED|DEEP|<fan-out>]");
+      System.exit(1);
+    }
+    int objectCount = Integer.parseInt(args[1]);
+    var shape = args.length > 2 ? args[2] : Shape.BALANCED.name();
+    var generator = shape.chars().allMatch(Character::isDigit)
+        ? new ModelGenerator(objectCount, Integer.parseInt(shape))
+        : new ModelGenerator(objectCount, Shape.valueOf(shape.toUpperCase()));
+    var file = generator.generate(Path.of(args[0]));
+    System.err.printf("Generated %s, %d objects, depth %d, %d KB%n", file, objectCount, generator.depth(),
+        Files.size(file) / 1024);
+  }
+}
@@ -0,0 +1,65 @@
+package no.hal.tsp.bench;
+
+import static no.hal.tsp.bench.DocumentState.get;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import no.hal.tsp.protocol.DocumentApi.CloseDocumentParams;
+import no.hal.tsp.protocol.DocumentApi.OpenDocumentParams;
+import no.hal.tsp.protocol.ServerConfigApi.ConfigureParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening and closing a generated document, i.e. loading it and setting up the state of the server for it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpenDocumentBenchmark {
+
+  @Param({"1000", "100000"})
+  public int objectCount;
+
+  @Param({"WIDE", "BALANCED", "DEEP"})
+  public ModelGenerator.Shape shape;
+
+  @Param({"default", "fast"})
+  public String loadProfile;
+
+  private BenchServer server;
+  private OpenDocumentParams openDocumentParams;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    openDocumentParams = new OpenDocumentParams(DocumentState.modelFile(objectCount, shape).toUri().toString());
+    Path imagesDir = Files.createTempDirectory("tsp-bench-images");
+    server = new BenchServer();
+    get(server.configure(new ConfigureParams(Map.of(
+        "tsp.label.images.dir", imagesDir.toString(),
+        "tsp.load.profile", loadProfile))));
+  }
+
+  @Benchmark
+  public Object openDocument() throws Exception {
+    get(server.openDocument(openDocumentParams));
+    var resource = server.resource(openDocumentParams.documentUri());
+    get(server.closeDocument(new CloseDocumentParams(openDocumentParams.documentUri())));
+    return resource;
+  }
+}
@@ -0,0 +1,98 @@
+package no.hal.tsp.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import no.hal.tsp.launcher.SessionRecorder.RecordedMessage;
+import no.hal.tsp.protocol.DocumentApi.CloseDocumentParams;
+
+/**
+ * Replays a session recorded by the launcher, request by request.
+ * The uris in the folder of the recorded document are mapped to the folder of the copy of the session,
+ * so e.g. saving as a new file doesn't conflict with other sessions.
+ * Tree node ids are replayed as they were recorded, which works since the server assigns them in the same order,
+ * when the same requests are made to a fresh copy of the same document.
+ */
+class RecordedSession implements Session {
+
+  // settings are given by the harness, and metrics are not part of a session
+  private static final Set<String> SKIPPED_METHODS = Set.of("server/configure", "server/getMetrics");
+
+  private final List<RecordedMessage> messages;
+  private final String documentUri;
+
+  RecordedSession(List<RecordedMessage> messages) {
+    this.messages = messages;
+    this.documentUri = messages.stream()
+        .filter(message -> message.method().equals("document/openDocument"))
+        .map(message -> message.params().getAsJsonObject().get("documentUri").getAsString())
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("No document/openDocument in the recorded session"));
+  }
+
+  /**
+   * @return the uri of the document opened in the recorded session
+   */
+  String documentUri() {
+    return documentUri;
+  }
+
+  @Override
+  public void run(Context context) throws Exception {
+    var recordedFolder = folderOf(documentUri);
+    var folder = folderOf(context.documentUri());
+    boolean open = false;
+    for (var message : messages) {
+      if (SKIPPED_METHODS.contains(message.method())) {
+        continue;
+      }
+      var params = withFolder(message.params(), recordedFolder, folder);
+      if (message.notification()) {
+        context.endpoint().notify(message.method(), params);
+        continue;
+      }
+      try {
+        context.timer().call(message.method(), () -> context.endpoint().request(message.method(), params));
+      } catch (ExecutionException e) {
+        // recorded as an error, the rest of the session may still work
+      }
+      if (message.method().equals("document/openDocument")) {
+        open = true;
+      } else if (message.method().equals("document/closeDocument")) {
+        open = false;
+      }
+    }
+    if (open) {
+      // so the next session opens a fresh copy
+      context.server().closeDocument(new CloseDocumentParams(context.documentUri())).get();
+    }
+  }
+
+  private static String folderOf(String uri) {
+    return uri.substring(0, uri.lastIndexOf('/') + 1);
+  }
+
+  private static JsonElement withFolder(JsonElement json, String recordedFolder, String folder) {
+    if (json instanceof JsonPrimitive primitive && primitive.isString()
+        && primitive.getAsString().startsWith(recordedFolder)) {
+      return new JsonPrimitive(folder + primitive.getAsString().substring(recordedFolder.length()));
+    } else if (json instanceof JsonObject object) {
+      var copy = new JsonObject();
+      for (var entry : object.entrySet()) {
+        copy.add(entry.getKey(), withFolder(entry.getValue(), recordedFolder, folder));
+      }
+      return copy;
+    } else if (json instanceof JsonArray array) {
+      var copy = new JsonArray();
+      for (var element : array) {
+        copy.add(withFolder(element, recordedFolder, folder));
+      }
+      return copy;
+    }
+    return json;
+  }
+}
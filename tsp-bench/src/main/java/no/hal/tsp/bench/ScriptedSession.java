@@ -0,0 +1,78 @@
+package no.hal.tsp.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import no.hal.tsp.model.MenuItem;
+import no.hal.tsp.model.Property;
+import no.hal.tsp.model.TreeNode;
+import no.hal.tsp.protocol.DocumentApi.CloseDocumentParams;
+import no.hal.tsp.protocol.DocumentApi.OpenDocumentParams;
+import no.hal.tsp.protocol.DocumentApi.SaveDocumentParams;
+import no.hal.tsp.protocol.FormApi.CommitTreeNodeFormParams;
+import no.hal.tsp.protocol.FormApi.GetTreeNodeFormParams;
+import no.hal.tsp.protocol.TreeEditApi.DoCommandParams;
+import no.hal.tsp.protocol.TreeEditApi.GetCommandMenuParams;
+import no.hal.tsp.protocol.TreeStructureApi.GetChildrenParams;
+import no.hal.tsp.protocol.UndoRedoApi.UndoEditsParams;
+
+/**
+ * A typical session, as the editor makes it: open, expand the root and some of its children,
+ * show their forms, rename one, create an object from the command menu, undo it, save and close.
+ */
+class ScriptedSession implements Session {
+
+  private final int expandCount;
+
+  /**
+   * @param expandCount the number of children of the root to expand and show the form of
+   */
+  ScriptedSession(int expandCount) {
+    this.expandCount = expandCount;
+  }
+
+  @Override
+  public void run(Context context) throws Exception {
+    var server = context.server();
+    var timer = context.timer();
+    var documentUri = context.documentUri();
+    timer.call("document/openDocument", () -> server.openDocument(new OpenDocumentParams(documentUri)));
+    var rootNodes = timer.call("tree/getChildren", () -> server.getChildren(new GetChildrenParams(documentUri, null, 0)));
+    var root = rootNodes[0];
+    var children = timer.call("tree/getChildren",
+        () -> server.getChildren(new GetChildrenParams(documentUri, root.id(), 0)));
+    var expanded = new ArrayList<TreeNode>(List.of(children).subList(0, Math.min(expandCount, children.length)));
+    for (var child : expanded) {
+      timer.call("tree/getChildren", () -> server.getChildren(new GetChildrenParams(documentUri, child.id(), 0)));
+      timer.call("form/getTreeNodeForm", () -> server.getTreeNodeForm(new GetTreeNodeFormParams(documentUri, child.id())));
+    }
+    var edited = expanded.isEmpty() ? root : expanded.get(0);
+    timer.call("form/commitTreeNodeForm", () -> server.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri,
+        edited.id(), List.of(new Property("name").withValue("ecore:EString", "renamed")))));
+    var menu = timer.call("tree/getCommandMenu",
+        () -> server.getCommandMenu(new GetCommandMenuParams(documentUri, root.id())));
+    var commandId = menu != null ? firstCommand(menu, "new|") : null;
+    if (commandId != null) {
+      timer.call("tree/doCommand", () -> server.doCommand(new DoCommandParams(documentUri, root.id(), commandId)));
+      timer.call("document/undoEdits", () -> server.undoEdits(new UndoEditsParams(documentUri, 1)));
+    }
+    timer.call("document/saveDocument", () -> server.saveDocument(new SaveDocumentParams(documentUri, null)));
+    timer.call("document/closeDocument", () -> server.closeDocument(new CloseDocumentParams(documentUri)));
+  }
+
+  /**
+   * Finds the first command in a menu or its sub-menus, with an id that starts with a prefix, e.g. new|.
+   *
+   * @return the id of the command, or null
+   */
+  static String firstCommand(MenuItem.Menu menu, String prefix) {
+    for (var item : menu.items()) {
+      var commandId = item instanceof MenuItem.Command command && command.id().startsWith(prefix) ? command.id()
+          : item instanceof MenuItem.Menu submenu ? firstCommand(submenu, prefix)
+          : null;
+      if (commandId != null) {
+        return commandId;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,29 @@
+package no.hal.tsp.bench;
+
+import no.hal.tsp.protocol.TreeServerProtocol;
+import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint;
+
+/**
+ * A session of a user with one document, from opening it to closing it, run by the load harness.
+ */
+interface Session {
+
+  /**
+   * What a session runs against.
+   *
+   * @param server the proxy of the server, for typed requests
+   * @param endpoint the endpoint of the connection, for requests by method name
+   * @param timer for timing the requests
+   * @param documentUri the document of the session, a copy for the session
+   */
+  record Context(TreeServerProtocol server, RemoteEndpoint endpoint, MethodTimer timer, String documentUri) {
+  }
+
+  /**
+   * Runs the session.
+   *
+   * @param context what to run against
+   * @throws Exception if the session fails, so the rest of it is skipped
+   */
+  void run(Context context) throws Exception;
+}
@@ -0,0 +1,163 @@
+package no.hal.tsp.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import no.hal.tsp.protocol.DocumentApi.DocumentSavedParams;
+import no.hal.tsp.protocol.DocumentApi.LoadProgressParams;
+import no.hal.tsp.protocol.DocumentApi.OpenDocumentParams;
+import no.hal.tsp.protocol.DocumentClientProtocol;
+import no.hal.tsp.protocol.ServerConfigApi.ConfigureParams;
+import no.hal.tsp.protocol.ServerConfigApi.GetMetricsParams;
+import no.hal.tsp.protocol.TreeServerProtocol;
+import no.hal.tsp.protocol.TreeStructureApi.GetChildrenParams;
+import no.hal.tsp.protocol.UndoRedoApi.DocumentEditedParams;
+import org.eclipse.lsp4j.jsonrpc.Launcher;
+
+/**
+ * Measures the startup of the server, as the editor sees it, from starting the process to the first response
+ * to tree/getChildren, i.e. the time until the user sees the tree.
+ * Each run starts a new server process, with each of the given JVM options in turn, e.g. to compare
+ * with and without a class data sharing archive.
+ * Reports the time as measured by this client, and by the server from the start of its JVM.
+ * <pre>
+ * java -cp tsp-bench/target/benchmarks.jar no.hal.tsp.bench.StartupTimer [options]
+ *   --jar=file           the server jar, vscode-tsp-editor/tsp-server/tsp-emf-1.0.0-SNAPSHOT-standalone.jar
+ *   --document=file      the document to open
+ *   --objects=1000       the number of objects of the generated document, when no document is given
+ *   --runs=5             the number of runs with each JVM options
+ *   --jvm="options"      JVM options of the server, separated by spaces, may be repeated
+ * </pre>
+ */
+public class StartupTimer {
+
+  private static final long TIMEOUT_SECONDS = 60;
+
+  private Path jarFile = Path.of("vscode-tsp-editor/tsp-server/tsp-emf-1.0.0-SNAPSHOT-standalone.jar");
+  private Path documentFile;
+  private int objectCount = 1000;
+  private int runCount = 5;
+  private final List<String> jvmOptions = new ArrayList<>();
+
+  /**
+   * The startup time of a run.
+   *
+   * @param clientMillis from starting the process to the response, as measured by the client
+   * @param serverMillis from the start of the JVM to the response, as measured by the server
+   */
+  record Startup(long clientMillis, long serverMillis) {
+  }
+
+  public static void main(String[] args) throws Exception {
+    var timer = new StartupTimer();
+    timer.parseArgs(args);
+    timer.run();
+    System.exit(0);
+  }
+
+  private void parseArgs(String[] args) {
+    for (var arg : args) {
+      int pos = arg.indexOf('=');
+      if (!arg.startsWith("--") || pos < 0) {
+        throw new IllegalArgumentException("Options are --name=value: " + arg);
+      }
+      var value = arg.substring(pos + 1);
+      switch (arg.substring(2, pos)) {
+        case "jar" -> jarFile = Path.of(value);
+        case "document" -> documentFile = Path.of(value);
+        case "objects" -> objectCount = Integer.parseInt(value);
+        case "runs" -> runCount = Integer.parseInt(value);
+        case "jvm" -> jvmOptions.add(value);
+        default -> throw new IllegalArgumentException("Unknown option: " + arg);
+      }
+    }
+    if (jvmOptions.isEmpty()) {
+      jvmOptions.add("");
+    }
+  }
+
+  private void run() throws Exception {
+    var document = documentFile != null ? documentFile
+        : DocumentState.modelFile(objectCount, ModelGenerator.Shape.BALANCED);
+    var imagesDir = Files.createTempDirectory("tsp-startup-images");
+    // the runs of the options are interleaved, so they're affected the same by the state of the machine
+    var startups = new ArrayList<List<Startup>>();
+    jvmOptions.forEach(options -> startups.add(new ArrayList<>()));
+    for (int run = 0; run < runCount; run++) {
+      for (int i = 0; i < jvmOptions.size(); i++) {
+        startups.get(i).add(start(jvmOptions.get(i), document.toUri().toString(), imagesDir));
+      }
+    }
+    System.out.printf("%-60s %5s %10s %10s %10s%n", "JVM options", "runs", "min ms", "median ms", "server ms");
+    for (int i = 0; i < jvmOptions.size(); i++) {
+      var clientMillis = startups.get(i).stream().mapToLong(Startup::clientMillis).sorted().toArray();
+      var serverMillis = startups.get(i).stream().mapToLong(Startup::serverMillis).sorted().toArray();
+      var options = jvmOptions.get(i).isBlank() ? "(none)" : jvmOptions.get(i);
+      System.out.printf("%-60s %5d %10d %10d %10d%n", options, clientMillis.length, clientMillis[0],
+          clientMillis[clientMillis.length / 2], serverMillis[serverMillis.length / 2]);
+    }
+  }
+
+  private Startup start(String options, String documentUri, Path imagesDir) throws Exception {
+    var command = new ArrayList<String>();
+    command.add(ProcessHandle.current().info().command().orElse("java"));
+    Arrays.stream(options.split(" ")).filter(option -> !option.isBlank()).forEach(command::add);
+    command.add("-jar");
+    command.add(jarFile.toAbsolutePath().toString());
+
+    long start = System.nanoTime();
+    // started in the folder of the jar, as the editor does, so a relative archive path is resolved the same way
+    var process = new ProcessBuilder(command)
+        .directory(jarFile.toAbsolutePath().getParent().toFile())
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .start();
+    try {
+      Launcher<TreeServerProtocol> launcher = new Launcher.Builder<TreeServerProtocol>()
+          .setLocalService(new IgnoringClient())
+          .setRemoteInterface(TreeServerProtocol.class)
+          .setInput(process.getInputStream())
+          .setOutput(process.getOutputStream())
+          .create();
+      launcher.startListening();
+      var server = launcher.getRemoteProxy();
+      // the requests of the editor, when opening a document
+      get(server.configure(new ConfigureParams(Map.of("tsp.label.images.dir", imagesDir.toString()))));
+      get(server.openDocument(new OpenDocumentParams(documentUri)));
+      get(server.getChildren(new GetChildrenParams(documentUri, null, 1)));
+      long clientMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      long serverMillis = get(server.getMetrics(new GetMetricsParams(false))).startupMillis();
+      return new Startup(clientMillis, serverMillis);
+    } finally {
+      // the server exits at the end of its input
+      process.getOutputStream().close();
+      if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        process.destroyForcibly();
+      }
+    }
+  }
+
+  private static <T> T get(CompletableFuture<T> future) throws Exception {
+    return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  // receives the notifications of the server, so they aren't logged as unsupported
+  private static class IgnoringClient implements DocumentClientProtocol {
+
+    @Override
+    public void documentEdited(DocumentEditedParams params) {
+    }
+
+    @Override
+    public void loadProgress(LoadProgressParams params) {
+    }
+
+    @Override
+    public void documentSaved(DocumentSavedParams params) {
+    }
+  }
+}
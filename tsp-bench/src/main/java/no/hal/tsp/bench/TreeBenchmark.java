@@ -0,0 +1,110 @@
+package no.hal.tsp.bench;
+
+import static no.hal.tsp.bench.DocumentState.get;
+
+import com.google.gson.Gson;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import no.hal.tsp.model.Label;
+import no.hal.tsp.model.TreeNode;
+import no.hal.tsp.model.TreeNodeColumns;
+import no.hal.tsp.protocol.TreeStructureApi.GetChildrenParams;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Expanding tree nodes, with their children to several depths, as nested nodes and as columns,
+ * with and without serializing them as the launcher does, and computing labels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark {
+
+  private static final Gson GSON = new MessageJsonHandler(Map.of()).getGson();
+
+  /**
+   * The depth of the children of the children to include, 0 is only the children.
+   */
+  @State(Scope.Benchmark)
+  public static class DepthState {
+
+    @Param({"0", "1", "2"})
+    public int depth;
+  }
+
+  /**
+   * The objects of the document, to cycle through when computing labels.
+   */
+  @State(Scope.Thread)
+  public static class LabelState {
+
+    private static final int MAX_OBJECTS = 10_000;
+
+    EObject[] objects;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp(DocumentState document) {
+      var contents = new ArrayList<EObject>();
+      var allContents = document.server.resource(document.documentUri).getAllContents();
+      while (allContents.hasNext() && contents.size() < MAX_OBJECTS) {
+        contents.add(allContents.next());
+      }
+      objects = contents.toArray(EObject[]::new);
+    }
+
+    EObject nextObject() {
+      var o = objects[next];
+      next = (next + 1) % objects.length;
+      return o;
+    }
+  }
+
+  @Benchmark
+  public TreeNode[] getRootChildren(DocumentState document, DepthState depth) throws Exception {
+    return get(document.server.getChildren(new GetChildrenParams(document.documentUri, document.rootId, depth.depth, 0, 0)));
+  }
+
+  @Benchmark
+  public TreeNode[] getMiddleChildren(DocumentState document, DepthState depth) throws Exception {
+    return get(document.server.getChildren(
+        new GetChildrenParams(document.documentUri, document.middleId, depth.depth, 0, 0)));
+  }
+
+  @Benchmark
+  public TreeNodeColumns getRootChildrenColumns(DocumentState document, DepthState depth) throws Exception {
+    return get(document.server.getChildrenColumns(
+        new GetChildrenParams(document.documentUri, document.rootId, depth.depth, 0, 0)));
+  }
+
+  @Benchmark
+  public String getRootChildrenJson(DocumentState document, DepthState depth) throws Exception {
+    return GSON.toJson(getRootChildren(document, depth));
+  }
+
+  @Benchmark
+  public String getRootChildrenColumnsJson(DocumentState document, DepthState depth) throws Exception {
+    return GSON.toJson(getRootChildrenColumns(document, depth));
+  }
+
+  @Benchmark
+  public Label labelFor(DocumentState document, LabelState labels) {
+    return document.server.label(labels.nextObject());
+  }
+}
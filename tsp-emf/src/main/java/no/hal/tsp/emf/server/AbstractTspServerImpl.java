@@ -1,12 +1,20 @@
 package no.hal.tsp.emf.server;
 
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CompletableFuture;
+import no.hal.tsp.launcher.MessageMetrics;
 import no.hal.tsp.model.Label;
+import no.hal.tsp.model.ServerMetrics;
 import no.hal.tsp.model.TreeNode;
+import no.hal.tsp.model.TreeNodeBatch;
+import no.hal.tsp.model.TreeNodeColumns;
+import no.hal.tsp.model.TreeNodePage;
 import no.hal.tsp.protocol.TreeServerProtocol;
+import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EClassifier;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.resource.Resource;
@@ -18,11 +26,56 @@ public abstract class AbstractTspServerImpl extends EmfDocumentServer implements
 
   private final Map<String, String> settings = new ConcurrentHashMap<>();
 
+  protected AbstractTspServerImpl() {
+    super();
+  }
+
+  AbstractTspServerImpl(ServerCaches caches) {
+    super(caches);
+  }
+
+  /**
+   * Replaces the settings, after parsing and validating them, so invalid settings leave the current ones in effect.
+   *
+   * @param newSettings the new settings, null for the defaults
+   * @throws IllegalArgumentException if a setting has an invalid value
+   */
   protected void updateSettings(Map<String, String> newSettings) {
+    Map<String, String> values = newSettings != null ? newSettings : Map.of();
+    var loadCacheDir = values.get("tsp.load.cache.dir");
+    var loadCachePath = loadCacheDir != null && !loadCacheDir.isBlank() ? Path.of(loadCacheDir) : null;
+    var loadProfile = LoadProfile.forName(values.get("tsp.load.profile"));
+    long editNotificationWindow = setting(values, "tsp.edit.notify.window.ms", 0, Long.MAX_VALUE);
+    boolean notifyRepliedEdits = Boolean.parseBoolean(values.getOrDefault("tsp.edit.notify.replied", "true"));
+    var defaultUndoLimits = BoundedCommandStack.Limits.DEFAULT;
+    var undoLimits = new BoundedCommandStack.Limits(
+        (int) setting(values, "tsp.undo.limit", defaultUndoLimits.maxCount(), Integer.MAX_VALUE),
+        setting(values, "tsp.undo.limit.bytes", defaultUndoLimits.maxRetainedBytes(), Long.MAX_VALUE),
+        setting(values, "tsp.undo.merge.window.ms", defaultUndoLimits.mergeWindowMillis(), Long.MAX_VALUE));
     settings.clear();
-    if (newSettings != null) {
-      settings.putAll(newSettings);
+    settings.putAll(values);
+    setLoadCacheDir(loadCachePath);
+    setLoadProfile(loadProfile);
+    setEditNotificationWindow(editNotificationWindow);
+    setNotifyRepliedEdits(notifyRepliedEdits);
+    setUndoLimits(undoLimits);
+  }
+
+  // a number setting, that must be between 0 and a max value
+  private static long setting(Map<String, String> settings, String key, long defaultValue, long maxValue) {
+    var value = settings.get(key);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    try {
+      long number = Long.parseLong(value.trim());
+      if (number >= 0 && number <= maxValue) {
+        return number;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
     }
+    throw new IllegalArgumentException("Invalid value of " + key + ": " + value);
   }
 
   @Override
@@ -31,23 +84,137 @@ public abstract class AbstractTspServerImpl extends EmfDocumentServer implements
     return CompletableFuture.completedFuture(null);
   }
 
+  @Override
+  public CompletableFuture<ServerMetrics> getMetrics(GetMetricsParams params) {
+    boolean reset = params != null && params.reset();
+    return documentMetrics().thenApply(documents -> {
+      var messageMetrics = getMessageMetrics();
+      long uptimeMillis = messageMetrics.uptimeMillis();
+      return new ServerMetrics(uptimeMillis, MessageMetrics.startupMillis(), messageMetrics.snapshot(reset), documents,
+          cacheMetrics());
+    });
+  }
+
   protected String setting(String key, String defaultValue) {
     return settings.getOrDefault(key, defaultValue);
   }
 
   @Override
   public CompletableFuture<TreeNode[]> getChildren(GetChildrenParams params) {
-    Resource resource = getResource(params.documentUri());
+    if (isRootNode(params)) {
+      var rootNodes = loadingRootNodes(params.documentUri());
+      if (rootNodes != null) {
+        return CompletableFuture.completedFuture(page(rootNodes, params.offset(), params.limit()));
+      }
+    }
+    return inDocumentLane(params, () -> {
+      var event = new TspEvents.GetChildren();
+      event.begin();
+      Object o = treeNodeObject(params);
+      var children = getChildrenN(o, params.offset(), params.limit(), params.depth());
+      event.commit(params.documentUri(), params.treeNodeId(), params.depth(), () -> TspEvents.nodeCount(children));
+      return children;
+    });
+  }
+
+  @Override
+  public CompletableFuture<TreeNodePage> getChildrenPage(GetChildrenParams params) {
+    if (isRootNode(params)) {
+      var rootNodes = loadingRootNodes(params.documentUri());
+      if (rootNodes != null) {
+        return CompletableFuture.completedFuture(new TreeNodePage(Math.max(0, params.offset()), rootNodes.length,
+            page(rootNodes, params.offset(), params.limit())));
+      }
+    }
+    return inDocumentLane(params, () -> {
+      var event = new TspEvents.GetChildren();
+      event.begin();
+      Object o = treeNodeObject(params);
+      var children = getChildrenN(o, params.offset(), params.limit(), params.depth());
+      event.commit(params.documentUri(), params.treeNodeId(), params.depth(), () -> TspEvents.nodeCount(children));
+      return new TreeNodePage(Math.max(0, params.offset()), childCountFor(o), children);
+    });
+  }
+
+  @Override
+  public CompletableFuture<TreeNodeBatch> getChildrenBatch(GetChildrenBatchParams params) {
+    return inDocumentLane(params, () -> {
+      if (getResource(params.documentUri()) == null) {
+        throw new IllegalArgumentException("Resource not found: " + params.documentUri());
+      }
+      var encoder = new TreeNodeBatchEncoder();
+      for (var request : params.requests()) {
+        Object o;
+        try {
+          o = treeNodeObject(params.documentUri(), request.treeNodeId());
+        } catch (IllegalArgumentException e) {
+          encoder.addError(request.treeNodeId(), e.getMessage());
+          continue;
+        }
+        var event = new TspEvents.GetChildren();
+        event.begin();
+        var children = getChildrenN(o, request.offset(), request.limit(), request.depth());
+        event.commit(params.documentUri(), request.treeNodeId(), request.depth(), () -> TspEvents.nodeCount(children));
+        encoder.addResult(request.treeNodeId(), childCountFor(o), children);
+      }
+      return encoder.toBatch();
+    });
+  }
+
+  @Override
+  public CompletableFuture<TreeNodeColumns> getChildrenColumns(GetChildrenParams params) {
+    if (isRootNode(params)) {
+      var rootNodes = loadingRootNodes(params.documentUri());
+      if (rootNodes != null) {
+        var encoder = new TreeNodeColumnsEncoder<TreeNode>();
+        for (var rootNode : page(rootNodes, params.offset(), params.limit())) {
+          encoder.add(-1, rootNode);
+        }
+        return CompletableFuture.completedFuture(encoder.toColumns(rootNode -> rootNode));
+      }
+    }
+    return inDocumentLane(params, () -> {
+      var event = new TspEvents.GetChildren();
+      event.begin();
+      Object o = treeNodeObject(params);
+      var encoder = new TreeNodeColumnsEncoder<Object>();
+      addChildren(encoder, -1, o, params.offset(), params.limit(), params.depth());
+      var columns = encoder.toColumns(child -> treeNodeFor(child, null));
+      event.commit(params.documentUri(), params.treeNodeId(), params.depth(), columns::size);
+      return columns;
+    });
+  }
+
+  private static boolean isRootNode(GetChildrenParams params) {
+    return isRootNode(params.treeNodeId());
+  }
+
+  private static boolean isRootNode(String treeNodeId) {
+    return treeNodeId == null || treeNodeId.isEmpty();
+  }
+
+  private static TreeNode[] page(TreeNode[] nodes, int offset, int limit) {
+    int start = Math.min(Math.max(0, offset), nodes.length);
+    int end = limit > 0 ? Math.min(nodes.length, start + limit) : nodes.length;
+    return Arrays.copyOfRange(nodes, start, end);
+  }
+
+  private Object treeNodeObject(GetChildrenParams params) {
+    return treeNodeObject(params.documentUri(), params.treeNodeId());
+  }
+
+  private Object treeNodeObject(String documentUri, String treeNodeId) {
+    Resource resource = getResource(documentUri);
     if (resource == null) {
-      throw new IllegalArgumentException("Resource not found: " + params.documentUri());
+      throw new IllegalArgumentException("Resource not found: " + documentUri);
     }
-    Object o = params.treeNodeId() == null || params.treeNodeId().isEmpty()
+    Object o = isRootNode(treeNodeId)
         ? resource
-        : objectForId(params.treeNodeId(), resource);
+        : objectForId(treeNodeId, resource);
     if (o == null) {
-      throw new IllegalArgumentException("EObject not found: " + params.treeNodeId());
+      throw new IllegalArgumentException("EObject not found: " + treeNodeId);
     }
-    return CompletableFuture.completedFuture(getChildrenN(o, params.depth()));
+    return o;
   }
 
   protected Label labelFor(Object o) {
@@ -61,6 +228,11 @@ public abstract class AbstractTspServerImpl extends EmfDocumentServer implements
     return eClassifier.getEPackage().getName() + ":" + eClassifier.getName();
   }
 
+  @Override
+  protected TreeNode provisionalTreeNodeFor(String id, EClass eClass) {
+    return new TreeNode(id, "object", semanticTypeForType(eClass), Label.ofText(eClass.getName()), null, -1);
+  }
+
   protected String semanticTypeFor(Object o) {
     if (o instanceof EObject eObject) {
       return semanticTypeForType(eObject.eClass());
@@ -79,34 +251,50 @@ public abstract class AbstractTspServerImpl extends EmfDocumentServer implements
     return List.of();
   }
 
+  protected int childCountFor(Object o) {
+    return childrenFor(o).size();
+  }
+
   protected TreeNode treeNodeFor(Object o, TreeNode[] children) {
     return new TreeNode(objectId(o), "object",
         semanticTypeFor(o),
         labelFor(o),
-        children
+        children,
+        childCountFor(o)
     );
   }
 
-  protected TreeNode[] getChildren1(Object o) {
+  @Override
+  protected TreeNode treeNodeFor(Object o) {
+    return treeNodeFor(o, null);
+  }
+
+  protected List<?> childrenFor(Object o, int offset, int limit) {
     var children = childrenFor(o);
-    TreeNode[] childNodes = new TreeNode[children.size()];
-    for (int i = 0; i < children.size(); i++) {
-      childNodes[i] = treeNodeFor(children.get(i), new TreeNode[0]);
-    }
-    return childNodes;
+    int start = Math.min(Math.max(0, offset), children.size());
+    int end = limit > 0 ? Math.min(children.size(), start + limit) : children.size();
+    return start == 0 && end == children.size() ? children : children.subList(start, end);
   }
 
-  private TreeNode[] getChildrenN(Object o, int depth) {
-    var children = getChildren1(o);
-    if (depth > 0) {
-      for (int i = 0; i < children.length; i++) {
-        var child = children[i];
-        var childEObject = objectForId(child.id(), o);
-        var childChildren = getChildrenN(childEObject, depth - 1);
-        // replace node with one with children
-        children[i] = new TreeNode(child.id(), child.type(), child.semanticType(), child.label(), childChildren);
+  // as getChildrenN, but adds the objects of the nodes in depth-first order
+  private void addChildren(TreeNodeColumnsEncoder<Object> encoder, int parent, Object o, int offset, int limit,
+      int depth) {
+    for (var child : childrenFor(o, offset, limit)) {
+      int index = encoder.add(parent, child);
+      if (depth > 0) {
+        addChildren(encoder, index, child, 0, limit, depth - 1);
       }
     }
-    return children;
   }
-}
\ No newline at end of file
+
+  private TreeNode[] getChildrenN(Object o, int offset, int limit, int depth) {
+    var children = childrenFor(o, offset, limit);
+    TreeNode[] childNodes = new TreeNode[children.size()];
+    int i = 0;
+    for (var child : children) {
+      var childChildren = depth > 0 ? getChildrenN(child, 0, limit, depth - 1) : null;
+      childNodes[i++] = treeNodeFor(child, childChildren);
+    }
+    return childNodes;
+  }
+}
@@ -0,0 +1,175 @@
+package no.hal.tsp.emf.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.URIConverter;
+import org.eclipse.emf.ecore.resource.impl.BinaryResourceImpl;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+
+/**
+ * Cache of documents in EMF's binary resource format, so opening an unchanged document decodes the binary format
+ * instead of parsing the XML. Each cache file starts with a hash of the document's content,
+ * and is only used if the document still has the same content. The cache is only used for loading,
+ * documents are still saved in their own format.
+ * Documents with extrinsic ids, e.g. xmi:id, are not cached, since the binary format doesn't include them.
+ * The cache file also has the XML encoding and version of the document, so it's saved as it was read.
+ */
+class BinaryLoadCache {
+
+  private static final int CACHE_FILE_MAGIC = 0x54535042; // TSPB
+  private static final int CACHE_FILE_VERSION = 2;
+
+  /**
+   * Counters for checking the effect of the cache, with load times in ms.
+   */
+  record Stats(long hits, long misses, long hitLoadMillis, long missLoadMillis) {
+  }
+
+  private final Path cacheDir;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong hitLoadNanos = new AtomicLong();
+  private final AtomicLong missLoadNanos = new AtomicLong();
+
+  BinaryLoadCache(Path cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  Path getCacheDir() {
+    return cacheDir;
+  }
+
+  /**
+   * Computes the hash of the content of a document, for validating its cache file.
+   *
+   * @param uriConverter the converter for opening the document
+   * @param uri the document uri
+   * @return the hash, or null if the document cannot be read
+   */
+  String contentHash(URIConverter uriConverter, URI uri) {
+    try (InputStream input = uriConverter.createInputStream(uri)) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[64 * 1024];
+      int count;
+      while ((count = input.read(buffer)) >= 0) {
+        digest.update(buffer, 0, count);
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (IOException | NoSuchAlgorithmException e) {
+      return null;
+    }
+  }
+
+  Path cacheFileFor(URI uri) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-1").digest(uri.toString().getBytes(StandardCharsets.UTF_8));
+      return cacheDir.resolve(HexFormat.of().formatHex(digest) + ".bin");
+    } catch (NoSuchAlgorithmException e) {
+      return cacheDir.resolve(Integer.toHexString(uri.toString().hashCode()) + ".bin");
+    }
+  }
+
+  /**
+   * Loads a resource from its cache file, if the file exists and was created from the same content.
+   * A cache file that cannot be decoded is deleted, and the resource is left unloaded.
+   *
+   * @param resource the resource, created by {@link DocumentResourceFactory}
+   * @param contentHash the hash of the current content of the document
+   * @return true if the resource was loaded from the cache, false otherwise
+   */
+  boolean load(Resource resource, String contentHash) {
+    Path cacheFile = cacheFileFor(resource.getURI());
+    if (!Files.exists(cacheFile)) {
+      return false;
+    }
+    try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), 64 * 1024))) {
+      if (input.readInt() != CACHE_FILE_MAGIC
+          || input.readInt() != CACHE_FILE_VERSION
+          || !contentHash.equals(input.readUTF())) {
+        return false;
+      }
+      String encoding = input.readUTF();
+      String xmlVersion = input.readUTF();
+      resource.load(input, Map.of(DocumentResourceFactory.OPTION_BINARY_LOAD, Boolean.TRUE));
+      if (resource instanceof XMLResource xmlResource) {
+        xmlResource.setEncoding(encoding);
+        xmlResource.setXMLVersion(xmlVersion);
+      }
+      return true;
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Discarding cache file " + cacheFile + " of " + resource.getURI() + ": " + e);
+      resource.unload();
+      deleteCacheFile(cacheFile);
+      return false;
+    }
+  }
+
+  /**
+   * Writes the cache file of an XML resource, unless it uses extrinsic ids.
+   *
+   * @param resource the loaded resource
+   * @param contentHash the hash of the content the resource was loaded from
+   */
+  void store(Resource resource, String contentHash) {
+    if (!(resource instanceof XMLResource xmlResource) || !xmlResource.getEObjectToIDMap().isEmpty()) {
+      return;
+    }
+    Path cacheFile = cacheFileFor(resource.getURI());
+    Path tempFile = null;
+    try {
+      Files.createDirectories(cacheDir);
+      tempFile = Files.createTempFile(cacheDir, cacheFile.getFileName().toString(), ".tmp");
+      try (OutputStream fileOutput = Files.newOutputStream(tempFile);
+           var output = new DataOutputStream(new BufferedOutputStream(fileOutput, 64 * 1024))) {
+        output.writeInt(CACHE_FILE_MAGIC);
+        output.writeInt(CACHE_FILE_VERSION);
+        output.writeUTF(contentHash);
+        output.writeUTF(xmlResource.getEncoding());
+        output.writeUTF(xmlResource.getXMLVersion());
+        var eObjectOutput = new BinaryResourceImpl.EObjectOutputStream(output, null);
+        eObjectOutput.saveResource(resource);
+        eObjectOutput.flush();
+      }
+      Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Failed writing cache file " + cacheFile + " of " + resource.getURI() + ": " + e);
+      if (tempFile != null) {
+        deleteCacheFile(tempFile);
+      }
+    }
+  }
+
+  private static void deleteCacheFile(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      // will be overwritten by the next successful load
+    }
+  }
+
+  void recordLoad(boolean hit, long nanos) {
+    (hit ? hits : misses).incrementAndGet();
+    (hit ? hitLoadNanos : missLoadNanos).addAndGet(nanos);
+  }
+
+  Stats stats() {
+    return new Stats(hits.get(), misses.get(), hitLoadNanos.get() / 1_000_000, missLoadNanos.get() / 1_000_000);
+  }
+}
@@ -0,0 +1,293 @@
+package no.hal.tsp.emf.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.emf.common.command.BasicCommandStack;
+import org.eclipse.emf.common.command.Command;
+import org.eclipse.emf.common.command.CompoundCommand;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.edit.command.RemoveCommand;
+import org.eclipse.emf.edit.command.SetCommand;
+
+/**
+ * Command stack with a bounded undo history, by number of commands and by the estimated size of the objects
+ * the commands keep alive, e.g. deleted subtrees. The oldest commands are dropped when a bound is exceeded.
+ * Commands that only set the same single-valued attributes as the previous command, within a time window,
+ * are merged with it, so e.g. typing a name is undone in one step.
+ */
+class BoundedCommandStack extends BasicCommandStack {
+
+  /**
+   * The bounds of the undo history, and the window for merging commands.
+   *
+   * @param maxCount the maximum number of undoable commands, zero or less means no limit
+   * @param maxRetainedBytes the maximum estimated size of the objects kept alive by the commands,
+   *     zero or less means no limit
+   * @param mergeWindowMillis the maximum time between commands that are merged, zero or less means no merging
+   */
+  record Limits(int maxCount, long maxRetainedBytes, long mergeWindowMillis) {
+
+    static final Limits DEFAULT = new Limits(1000, 64L * 1024 * 1024, 1000);
+  }
+
+  /**
+   * Marks commands that are never merged with the previous command, nor the next command with them,
+   * e.g. a batch of edits, which is undone in one step, on its own.
+   */
+  interface Unmergeable {
+  }
+
+  // rough estimates of the memory used by a command and an object it keeps alive
+  static final long COMMAND_BYTES = 200;
+  static final long OBJECT_BYTES = 250;
+
+  private volatile Limits limits;
+  private final Map<Command, Long> retainedBytes = new IdentityHashMap<>();
+  private long lastExecuteMillis;
+  private boolean mostRecentMerged;
+  // the command of the most recent call to execute, if it was executed, as it is or merged
+  private Command executedCommand;
+  private int mergeCount;
+
+  BoundedCommandStack(Limits limits) {
+    this.limits = limits;
+  }
+
+  void setLimits(Limits limits) {
+    this.limits = limits;
+  }
+
+  @Override
+  public void execute(Command command) {
+    var currentLimits = limits;
+    long now = System.currentTimeMillis();
+    executedCommand = null;
+    boolean merged = isMergeable(command, currentLimits, now) && merge(command);
+    lastExecuteMillis = now;
+    if (!merged) {
+      mostRecentMerged = false;
+      super.execute(command);
+      if (mostRecentCommand == command) {
+        retainedBytes.put(command, estimateRetainedBytes(command));
+        executedCommand = command;
+      }
+    }
+    trim(currentLimits);
+  }
+
+  private boolean isMergeable(Command command, Limits currentLimits, long now) {
+    if (currentLimits.mergeWindowMillis() <= 0 || now - lastExecuteMillis > currentLimits.mergeWindowMillis()
+        // only the top command, with nothing to redo, and not the saved state, which must stay as it is
+        || top < 0 || top != commandList.size() - 1 || saveIndex == top) {
+      return false;
+    }
+    if (command instanceof Unmergeable || commandList.get(top) instanceof Unmergeable) {
+      return false;
+    }
+    var attributes = setAttributes(command);
+    return !attributes.isEmpty() && attributes.equals(setAttributes(commandList.get(top)));
+  }
+
+  private boolean merge(Command command) {
+    if (command == null || !command.canExecute()) {
+      return false;
+    }
+    try {
+      command.execute();
+    } catch (RuntimeException e) {
+      mostRecentMerged = false;
+      handleError(e);
+      command.dispose();
+      mostRecentCommand = null;
+      notifyListeners();
+      return true;
+    }
+    // setting the same attributes again overwrites the values of the previous commands in between,
+    // so only the first and last commands are needed for undoing and redoing the merged command
+    var previous = commandList.get(top);
+    var first = previous instanceof MergedCommand mergedCommand ? mergedCommand.first() : previous;
+    if (previous instanceof MergedCommand mergedCommand) {
+      mergedCommand.last().dispose();
+    }
+    var mergedCommand = new MergedCommand(first, command);
+    retainedBytes.remove(previous);
+    commandList.set(top, mergedCommand);
+    retainedBytes.put(mergedCommand, estimateRetainedBytes(mergedCommand));
+    mergeCount++;
+    mostRecentCommand = mergedCommand;
+    mostRecentMerged = true;
+    executedCommand = command;
+    notifyListeners();
+    return true;
+  }
+
+  /**
+   * @return whether the most recent command was merged into the previous one, rather than added to the history
+   */
+  boolean isMostRecentMerged() {
+    return mostRecentMerged;
+  }
+
+  /**
+   * Tells if a command was executed by the most recent call to execute, as it is or merged into the previous one,
+   * since the most recent command is the merged command, when it's merged.
+   *
+   * @param command the command
+   * @return false if the command failed and was rolled back, or another command was executed after it
+   */
+  boolean isExecuted(Command command) {
+    return command != null && executedCommand == command;
+  }
+
+  @Override
+  public void undo() {
+    // a command after an undo or redo starts a new entry
+    lastExecuteMillis = 0;
+    mostRecentMerged = false;
+    super.undo();
+  }
+
+  @Override
+  public void redo() {
+    lastExecuteMillis = 0;
+    mostRecentMerged = false;
+    super.redo();
+  }
+
+  // the first and last of a sequence of commands that set the same attributes
+  private static class MergedCommand extends CompoundCommand {
+
+    MergedCommand(Command first, Command last) {
+      super(first.getLabel(), first.getDescription(), new ArrayList<>(List.of(first, last)));
+      isPrepared = true;
+      isExecutable = true;
+    }
+
+    Command first() {
+      return commandList.get(0);
+    }
+
+    Command last() {
+      return commandList.get(1);
+    }
+
+    @Override
+    public Collection<?> getAffectedObjects() {
+      return last().getAffectedObjects();
+    }
+  }
+
+  // the owners and attributes set by a command, if it only sets single-valued attributes
+  private static Set<List<Object>> setAttributes(Command command) {
+    var attributes = new LinkedHashSet<List<Object>>();
+    return addSetAttributes(command, attributes) ? attributes : Set.of();
+  }
+
+  private static boolean addSetAttributes(Command command, Set<List<Object>> attributes) {
+    if (command instanceof MergedCommand mergedCommand) {
+      return addSetAttributes(mergedCommand.last(), attributes);
+    } else if (command instanceof SetCommand setCommand) {
+      if (!(setCommand.getFeature() instanceof EAttribute attribute) || attribute.isMany()) {
+        return false;
+      }
+      attributes.add(List.of(setCommand.getOwner(), attribute));
+      return true;
+    } else if (command instanceof CompoundCommand compoundCommand && !compoundCommand.isEmpty()) {
+      for (var child : compoundCommand.getCommandList()) {
+        if (!addSetAttributes(child, attributes)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Estimates the size of the objects a command keeps alive, i.e. the objects it refers to,
+   * that aren't in a resource after the command is executed, e.g. removed subtrees.
+   *
+   * @param command the command
+   * @return the estimated size in bytes
+   */
+  static long estimateRetainedBytes(Command command) {
+    long bytes = COMMAND_BYTES;
+    if (command instanceof CompoundCommand compoundCommand) {
+      for (var child : compoundCommand.getCommandList()) {
+        bytes += estimateRetainedBytes(child);
+      }
+    } else if (command instanceof RemoveCommand removeCommand) {
+      for (var value : removeCommand.getCollection()) {
+        bytes += detachedObjectBytes(value);
+      }
+    } else if (command instanceof SetCommand setCommand) {
+      bytes += detachedObjectBytes(setCommand.getOldValue());
+    }
+    return bytes;
+  }
+
+  private static long detachedObjectBytes(Object value) {
+    if (!(value instanceof EObject eObject) || eObject.eResource() != null) {
+      return 0;
+    }
+    long count = 1;
+    for (var contents = eObject.eAllContents(); contents.hasNext(); contents.next()) {
+      count++;
+    }
+    return count * OBJECT_BYTES;
+  }
+
+  private void trim(Limits currentLimits) {
+    retainedBytes.keySet().retainAll(Set.copyOf(commandList));
+    // keeps the most recent command, so it can always be undone
+    while (commandList.size() > 1 && exceeds(currentLimits)) {
+      var oldest = commandList.remove(0);
+      retainedBytes.remove(oldest);
+      oldest.dispose();
+      top--;
+      // the state before the oldest command can't be reached any more
+      saveIndex = saveIndex == -1 ? -2 : (saveIndex >= 0 ? saveIndex - 1 : saveIndex);
+    }
+  }
+
+  private boolean exceeds(Limits currentLimits) {
+    return (currentLimits.maxCount() > 0 && commandList.size() > currentLimits.maxCount())
+        || (currentLimits.maxRetainedBytes() > 0 && retainedBytes() > currentLimits.maxRetainedBytes());
+  }
+
+  long retainedBytes() {
+    long bytes = 0;
+    for (var commandBytes : retainedBytes.values()) {
+      bytes += commandBytes;
+    }
+    return bytes;
+  }
+
+  int size() {
+    return commandList.size();
+  }
+
+  int undoCount() {
+    return top + 1;
+  }
+
+  int redoCount() {
+    return commandList.size() - top - 1;
+  }
+
+  int mergeCount() {
+    return mergeCount;
+  }
+
+  @Override
+  public void flush() {
+    super.flush();
+    retainedBytes.clear();
+  }
+}
@@ -0,0 +1,104 @@
+package no.hal.tsp.emf.server;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+/**
+ * Cache of the create commands of the menus of objects, by class and by the state of the containment features
+ * that affects which commands can be executed, i.e. whether bounded lists are full and single values are set.
+ * Commands are indexed by id, so a command chosen from a menu is found without computing the menu again.
+ * The entries of classes of unloaded models are pruned when the cache is missed.
+ */
+class CommandMenuCache {
+
+  /**
+   * Counters for checking the effect of the cache.
+   */
+  record Stats(long hits, long misses, int size) {
+  }
+
+  /**
+   * A create command, with a prototype of the new child, as created by the item provider,
+   * which is copied for each execution of the command.
+   */
+  record CreateEntry(String id, String label, EStructuralFeature feature, EObject prototype) {
+
+    EObject newChild() {
+      return EcoreUtil.copy(prototype);
+    }
+  }
+
+  private record ClassMenus(Map<BitSet, List<CreateEntry>> entriesByState, Map<String, CreateEntry> entriesById) {
+  }
+
+  private final Map<EClass, ClassMenus> classMenus = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Returns the executable create commands for an object, computing them if needed.
+   *
+   * @param parent the object
+   * @param entriesProvider computes the executable create commands for an object
+   * @return the executable create commands
+   */
+  List<CreateEntry> get(EObject parent, Function<EObject, List<CreateEntry>> entriesProvider) {
+    var menus = classMenus.get(parent.eClass());
+    var state = containmentState(parent);
+    var entries = menus != null ? menus.entriesByState().get(state) : null;
+    if (entries != null) {
+      hits.incrementAndGet();
+      return entries;
+    }
+    misses.incrementAndGet();
+    classMenus.keySet().removeIf(EObject::eIsProxy);
+    entries = List.copyOf(entriesProvider.apply(parent));
+    menus = classMenus.computeIfAbsent(parent.eClass(),
+        eClass -> new ClassMenus(new ConcurrentHashMap<>(), new ConcurrentHashMap<>()));
+    menus.entriesByState().put(state, entries);
+    for (var entry : entries) {
+      menus.entriesById().putIfAbsent(entry.id(), entry);
+    }
+    return entries;
+  }
+
+  /**
+   * Finds a create command of an object by id, among those in the menus computed so far.
+   *
+   * @param parent the object
+   * @param id the command id
+   * @return the create command, or null if not found
+   */
+  CreateEntry entryFor(EObject parent, String id) {
+    var menus = classMenus.get(parent.eClass());
+    return menus != null ? menus.entriesById().get(id) : null;
+  }
+
+  // two bits per containment feature, whether a bounded list is full, and whether a single value is set
+  private static BitSet containmentState(EObject parent) {
+    var state = new BitSet();
+    var containments = parent.eClass().getEAllContainments();
+    for (int i = 0; i < containments.size(); i++) {
+      var containment = containments.get(i);
+      if (!containment.isMany()) {
+        state.set(2 * i + 1, parent.eIsSet(containment));
+      } else if (containment.getUpperBound() > 0) {
+        state.set(2 * i, ((List<?>) parent.eGet(containment)).size() >= containment.getUpperBound());
+      }
+    }
+    return state;
+  }
+
+  Stats stats() {
+    return new Stats(hits.get(), misses.get(), classMenus.size());
+  }
+}
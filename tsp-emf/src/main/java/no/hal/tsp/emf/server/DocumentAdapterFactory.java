@@ -0,0 +1,69 @@
+package no.hal.tsp.emf.server;
+
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notifier;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.edit.provider.ComposedAdapterFactory;
+
+/**
+ * Adapter factory of the item providers of a document, that is only used from the document's lane,
+ * so the factories it adds when needed, and the item providers and the adapters they attach, aren't used by several threads.
+ * Objects in other resource sets, e.g. of shared resources, are adapted by the shared adapter factory instead.
+ */
+class DocumentAdapterFactory extends ComposedAdapterFactory {
+
+  private final ResourceSet resourceSet;
+  private final Shared sharedAdapterFactory;
+
+  /**
+   * @param resourceSet the resource set of the document
+   * @param sharedAdapterFactory the adapter factory of objects in other resource sets
+   */
+  DocumentAdapterFactory(ResourceSet resourceSet, Shared sharedAdapterFactory) {
+    super(ComposedAdapterFactory.Descriptor.Registry.INSTANCE);
+    this.resourceSet = resourceSet;
+    this.sharedAdapterFactory = sharedAdapterFactory;
+  }
+
+  // all adapting goes through here, including that of the item providers, since this is their root factory
+  @Override
+  protected Adapter adapt(Notifier target, Object type, boolean isNew) {
+    if (target instanceof EObject eObject && eObject.eResource() != null
+        && eObject.eResource().getResourceSet() != resourceSet) {
+      return isNew ? sharedAdapterFactory.adaptNew(target, type) : sharedAdapterFactory.adapt(target, type);
+    }
+    return super.adapt(target, type, isNew);
+  }
+
+  /**
+   * Adapter factory of objects that aren't in a document, which is used from the lanes of all documents,
+   * so it adapts while holding a lock.
+   */
+  static class Shared extends ComposedAdapterFactory {
+
+    private final Object lock;
+
+    /**
+     * @param lock the lock held while adapting
+     */
+    Shared(Object lock) {
+      super(ComposedAdapterFactory.Descriptor.Registry.INSTANCE);
+      this.lock = lock;
+    }
+
+    @Override
+    protected Adapter adapt(Notifier target, Object type, boolean isNew) {
+      synchronized (lock) {
+        return super.adapt(target, type, isNew);
+      }
+    }
+
+    @Override
+    public void dispose() {
+      synchronized (lock) {
+        super.dispose();
+      }
+    }
+  }
+}
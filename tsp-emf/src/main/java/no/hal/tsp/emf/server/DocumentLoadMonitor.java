@@ -0,0 +1,168 @@
+package no.hal.tsp.emf.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import no.hal.tsp.protocol.DocumentApi.LoadProgressParams;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.URIConverter;
+import org.eclipse.emf.ecore.resource.impl.ExtensibleURIConverterImpl;
+
+/**
+ * Monitors the loading of a document, by counting the bytes read and capturing the root objects as they are added.
+ * Progress is reported at most every {@link #PROGRESS_INTERVAL_MILLIS} ms, and when new roots are added.
+ * The roots are captured together with their ids, on the loading thread,
+ * so other threads can list them without touching objects that are being loaded.
+ */
+class DocumentLoadMonitor extends AdapterImpl {
+
+  static final long PROGRESS_INTERVAL_MILLIS = 200;
+
+  /**
+   * A root object, as captured when it was added to the resource.
+   */
+  record LoadedRoot(String id, EClass eClass) {
+  }
+
+  private final String documentUri;
+  private final Consumer<LoadProgressParams> progressListener;
+  private final AtomicLong loadedBytes = new AtomicLong();
+  private final List<LoadedRoot> roots = new CopyOnWriteArrayList<>();
+  private volatile long totalBytes = -1;
+  private volatile long lastProgressTime;
+
+  private ObjectIdIndex idIndex;
+
+  DocumentLoadMonitor(String documentUri, Consumer<LoadProgressParams> progressListener) {
+    this.documentUri = documentUri;
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * Prepares for loading a resource, by installing a counting URI converter in its resource set,
+   * and starting to capture its roots.
+   *
+   * @param resource the resource that will be loaded
+   * @param idIndex the index that assigns ids to the roots
+   */
+  void attach(Resource resource, ObjectIdIndex idIndex) {
+    this.idIndex = idIndex;
+    var resourceSet = resource.getResourceSet();
+    var uriConverter = new CountingURIConverter();
+    totalBytes = lengthOf(uriConverter, resource.getURI());
+    resourceSet.setURIConverter(uriConverter);
+    resource.eAdapters().add(this);
+  }
+
+  /**
+   * Stops monitoring and reports the final progress.
+   *
+   * @param resource the loaded resource
+   */
+  void detach(Resource resource) {
+    resource.eAdapters().remove(this);
+    if (resource.getResourceSet().getURIConverter() instanceof CountingURIConverter) {
+      resource.getResourceSet().setURIConverter(null);
+    }
+    reportProgress(true);
+  }
+
+  List<LoadedRoot> getRoots() {
+    return roots;
+  }
+
+  @Override
+  public void notifyChanged(Notification notification) {
+    if (notification.getFeatureID(Resource.class) != Resource.RESOURCE__CONTENTS) {
+      return;
+    }
+    switch (notification.getEventType()) {
+      case Notification.ADD -> addRoot(notification.getNewValue());
+      case Notification.ADD_MANY -> ((Collection<?>) notification.getNewValue()).forEach(this::addRoot);
+      default -> {
+        return;
+      }
+    }
+    reportProgress(false);
+  }
+
+  private void addRoot(Object root) {
+    if (root instanceof EObject eObject) {
+      roots.add(new LoadedRoot(idIndex.idFor(eObject), eObject.eClass()));
+    }
+  }
+
+  private void bytesRead(long count) {
+    loadedBytes.addAndGet(count);
+    if (System.currentTimeMillis() - lastProgressTime >= PROGRESS_INTERVAL_MILLIS) {
+      reportProgress(false);
+    }
+  }
+
+  private void reportProgress(boolean done) {
+    lastProgressTime = System.currentTimeMillis();
+    progressListener.accept(new LoadProgressParams(documentUri, loadedBytes.get(), totalBytes, roots.size(), done));
+  }
+
+  private static long lengthOf(URIConverter uriConverter, URI uri) {
+    try {
+      var attributes = uriConverter.getAttributes(uri,
+          Map.of(URIConverter.OPTION_REQUESTED_ATTRIBUTES, Set.of(URIConverter.ATTRIBUTE_LENGTH)));
+      return attributes.get(URIConverter.ATTRIBUTE_LENGTH) instanceof Long length ? length : -1;
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  private class CountingURIConverter extends ExtensibleURIConverterImpl {
+
+    @Override
+    public InputStream createInputStream(URI uri, Map<?, ?> options) throws IOException {
+      return new CountingInputStream(super.createInputStream(uri, options));
+    }
+  }
+
+  private class CountingInputStream extends FilterInputStream {
+
+    CountingInputStream(InputStream input) {
+      super(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        bytesRead(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int count = super.read(bytes, offset, length);
+      if (count > 0) {
+        bytesRead(count);
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long count = super.skip(n);
+      bytesRead(count);
+      return count;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package no.hal.tsp.emf.server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.impl.BinaryResourceImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceImpl;
+
+/**
+ * Resource factory for the XMI resources of documents, with support for the load options of this server.
+ */
+class DocumentResourceFactory extends XMIResourceFactoryImpl {
+
+  /**
+   * Load option for decoding EMF's binary format instead of XMI, used by the {@link BinaryLoadCache}.
+   */
+  static final String OPTION_BINARY_LOAD = DocumentResourceFactory.class.getName() + ".binary";
+
+  /**
+   * Load option for the size of the buffer of the input stream, used by the {@link LoadProfile}s.
+   */
+  static final String OPTION_INPUT_BUFFER_SIZE = DocumentResourceFactory.class.getName() + ".inputBufferSize";
+
+  @Override
+  public Resource createResource(URI uri) {
+    return new XMIResourceImpl(uri) {
+      @Override
+      public void doLoad(InputStream inputStream, Map<?, ?> options) throws IOException {
+        if (options != null && Boolean.TRUE.equals(options.get(OPTION_BINARY_LOAD))) {
+          new BinaryResourceImpl.EObjectInputStream(inputStream, options).loadResource(this);
+        } else if (options != null && options.get(OPTION_INPUT_BUFFER_SIZE) instanceof Integer bufferSize) {
+          super.doLoad(new BufferedInputStream(inputStream, bufferSize), options);
+        } else {
+          super.doLoad(inputStream, options);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,139 @@
+package no.hal.tsp.emf.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.URIConverter;
+
+/**
+ * Saves documents in two steps, so the document is only used while taking a snapshot of its content.
+ * First the resource is serialized into memory, in the lane of the document,
+ * then the snapshot is written, outside of the lane, so editing can continue.
+ * Files are written to a temp file that is synced and atomically renamed, so a crash never leaves a partial file,
+ * and nothing is written if the content is unchanged, like {@link Resource#OPTION_SAVE_ONLY_IF_CHANGED}.
+ */
+class DocumentSaver {
+
+  private DocumentSaver() {
+  }
+
+  /**
+   * Serializes a resource, as if saved to a given uri, which determines how references to other documents are written.
+   *
+   * @param resource the resource
+   * @param targetUri the uri the content will be written to
+   * @return the serialized content
+   * @throws IOException if the resource cannot be serialized
+   */
+  static byte[] serialize(Resource resource, URI targetUri) throws IOException {
+    var output = new ByteArrayOutputStream(64 * 1024);
+    URI uri = resource.getURI();
+    if (targetUri.equals(uri)) {
+      resource.save(output, Map.of());
+      return output.toByteArray();
+    }
+    // temporarily serialize relative to the target, without notifying about it
+    boolean deliver = resource.eDeliver();
+    resource.eSetDeliver(false);
+    try {
+      resource.setURI(targetUri);
+      resource.save(output, Map.of());
+    } finally {
+      resource.setURI(uri);
+      resource.eSetDeliver(deliver);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Writes content to a uri, unless it already has the same content.
+   *
+   * @param uriConverter the converter for uris that aren't files
+   * @param uri the uri
+   * @param content the content
+   * @return true if the content was written, false if it was unchanged
+   * @throws IOException if the content cannot be written
+   */
+  static boolean write(URIConverter uriConverter, URI uri, byte[] content) throws IOException {
+    if (uri.isFile()) {
+      return writeFile(Path.of(uri.toFileString()), content);
+    }
+    if (hasContent(uriConverter, uri, content)) {
+      return false;
+    }
+    try (OutputStream output = uriConverter.createOutputStream(uri)) {
+      output.write(content);
+    }
+    return true;
+  }
+
+  private static boolean hasContent(URIConverter uriConverter, URI uri, byte[] content) {
+    if (!uriConverter.exists(uri, null)) {
+      return false;
+    }
+    try (InputStream input = uriConverter.createInputStream(uri)) {
+      return Arrays.equals(input.readNBytes(content.length + 1), content);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean writeFile(Path file, byte[] content) throws IOException {
+    file = file.toAbsolutePath();
+    if (Files.isRegularFile(file) && Files.size(file) == content.length
+        && Arrays.equals(Files.readAllBytes(file), content)) {
+      return false;
+    }
+    Path dir = file.getParent();
+    Files.createDirectories(dir);
+    // in the same directory, so it can be renamed atomically
+    Path tempFile = dir.resolve("." + file.getFileName() + "." + ThreadLocalRandom.current().nextInt(1 << 30) + ".tmp");
+    try {
+      try (var channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        var buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      copyPermissions(file, tempFile);
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+    syncDirectory(dir);
+    return true;
+  }
+
+  private static void copyPermissions(Path source, Path target) throws IOException {
+    if (Files.exists(source)) {
+      try {
+        Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+      } catch (UnsupportedOperationException e) {
+        // not a posix file system
+      }
+    }
+  }
+
+  // makes the rename durable, where the platform supports syncing a directory
+  private static void syncDirectory(Path dir) {
+    try (var channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // e.g. not supported on Windows
+    }
+  }
+}
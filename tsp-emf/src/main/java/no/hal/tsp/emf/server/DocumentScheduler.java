@@ -0,0 +1,81 @@
+package no.hal.tsp.emf.server;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Runs the work for each document in order, in the document's own lane,
+ * while the work for different documents runs in parallel, on virtual threads.
+ * A lane only exists while it has pending work.
+ */
+public class DocumentScheduler implements AutoCloseable {
+
+  private final ExecutorService executor;
+  // the last scheduled task of each document with pending work
+  private final Map<String, CompletableFuture<?>> lanes = new ConcurrentHashMap<>();
+  // the lane of the task running in the current thread, to support nested scheduling in the same lane
+  private final ThreadLocal<String> currentLane = new ThreadLocal<>();
+
+  public DocumentScheduler(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  public DocumentScheduler() {
+    this(Executors.newVirtualThreadPerTaskExecutor());
+  }
+
+  /**
+   * Schedules an action in a document's lane, to run after all actions previously scheduled in the same lane.
+   * If called from an action in the same lane, the action is run directly, to avoid waiting for itself.
+   *
+   * @param documentUri the document uri, which identifies the lane
+   * @param action the action
+   * @return future for the result of the action, completed exceptionally if the action throws
+   */
+  public <T> CompletableFuture<T> schedule(String documentUri, Supplier<T> action) {
+    String lane = documentUri != null ? documentUri : "";
+    if (lane.equals(currentLane.get())) {
+      try {
+        return CompletableFuture.completedFuture(action.get());
+      } catch (RuntimeException e) {
+        return CompletableFuture.failedFuture(e);
+      }
+    }
+    var task = new CompletableFuture<T>();
+    var next = lanes.compute(lane, (key, tail) -> (tail != null ? tail : CompletableFuture.completedFuture(null))
+        // run regardless of how the previous task completed
+        .handle((result, exception) -> null)
+        .thenComposeAsync(ignore -> run(lane, action, task), executor));
+    // drop the lane when it has no more pending work
+    next.whenComplete((result, exception) -> lanes.remove(lane, next));
+    return task;
+  }
+
+  private <T> CompletableFuture<T> run(String lane, Supplier<T> action, CompletableFuture<T> task) {
+    currentLane.set(lane);
+    try {
+      task.complete(action.get());
+    } catch (Throwable e) {
+      task.completeExceptionally(e);
+    } finally {
+      currentLane.remove();
+    }
+    return task;
+  }
+
+  /**
+   * @return the number of documents with pending work
+   */
+  int laneCount() {
+    return lanes.size();
+  }
+
+  @Override
+  public void close() {
+    executor.close();
+  }
+}
@@ -0,0 +1,104 @@
+package no.hal.tsp.emf.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import no.hal.tsp.protocol.UndoRedoApi.DocumentEditedParams;
+import no.hal.tsp.protocol.UndoRedoApi.EditKind;
+
+/**
+ * Coalesces the document/edited notifications of each document that are sent within a time window,
+ * into one notification with the affected object ids of all of them, and their deltas in order.
+ * Only notifications of the same logical operation are merged, i.e. those of edits merged into the previous command,
+ * since clients add an undo entry for each notification of a new command, and undo one command per entry.
+ * Any other notification sends the pending one first. With no window, notifications are sent right away.
+ */
+class EditNotificationCoalescer {
+
+  private final Consumer<DocumentEditedParams> sender;
+  private volatile long windowMillis;
+  // the notification waiting for the window to close, by document uri
+  private final Map<String, DocumentEditedParams> pending = new HashMap<>();
+
+  EditNotificationCoalescer(Consumer<DocumentEditedParams> sender) {
+    this.sender = sender;
+  }
+
+  void setWindowMillis(long windowMillis) {
+    this.windowMillis = windowMillis;
+    if (windowMillis <= 0) {
+      flushAll();
+    }
+  }
+
+  long getWindowMillis() {
+    return windowMillis;
+  }
+
+  /**
+   * Sends a notification, or merges it into the pending one of its document.
+   * Notifications are sent while holding the lock, so they are sent in the order they are submitted.
+   *
+   * @param documentEdited the notification
+   */
+  synchronized void submit(DocumentEditedParams documentEdited) {
+    var documentUri = documentEdited.documentUri();
+    var previous = pending.get(documentUri);
+    if (previous != null && !isSameOperation(previous, documentEdited)) {
+      flush(documentUri);
+      previous = null;
+    }
+    long window = windowMillis;
+    if (window <= 0) {
+      sender.accept(documentEdited);
+    } else if (previous != null) {
+      pending.put(documentUri, merge(previous, documentEdited));
+    } else {
+      pending.put(documentUri, documentEdited);
+      CompletableFuture.delayedExecutor(window, TimeUnit.MILLISECONDS).execute(() -> flush(documentUri));
+    }
+  }
+
+  synchronized void flush(String documentUri) {
+    var documentEdited = pending.remove(documentUri);
+    if (documentEdited != null) {
+      sender.accept(documentEdited);
+    }
+  }
+
+  synchronized void flushAll() {
+    for (var documentUri : new ArrayList<>(pending.keySet())) {
+      flush(documentUri);
+    }
+  }
+
+  /**
+   * Drops the pending notification of a document, e.g. when it is closed.
+   */
+  synchronized void discard(String documentUri) {
+    pending.remove(documentUri);
+  }
+
+  // an edit merged into the previous command continues the operation of the pending notification
+  private static boolean isSameOperation(DocumentEditedParams pending, DocumentEditedParams documentEdited) {
+    var mergedKind = EditKind.MERGED.name();
+    return documentEdited.kind().equals(mergedKind)
+        && (pending.kind().equals(mergedKind) || pending.kind().equals(EditKind.NORMAL.name()));
+  }
+
+  /**
+   * Merges two notifications of the same operation, with the kind of the first,
+   * so a new command with the edits merged into it is still a new command.
+   */
+  static DocumentEditedParams merge(DocumentEditedParams first, DocumentEditedParams second) {
+    var affectedObjectIds = new LinkedHashSet<>(first.affectedObjectIds());
+    affectedObjectIds.addAll(second.affectedObjectIds());
+    var deltas = new ArrayList<>(first.deltas());
+    deltas.addAll(second.deltas());
+    return new DocumentEditedParams(second.documentUri(), first.kind(), affectedObjectIds, deltas);
+  }
+}
@@ -1,18 +1,32 @@
 package no.hal.tsp.emf.server;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
+import no.hal.tsp.launcher.MessageMetrics;
 import no.hal.tsp.launcher.ServerProtocolLauncher;
+import no.hal.tsp.model.Label;
+import no.hal.tsp.model.ServerMetrics.DocumentMetrics;
+import no.hal.tsp.model.TreeNode;
 import no.hal.tsp.protocol.DocumentClientProtocol;
+import no.hal.tsp.protocol.DocumentParams;
 import no.hal.tsp.protocol.DocumentServerProtocol;
 import org.eclipse.emf.common.command.BasicCommandStack;
 import org.eclipse.emf.common.command.Command;
 import org.eclipse.emf.common.command.CommandStack;
+import org.eclipse.emf.common.notify.Notification;
 import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.common.util.WrappedException;
+import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
@@ -21,14 +35,60 @@ import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
 /**
  * Implementation of the Document Server Protocol using EMF resources.
  */
-public class EmfDocumentServer implements DocumentServerProtocol, DocumentClientProtocol.Consumer {
+public class EmfDocumentServer
+    implements DocumentServerProtocol, DocumentClientProtocol.Consumer, MessageMetrics.Consumer, AutoCloseable {
 
-  private Map<String, Resource> openResources = new HashMap<>();
-  private Map<Resource, CommandStack> commandStacks = new HashMap<>();
+  private Map<String, Resource> openResources = new ConcurrentHashMap<>();
+  private Map<Resource, CommandStack> commandStacks = new ConcurrentHashMap<>();
+  private Map<Resource, TreeDeltaRecorder> deltaRecorders = new ConcurrentHashMap<>();
+  private Map<Resource, ObjectIdIndex> idIndexes = new ConcurrentHashMap<>();
+  // load and save times of open documents, for the metrics
+  private Map<Resource, DocumentTimes> documentTimes = new ConcurrentHashMap<>();
+  // requests for the same document run in order, requests for different documents in parallel
+  private final DocumentScheduler documentScheduler = new DocumentScheduler();
+  // prefix of the lanes for writing saved documents, separate from the document lanes
+  private static final String SAVE_LANE_PREFIX = "save:";
+  // documents that are loading, so their roots can be listed before loading finishes
+  private final Map<String, DocumentLoadMonitor> loadMonitors = new ConcurrentHashMap<>();
+  // optional cache of documents in binary format
+  private volatile BinaryLoadCache loadCache;
+  private volatile LoadProfile loadProfile = LoadProfile.DEFAULT;
+  private volatile BoundedCommandStack.Limits undoLimits = BoundedCommandStack.Limits.DEFAULT;
+  // caches that may be shared with the servers of other connections
+  private final ServerCaches caches;
+  // resources referenced from documents, loaded once for all documents
+  private final SharedResourcePool sharedResources;
   private final ThreadLocal<EditKind> currentEditKind = ThreadLocal.withInitial(() -> EditKind.NORMAL);
+  // the edits recorded by the command stack listener during a request, so it can notify and reply them as one
+  private final ThreadLocal<List<DocumentEditedParams>> recordedEdits = new ThreadLocal<>();
+  // merges the document/edited notifications sent within a time window
+  private final EditNotificationCoalescer editNotifications = new EditNotificationCoalescer(this::notifyDocumentEdited);
+  // whether to notify edits that are included in the reply to the request that made them
+  private volatile boolean notifyRepliedEdits = true;
 
   // for notifications of edits
   private DocumentClientProtocol documentClient;
+  // set by the launcher, when it measures the messages
+  private MessageMetrics messageMetrics = new MessageMetrics();
+
+  private record DocumentTimes(long loadMillis, long saveMillis, long savedBytes) {
+  }
+
+  public EmfDocumentServer() {
+    this(new ServerCaches());
+  }
+
+  /**
+   * @param caches the caches, shared with other servers of the same class
+   */
+  EmfDocumentServer(ServerCaches caches) {
+    this.caches = caches;
+    this.sharedResources = caches.sharedResources;
+  }
+
+  ServerCaches getCaches() {
+    return caches;
+  }
 
   protected Resource getResource(String documentUri) {
     return openResources.get(documentUri);
@@ -38,99 +98,414 @@ public class EmfDocumentServer implements DocumentServerProtocol, DocumentClient
     return commandStacks.get(resource);
   }
 
+  /**
+   * Called for each change of the contents of a document, before the tree node deltas of the change are computed,
+   * e.g. for invalidating what depends on the contents.
+   *
+   * @param resource the resource of the document
+   * @param notification the notification of the change
+   */
+  protected void documentChanged(Resource resource, Notification notification) {
+  }
+
+  /**
+   * Runs an action in the lane of the document of a request,
+   * after the actions of the requests for the same document received before it.
+   *
+   * @param params the request params, which identify the document
+   * @param action the action
+   * @return future for the result of the action
+   */
+  protected <T> CompletableFuture<T> inDocumentLane(DocumentParams params, Supplier<T> action) {
+    return documentScheduler.schedule(params.documentUri(), action);
+  }
+
+  /**
+   * Sets the profile of the load options of documents that are opened later.
+   *
+   * @param loadProfile the load profile
+   */
+  void setLoadProfile(LoadProfile loadProfile) {
+    this.loadProfile = loadProfile;
+    sharedResources.setLoadOptions(loadProfile.loadOptions(sharedResources.getNameToFeatureMap()));
+  }
+
+  SharedResourcePool getSharedResources() {
+    return sharedResources;
+  }
+
+  /**
+   * Tells if a resource is shared by documents, and hence is read-only.
+   *
+   * @param resource the resource
+   * @return true if the resource is shared, false otherwise
+   */
+  protected boolean isSharedResource(Resource resource) {
+    return sharedResources.isShared(resource);
+  }
+
+  /**
+   * Creates the resource set of a document, which contains the document's own resource,
+   * while other resources it references are shared with other documents.
+   *
+   * @return the resource set
+   */
+  protected ResourceSet createResourceSet() {
+    ResourceSet resourceSet = new ResourceSetImpl() {
+      @Override
+      protected Resource delegatedGetResource(URI uri, boolean loadOnDemand) {
+        var resource = super.delegatedGetResource(uri, loadOnDemand);
+        return resource != null ? resource : sharedResources.acquire(uri, this, loadOnDemand);
+      }
+    };
+    resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap()
+        .put("*", new DocumentResourceFactory());
+    resourceSet.getLoadOptions().putAll(loadProfile.loadOptions(sharedResources.getNameToFeatureMap()));
+    return resourceSet;
+  }
+
+  /**
+   * Sets the time window within which the document/edited notifications of a document are merged.
+   *
+   * @param windowMillis the window in milliseconds, zero or less to send notifications right away
+   */
+  protected void setEditNotificationWindow(long windowMillis) {
+    editNotifications.setWindowMillis(windowMillis);
+  }
+
+  /**
+   * Sets whether to notify edits that are included in the reply to the request that made them,
+   * i.e. the edits of undoEdits, redoEdits and doEdits.
+   * Clients that handle these replies as edits, can turn this off, to avoid handling the edits twice.
+   *
+   * @param notifyRepliedEdits whether to notify replied edits
+   */
+  protected void setNotifyRepliedEdits(boolean notifyRepliedEdits) {
+    this.notifyRepliedEdits = notifyRepliedEdits;
+  }
+
+  /**
+   * Sets the bounds of the undo history of documents, and the window for merging edits,
+   * for open documents as well as documents opened later.
+   *
+   * @param undoLimits the bounds and merge window
+   */
+  void setUndoLimits(BoundedCommandStack.Limits undoLimits) {
+    this.undoLimits = undoLimits;
+    for (var commandStack : commandStacks.values()) {
+      if (commandStack instanceof BoundedCommandStack boundedCommandStack) {
+        boundedCommandStack.setLimits(undoLimits);
+      }
+    }
+  }
+
+  /**
+   * Sets the directory of the binary load cache.
+   *
+   * @param cacheDir the directory, or null to disable the cache
+   */
+  protected void setLoadCacheDir(Path cacheDir) {
+    var currentLoadCache = loadCache;
+    if (cacheDir == null) {
+      loadCache = null;
+    } else if (currentLoadCache == null || !cacheDir.equals(currentLoadCache.getCacheDir())) {
+      loadCache = caches.loadCache(cacheDir);
+    }
+  }
+
+  BinaryLoadCache getLoadCache() {
+    return loadCache;
+  }
+
+  private ObjectIdIndex idIndexFor(Object resource) {
+    return resource != null ? idIndexes.get(resource) : null;
+  }
+
   @Override
   public void setDocumentClient(DocumentClientProtocol documentClient) {
     this.documentClient = documentClient;
   }
 
+  @Override
+  public void setMessageMetrics(MessageMetrics messageMetrics) {
+    this.messageMetrics = messageMetrics;
+  }
+
+  protected MessageMetrics getMessageMetrics() {
+    return messageMetrics;
+  }
+
   @Override
   public CompletableFuture<Void> openDocument(OpenDocumentParams params) {
+    // registered before scheduling, so requests for the roots received while loading can be answered
+    loadMonitors.put(params.documentUri(), new DocumentLoadMonitor(params.documentUri(), this::notifyLoadProgress));
+    return inDocumentLane(params, () -> {
+      try {
+        openResource(params);
+      } finally {
+        loadMonitors.remove(params.documentUri());
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Loads the resource of a document, and sets up the state for it.
+   * Runs in the lane of the document.
+   *
+   * @param params the open document params
+   * @return the loaded resource
+   */
+  protected Resource openResource(OpenDocumentParams params) {
     URI uri = URI.createURI(params.documentUri());
-    ResourceSet resourceSet = new ResourceSetImpl();
-    resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap()
-        .put("*", new org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl());
+    ResourceSet resourceSet = createResourceSet();
     System.err.println("Loading resource: " + uri);
-    Resource resource = resourceSet.getResource(uri, true);
+    Resource resource = resourceSet.createResource(uri);
+    var loadCache = this.loadCache;
+    // computed before the load monitor is attached, so progress only counts the bytes that are loaded
+    var contentHash = loadCache != null ? loadCache.contentHash(resourceSet.getURIConverter(), uri) : null;
+    var idIndex = new ObjectIdIndex(resource);
+    idIndexes.put(resource, idIndex);
+    var loadMonitor = loadMonitors.get(params.documentUri());
+    if (loadMonitor != null) {
+      loadMonitor.attach(resource, idIndex);
+    }
+    var loadEvent = new TspEvents.DocumentLoad();
+    loadEvent.begin();
+    long loadStart = System.nanoTime();
+    boolean cached = false;
+    try {
+      cached = contentHash != null && loadCache.load(resource, contentHash);
+      if (!cached) {
+        resource.load(resourceSet.getLoadOptions());
+      }
+    } catch (IOException e) {
+      idIndexes.remove(resource).dispose();
+      sharedResources.release(resourceSet);
+      throw new WrappedException(e);
+    } finally {
+      if (loadMonitor != null) {
+        loadMonitor.detach(resource);
+      }
+    }
+    long loadTime = System.nanoTime() - loadStart;
+    loadEvent.cached = cached;
+    loadEvent.commit(params.documentUri(), null, 0, () -> objectCount(resource));
+    documentTimes.put(resource, new DocumentTimes(loadTime / 1_000_000, -1, -1));
+    if (contentHash != null) {
+      loadCache.recordLoad(cached, loadTime);
+      if (!cached) {
+        loadCache.store(resource, contentHash);
+      }
+    }
     openResources.put(params.documentUri(), resource);
-    var commandStack = new BasicCommandStack();
+    var deltaRecorder = new TreeDeltaRecorder(this);
+    resource.eAdapters().add(deltaRecorder);
+    deltaRecorders.put(resource, deltaRecorder);
+    var commandStack = new BoundedCommandStack(undoLimits);
     commandStack.addCommandStackListener(event -> {
       System.err.println("Command stack changed: " + event);
-      notifyDocumentEdited(params.documentUri(), currentEditKind.get(),
-        affectedObjectIds(commandStack.getMostRecentCommand()));
+      var mostRecentCommand = commandStack.getMostRecentCommand();
+      var editKind = currentEditKind.get() == EditKind.NORMAL && commandStack.isMostRecentMerged()
+          ? EditKind.MERGED
+          : currentEditKind.get();
+      // the uri of the resource, since it is changed by save as
+      var documentEdited = new DocumentEditedParams(resource.getURI().toString(), editKind.name(),
+          mostRecentCommand != null ? affectedObjectIds(mostRecentCommand) : List.of(),
+          deltaRecorder.drain());
+      var edits = recordedEdits.get();
+      if (edits != null) {
+        edits.add(documentEdited);
+      } else {
+        editNotifications.submit(documentEdited);
+      }
     });
     commandStacks.put(resource, commandStack);
-    return CompletableFuture.completedFuture(null);
+    return resource;
   }
 
   @Override
   public CompletableFuture<DocumentEditedParams> undoEdits(UndoEditsParams params) {
-    var resource = getResource(params.documentUri());
-    var commandStack = commandStacks.get(resource);
-    var affectedObjectIds = new LinkedHashSet<String>();
-    int count = Math.max(0, params.count());
-    while (count > 0 && commandStack.canUndo()) {
-      withEditKind(EditKind.UNDO, () -> {
-        commandStack.undo();
-        return null;
-      });
-      if (commandStack instanceof BasicCommandStack basicCommandStack) {
-        for (var affectedObjectId : affectedObjectIds(basicCommandStack.getMostRecentCommand())) {
-          affectedObjectIds.add(affectedObjectId);
-        }
-      }
-      count--;
-    }
-    return CompletableFuture.completedFuture(new DocumentEditedParams(params.documentUri(),
-        EditKind.UNDO.name(), affectedObjectIds));
+    return inDocumentLane(params, () -> editAll(params.documentUri(), EditKind.UNDO, params.count()));
   }
 
   @Override
   public CompletableFuture<DocumentEditedParams> redoEdits(RedoEditsParams params) {
-    var resource = getResource(params.documentUri());
+    return inDocumentLane(params, () -> editAll(params.documentUri(), EditKind.REDO, params.count()));
+  }
+
+  private DocumentEditedParams editAll(String documentUri, EditKind kind, int count) {
+    var resource = getResource(documentUri);
+    if (resource == null) {
+      throw new IllegalArgumentException("Resource not found: " + documentUri);
+    }
     var commandStack = commandStacks.get(resource);
-    var affectedObjectIds = new LinkedHashSet<String>();
-    int count = Math.max(0, params.count());
-    while (count > 0 && commandStack.canRedo()) {
-      withEditKind(EditKind.REDO, () -> {
-        commandStack.redo();
-        return null;
-      });
-      if (commandStack instanceof BasicCommandStack basicCommandStack) {
-        for (var affectedObjectId : affectedObjectIds(basicCommandStack.getMostRecentCommand())) {
-          affectedObjectIds.add(affectedObjectId);
+    var event = new TspEvents.UndoRedo();
+    event.kind = kind.name();
+    event.begin();
+    int[] steps = {0};
+    // all the steps are one edit, with one notification
+    var documentEdited = recordEdit(kind, () -> {
+      for (int i = Math.max(0, count); i > 0; i--) {
+        if (!(kind == EditKind.UNDO ? commandStack.canUndo() : commandStack.canRedo())) {
+          break;
+        }
+        if (kind == EditKind.UNDO) {
+          commandStack.undo();
+        } else {
+          commandStack.redo();
         }
+        steps[0]++;
       }
-      count--;
-    }
-    return CompletableFuture.completedFuture(new DocumentEditedParams(params.documentUri(),
-        EditKind.REDO.name(), affectedObjectIds));
+    });
+    event.commit(documentUri, null, 0, () -> steps[0]);
+    publishEdit(documentUri, documentEdited, true);
+    return documentEdited != null
+        ? new DocumentEditedParams(documentUri, kind.name(), documentEdited.affectedObjectIds(), documentEdited.deltas())
+        : new DocumentEditedParams(documentUri, kind.name(), List.of(), List.of());
   }
 
   protected DocumentEditedParams doCommand(Command command, Resource resource) {
+    return doCommand(command, resource, false);
+  }
+
+  /**
+   * Executes a command on the command stack of a document, and notifies the edit.
+   *
+   * @param command the command
+   * @param resource the resource of the document
+   * @param replied whether the edit is included in the reply to the request, so notifying it may be skipped
+   * @return the edit
+   */
+  protected DocumentEditedParams doCommand(Command command, Resource resource, boolean replied) {
     var commandStack = commandStacks.get(resource);
-    withEditKind(EditKind.NORMAL, () -> {
+    var documentEdited = recordEdit(EditKind.NORMAL, () -> {
       System.err.println("Executing " + command.getLabel() + ": " + command.getDescription());
       commandStack.execute(command);
-      return null;
     });
-    return new DocumentEditedParams(resource.getURI().toString(), EditKind.NORMAL.name(),
-        affectedObjectIds(command));
+    var documentUri = resource.getURI().toString();
+    publishEdit(documentUri, documentEdited, replied);
+    return new DocumentEditedParams(documentUri, EditKind.NORMAL.name(),
+        affectedObjectIds(command), documentEdited != null ? documentEdited.deltas() : List.of());
+  }
+
+  /**
+   * Tells if a command done by doCommand was executed, as it is or merged with the previous command,
+   * since the command stack rolls back a command that fails, and forgets it.
+   *
+   * @param command the command
+   * @param resource the resource of the document
+   * @return true if the command was executed, false otherwise
+   */
+  protected boolean isExecuted(Command command, Resource resource) {
+    var commandStack = commandStacks.get(resource);
+    return commandStack instanceof BoundedCommandStack boundedCommandStack
+        ? boundedCommandStack.isExecuted(command)
+        : commandStack.getMostRecentCommand() == command;
+  }
+
+  private void publishEdit(String documentUri, DocumentEditedParams documentEdited, boolean replied) {
+    if (documentEdited != null && (!replied || notifyRepliedEdits)) {
+      editNotifications.submit(documentEdited);
+    }
+    // the deltas of a reply are applied after those of the edits before it, so their pending notification is sent first
+    if (replied) {
+      editNotifications.flush(documentUri);
+    }
+  }
+
+  protected void notifyLoadProgress(LoadProgressParams loadProgress) {
+    if (documentClient != null) {
+      documentClient.loadProgress(loadProgress);
+    }
+  }
+
+  /**
+   * Returns the root nodes loaded so far, for a document that is loading.
+   * Can be called from any thread, since it only uses what was captured by the loading thread.
+   *
+   * @param documentUri the document uri
+   * @return the root nodes, or null if the document isn't loading
+   */
+  protected TreeNode[] loadingRootNodes(String documentUri) {
+    var loadMonitor = loadMonitors.get(documentUri);
+    if (loadMonitor == null) {
+      return null;
+    }
+    return loadMonitor.getRoots().stream()
+        .map(root -> provisionalTreeNodeFor(root.id(), root.eClass()))
+        .toArray(TreeNode[]::new);
   }
 
-  protected void notifyDocumentEdited(String documentUri, EditKind kind, Collection<String> affectedObjectIds) {
+  /**
+   * Creates the tree node for a root object that is still loading,
+   * which cannot be used for the label, since its features may not be set yet.
+   *
+   * @param id the id of the object
+   * @param eClass the class of the object
+   * @return the provisional tree node, with unknown child count
+   */
+  protected TreeNode provisionalTreeNodeFor(String id, EClass eClass) {
+    return new TreeNode(id, "object", null, Label.ofText(eClass.getName()), null, -1);
+  }
+
+  protected void notifyDocumentEdited(DocumentEditedParams documentEdited) {
     if (documentClient != null) {
-      System.err.println(kind + " command in " + documentUri + " affected " + String.join(", ", affectedObjectIds));
-      documentClient.documentEdited(new DocumentEditedParams(documentUri, kind.name(), affectedObjectIds));
+      System.err.println(documentEdited.kind() + " command in " + documentEdited.documentUri()
+          + " affected " + String.join(", ", documentEdited.affectedObjectIds()));
+      documentClient.documentEdited(documentEdited);
     }
   }
 
+  /**
+   * Creates the tree node used for inserted and changed nodes in tree node deltas.
+   *
+   * @param o the object
+   * @return the tree node for the object
+   */
+  protected TreeNode treeNodeFor(Object o) {
+    return new TreeNode(objectId(o), "object", null, null);
+  }
+
+  /**
+   * Returns the id of an object, stable across edits, and unique within the document.
+   *
+   * @param o the object
+   * @return the id
+   */
   protected String objectId(Object o) {
     if (o instanceof EObject eObject) {
-      return eObject.eResource().getURIFragment(eObject);
+      var idIndex = idIndexFor(eObject.eResource());
+      if (idIndex != null) {
+        return idIndex.idFor(eObject);
+      }
+      // removed from the document, or not part of one,
+      // while the adapters of shared objects aren't read, since other documents may be adding to them
+      String id = isSharedResource(eObject.eResource()) ? null : ObjectIdIndex.existingIdFor(eObject);
+      if (id != null) {
+        return id;
+      }
+      return eObject.eResource() != null ? eObject.eResource().getURIFragment(eObject) : null;
     }
     return String.valueOf(o.hashCode());
   }
 
+  /**
+   * Computes the id of a removed object, which must be done relative to the parent it was removed from.
+   *
+   * @param parent the resource or EObject the object was removed from
+   * @param o the removed object
+   * @return the id of the removed object
+   */
+  protected String removedObjectId(Object parent, Object o) {
+    var resource = parent instanceof EObject eObject ? eObject.eResource() : parent;
+    var idIndex = idIndexFor(resource);
+    if (idIndex != null && o instanceof EObject eObject) {
+      return idIndex.idFor(eObject);
+    }
+    return objectId(o);
+  }
+
   protected EObject objectForId(String id, Object context) {
     Resource resource = null;
     if (context instanceof Resource r) {
@@ -139,9 +514,30 @@ public class EmfDocumentServer implements DocumentServerProtocol, DocumentClient
       resource = eObject.eResource();
     }
     var parts = id.split(",");
+    var idIndex = idIndexFor(resource);
+    if (idIndex != null && ObjectIdIndex.isIndexId(parts[0])) {
+      var eObject = idIndex.objectFor(parts[0]);
+      return eObject != null && eObject.eResource() != null ? eObject : null;
+    }
+    // URI fragments are still supported, e.g. for references persisted by clients
     return resource.getEObject(parts[0]);
   }
 
+  /**
+   * Maps an object id back to the URI fragment of the object, e.g. for persisting a reference to it.
+   *
+   * @param id the object id
+   * @param resource the resource of the document
+   * @return the URI fragment, or null if no such object is contained in the resource
+   */
+  protected String uriFragmentForId(String id, Resource resource) {
+    var idIndex = idIndexFor(resource);
+    if (idIndex != null && ObjectIdIndex.isIndexId(id)) {
+      return idIndex.uriFragmentFor(id);
+    }
+    return resource.getEObject(id) != null ? id : null;
+  }
+
   protected Collection<String> affectedObjectIds(Command command) {
     var affectedObjectIds = new LinkedHashSet<String>();
     for (var affectedObject : command.getAffectedObjects()) {
@@ -150,6 +546,25 @@ public class EmfDocumentServer implements DocumentServerProtocol, DocumentClient
     return affectedObjectIds;
   }
 
+  /**
+   * Runs an action that changes the command stack, and merges the edits it makes.
+   *
+   * @return the merged edits, or null if the command stack wasn't changed
+   */
+  private DocumentEditedParams recordEdit(EditKind kind, Runnable action) {
+    var edits = new ArrayList<DocumentEditedParams>();
+    recordedEdits.set(edits);
+    try {
+      withEditKind(kind, () -> {
+        action.run();
+        return null;
+      });
+    } finally {
+      recordedEdits.remove();
+    }
+    return edits.stream().reduce(EditNotificationCoalescer::merge).orElse(null);
+  }
+
   private <T> T withEditKind(EditKind kind, Supplier<T> action) {
     var previousKind = currentEditKind.get();
     currentEditKind.set(kind);
@@ -162,29 +577,177 @@ public class EmfDocumentServer implements DocumentServerProtocol, DocumentClient
 
   @Override
   public CompletableFuture<Void> saveDocument(SaveDocumentParams params) {
-    var resource = getResource(params.documentUri());
-    // TODO: handle NewUriOptions
-    try {
-      resource.save(null);
-    } catch (Exception e) {
-      e.printStackTrace(System.err);
+    return inDocumentLane(params, () -> {
+      var resource = getResource(params.documentUri());
+      if (resource == null) {
+        throw new IllegalArgumentException("Resource not found: " + params.documentUri());
+      }
+      var event = new TspEvents.DocumentSave();
+      event.begin();
+      var newUri = params.newUri();
+      URI targetUri = newUri != null && newUri.newUri() != null ? URI.createURI(newUri.newUri()) : resource.getURI();
+      boolean useNewUri = newUri != null && newUri.useNewUri();
+      String documentUri = useNewUri ? targetUri.toString() : params.documentUri();
+      // a copy saved to another uri doesn't save the document
+      boolean savesDocument = useNewUri || targetUri.equals(resource.getURI());
+      var commandStack = getCommandStack(resource);
+      var savedCommand = commandStack != null ? commandStack.getUndoCommand() : null;
+      long serializeStart = System.nanoTime();
+      byte[] content;
+      try {
+        content = DocumentSaver.serialize(resource, targetUri);
+      } catch (IOException e) {
+        throw new WrappedException(e);
+      }
+      long serializeMillis = (System.nanoTime() - serializeStart) / 1_000_000;
+      var uriConverter = resource.getResourceSet().getURIConverter();
+      // written outside the document's lane, so it can be edited meanwhile, but in order with other saves to the same uri
+      return documentScheduler.schedule(SAVE_LANE_PREFIX + targetUri, () -> {
+        long writeStart = System.nanoTime();
+        boolean written;
+        try {
+          written = DocumentSaver.write(uriConverter, targetUri, content);
+        } catch (IOException e) {
+          throw new WrappedException(e);
+        }
+        return new DocumentSavedParams(documentUri, targetUri.toString(), written,
+            content.length, serializeMillis, (System.nanoTime() - writeStart) / 1_000_000);
+      }).thenCompose(documentSaved -> inDocumentLane(params, () -> {
+        // only renamed when written, so a failed save as leaves the document as it was
+        if (useNewUri && openResources.remove(params.documentUri(), resource)) {
+          resource.setURI(targetUri);
+          openResources.put(documentUri, resource);
+        }
+        // unless edited since it was serialized, the saved state is the current one, so later edits aren't merged into it
+        if (savesDocument && commandStack instanceof BasicCommandStack basicCommandStack
+            && getResource(documentUri) == resource && commandStack.getUndoCommand() == savedCommand) {
+          basicCommandStack.saveIsDone();
+        }
+        documentTimes.computeIfPresent(resource, (r, times) -> new DocumentTimes(times.loadMillis(),
+            documentSaved.serializeMillis() + documentSaved.writeMillis(), documentSaved.byteCount()));
+        event.written = documentSaved.written();
+        event.commit(documentUri, null, 0, () -> content.length);
+        notifyDocumentSaved(documentSaved);
+        return (Void) null;
+      }));
+    }).thenCompose(saved -> saved);
+  }
+
+  protected void notifyDocumentSaved(DocumentSavedParams documentSaved) {
+    if (documentClient != null) {
+      documentClient.documentSaved(documentSaved);
     }
-    return CompletableFuture.completedFuture(null);
   }
 
   @Override
   public CompletableFuture<Void> closeDocument(CloseDocumentParams params) {
-    var resource = getResource(params.documentUri());
+    return inDocumentLane(params, () -> {
+      var resource = getResource(params.documentUri());
+      if (resource != null) {
+        closeResource(resource);
+        openResources.remove(params.documentUri());
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Disposes the state for the resource of a document, and unloads it.
+   * Runs in the lane of the document.
+   *
+   * @param resource the resource
+   */
+  protected void closeResource(Resource resource) {
+    editNotifications.discard(resource.getURI().toString());
+    resource.eAdapters().remove(deltaRecorders.remove(resource));
+    idIndexes.remove(resource).dispose();
+    sharedResources.release(resource.getResourceSet());
     resource.getResourceSet().getResources().forEach(res -> res.unload());
     commandStacks.remove(resource);
-    openResources.remove(params.documentUri());
-    return CompletableFuture.completedFuture(null);
+    documentTimes.remove(resource);
   }
-  
+
+  /**
+   * Closes the open documents, discarding unsaved changes, when the connection of the client ends,
+   * so a process that serves many connections doesn't keep the documents of earlier ones.
+   * Waits for saved documents to be written, so they aren't lost if the process exits.
+   */
+  @Override
+  public void close() {
+    documentClient = null;
+    var futures = openResources.keySet().stream()
+        .map(documentUri -> closeDocument(new CloseDocumentParams(documentUri)))
+        .toArray(CompletableFuture[]::new);
+    CompletableFuture.allOf(futures).join();
+    documentScheduler.close();
+  }
+
+  /**
+   * Returns the metrics of the open documents, each computed in the lane of its document,
+   * so they are consistent with the requests received before.
+   *
+   * @return future for the metrics, ordered by document uri
+   */
+  protected CompletableFuture<List<DocumentMetrics>> documentMetrics() {
+    var futures = new ArrayList<CompletableFuture<DocumentMetrics>>();
+    for (var documentUri : openResources.keySet()) {
+      futures.add(inDocumentLane(() -> documentUri, () -> documentMetrics(documentUri)));
+    }
+    return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+        .thenApply(done -> futures.stream()
+            .map(CompletableFuture::join)
+            .filter(metrics -> metrics != null)
+            .sorted(Comparator.comparing(DocumentMetrics::documentUri))
+            .toList());
+  }
+
+  private DocumentMetrics documentMetrics(String documentUri) {
+    var resource = getResource(documentUri);
+    var commandStack = resource != null ? commandStacks.get(resource) : null;
+    var deltaRecorder = resource != null ? deltaRecorders.get(resource) : null;
+    if (commandStack == null || deltaRecorder == null) {
+      // closed meanwhile
+      return null;
+    }
+    // counted as objects are added and removed, since walking a large model for each poll would block its edits
+    int objectCount = deltaRecorder.objectCount();
+    var times = documentTimes.getOrDefault(resource, new DocumentTimes(0, -1, -1));
+    int undoCount = commandStack instanceof BoundedCommandStack boundedCommandStack ? boundedCommandStack.undoCount() : 0;
+    int redoCount = commandStack instanceof BoundedCommandStack boundedCommandStack ? boundedCommandStack.redoCount() : 0;
+    return new DocumentMetrics(documentUri, objectCount, undoCount, redoCount,
+        times.loadMillis(), times.saveMillis(), times.savedBytes());
+  }
+
+  private static int objectCount(Resource resource) {
+    int count = 0;
+    for (var contents = resource.getAllContents(); contents.hasNext(); contents.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the counters of the caches of the server, by cache name.
+   * Subclasses add the counters of their own caches.
+   *
+   * @return the counters of each cache
+   */
+  protected Map<String, Map<String, Number>> cacheMetrics() {
+    var caches = new LinkedHashMap<String, Map<String, Number>>();
+    var currentLoadCache = loadCache;
+    if (currentLoadCache != null) {
+      var stats = currentLoadCache.stats();
+      caches.put("load", Map.of("hits", stats.hits(), "misses", stats.misses(),
+          "hitLoadMillis", stats.hitLoadMillis(), "missLoadMillis", stats.missLoadMillis()));
+    }
+    caches.put("sharedResources", Map.of("size", sharedResources.size()));
+    return caches;
+  }
+
   //
 
   public static void main(String[] args) {
-    new ServerProtocolLauncher<DocumentServerProtocol>(DocumentServerProtocol.class, new EmfDocumentServer())
-        .startServer(System.in, System.out);
+    var caches = new ServerCaches();
+    ServerProtocolLauncher.launch(DocumentServerProtocol.class, () -> new EmfDocumentServer(caches), args);
   }
 }
@@ -1,16 +1,16 @@
 package no.hal.tsp.emf.server;
 
 import java.nio.file.Path;
-import java.nio.charset.StandardCharsets;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import no.hal.tsp.launcher.ServerProtocolLauncher;
 import no.hal.tsp.model.Form;
 import no.hal.tsp.model.Form.Validation;
@@ -21,15 +21,24 @@ import no.hal.tsp.model.MenuItem;
 import no.hal.tsp.model.Property;
 import no.hal.tsp.protocol.TreeServerProtocol;
 import org.eclipse.emf.common.command.CompoundCommand;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.util.Enumerator;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EEnum;
+import org.eclipse.emf.ecore.EReference;
 import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
 import org.eclipse.emf.ecore.provider.EcoreItemProviderAdapterFactory;
 import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.emf.edit.command.AddCommand;
 import org.eclipse.emf.edit.command.CommandParameter;
 import org.eclipse.emf.edit.command.DeleteCommand;
+import org.eclipse.emf.edit.command.RemoveCommand;
 import org.eclipse.emf.edit.command.SetCommand;
 import org.eclipse.emf.edit.domain.AdapterFactoryEditingDomain;
 import org.eclipse.emf.edit.domain.EditingDomain;
@@ -37,7 +46,9 @@ import org.eclipse.emf.edit.provider.ComposedAdapterFactory;
 import org.eclipse.emf.edit.provider.IItemLabelProvider;
 import org.eclipse.emf.edit.provider.IItemPropertyDescriptor;
 import org.eclipse.emf.edit.provider.IItemPropertySource;
+import org.eclipse.emf.edit.provider.ItemPropertyDescriptor;
 import org.eclipse.emf.edit.provider.ReflectiveItemProviderAdapterFactory;
+import org.eclipse.emf.edit.tree.TreePackage;
 import org.eclipse.emf.edit.tree.provider.TreeItemProviderAdapterFactory;
 
 /**
@@ -45,27 +56,79 @@ import org.eclipse.emf.edit.tree.provider.TreeItemProviderAdapterFactory;
  */
 public class EmfEditTspServer extends AbstractTspServerImpl {
 
-  private ComposedAdapterFactory adapterFactory = new ComposedAdapterFactory(
-    ComposedAdapterFactory.Descriptor.Registry.INSTANCE
-  );
+  // the adapter factories of the documents, by resource set, each used from the lane of its document
+  private final Map<ResourceSet, DocumentAdapterFactory> adapterFactories = new ConcurrentHashMap<>();
+  // the adapter factory of objects outside documents, used from the lanes of all documents and servers sharing the caches
+  private final DocumentAdapterFactory.Shared sharedAdapterFactory;
 
   private ImageSupport imageSupport = new ImageSupport(new ImageSupport.Options(null, null));
 
-  private final Map<Resource, EditingDomain> editingDomains = new HashMap<>();
+  private final Map<Resource, EditingDomain> editingDomains = new ConcurrentHashMap<>();
+  private final Map<Resource, LabelCache> labelCaches = new ConcurrentHashMap<>();
+  private final FormSchemaCache formSchemas;
+  private final CommandMenuCache commandMenus;
+
+  private static final String NEW_COMMAND_PREFIX = "new|";
+  private static final String DELETE_COMMAND_PREFIX = "delete|";
+  private final Map<Resource, ValueOptionsCache> valueOptionsCaches = new ConcurrentHashMap<>();
+
+  // the maximum number of value options included in a form, more must be requested with form/getValueOptions
+  static final int MAX_FORM_VALUE_OPTIONS = 100;
+
+  // the value options of the most recently used properties of a document, used from the document's lane
+  private static class ValueOptionsCache extends LinkedHashMap<String, ValueOptions> {
+
+    private static final int MAX_SIZE = 16;
+
+    ValueOptionsCache() {
+      super(MAX_SIZE, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, ValueOptions> eldest) {
+      return size() > MAX_SIZE;
+    }
+  }
 
   public EmfEditTspServer() {
-    super();
-    registerProviders(adapterFactory);
+    this(new ServerCaches());
+  }
+
+  /**
+   * @param caches the caches, shared with other servers of the same class
+   */
+  EmfEditTspServer(ServerCaches caches) {
+    super(caches);
+    this.formSchemas = caches.formSchemas;
+    this.commandMenus = caches.commandMenus;
+    this.sharedAdapterFactory = caches.sharedAdapterFactory(this::registerProviders);
   }
   
+  /**
+   * Registers the adapter factories of item providers, in order of precedence.
+   * They are registered lazily, so their classes are loaded and the factories created when first used,
+   * hence lambdas rather than constructor references, which would load the classes when registered.
+   *
+   * @param adapterFactory the composed adapter factory of a document, or of objects outside documents
+   */
   protected void registerProviders(ComposedAdapterFactory adapterFactory) {
-    adapterFactory.addAdapterFactory(new TreeItemProviderAdapterFactory());
-    adapterFactory.addAdapterFactory(new ReflectiveItemProviderAdapterFactory());
-    adapterFactory.addAdapterFactory(new EcoreItemProviderAdapterFactory());
+    adapterFactory.addAdapterFactory(
+        new LazyAdapterFactory(TreePackage.eNS_URI, () -> new TreeItemProviderAdapterFactory()));
+    adapterFactory.addAdapterFactory(
+        new LazyAdapterFactory(null, () -> new ReflectiveItemProviderAdapterFactory()));
+    adapterFactory.addAdapterFactory(
+        new LazyAdapterFactory(EcorePackage.eNS_URI, () -> new EcoreItemProviderAdapterFactory()));
   }
 
   protected <T> T adapt(Object o, Class<T> type) {
-    return type.cast(adapterFactory.adapt(o, type));
+    return type.cast(adapterFactoryFor(o).adapt(o, type));
+  }
+
+  // the adapter factory of the document of an object, or the shared one, e.g. for objects of shared resources
+  private ComposedAdapterFactory adapterFactoryFor(Object o) {
+    var resource = o instanceof EObject eObject ? eObject.eResource() : null;
+    var adapterFactory = resource != null ? adapterFactories.get(resource.getResourceSet()) : null;
+    return adapterFactory != null ? adapterFactory : sharedAdapterFactory;
   }
 
   protected EditingDomain getEditingDomain(Resource resource) {
@@ -73,22 +136,39 @@ public class EmfEditTspServer extends AbstractTspServerImpl {
   }
 
   @Override
-  public CompletableFuture<Void> openDocument(OpenDocumentParams params) {
-    var result = super.openDocument(params);
-    var resource = getResource(params.documentUri());
+  protected Resource openResource(OpenDocumentParams params) {
+    var resource = super.openResource(params);
     var commandStack = getCommandStack(resource);
-    editingDomains.put(resource,
-        new AdapterFactoryEditingDomain(adapterFactory, commandStack, resource.getResourceSet()));
-    return result;
+    var adapterFactory = new DocumentAdapterFactory(resource.getResourceSet(), sharedAdapterFactory);
+    registerProviders(adapterFactory);
+    adapterFactories.put(resource.getResourceSet(), adapterFactory);
+    var editingDomain = new AdapterFactoryEditingDomain(adapterFactory, commandStack, resource.getResourceSet()) {
+      @Override
+      public boolean isReadOnly(Resource resource) {
+        return isSharedResource(resource) || super.isReadOnly(resource);
+      }
+    };
+    // found by the property descriptors, which tell if a property can be set, from the read-only state of its resource
+    resource.getResourceSet().eAdapters().add(new AdapterFactoryEditingDomain.EditingDomainProvider(editingDomain));
+    editingDomains.put(resource, editingDomain);
+    labelCaches.put(resource, new LabelCache());
+    var valueOptionsCache = new ValueOptionsCache();
+    // options and their labels may change with any edit
+    commandStack.addCommandStackListener(event -> valueOptionsCache.clear());
+    valueOptionsCaches.put(resource, valueOptionsCache);
+    return resource;
   }
 
   @Override
-  public CompletableFuture<Void> closeDocument(CloseDocumentParams params) {
-    var resource = getResource(params.documentUri());
-    if (resource != null) {
-      editingDomains.remove(resource);
+  protected void closeResource(Resource resource) {
+    editingDomains.remove(resource);
+    labelCaches.remove(resource);
+    valueOptionsCaches.remove(resource);
+    var adapterFactory = adapterFactories.remove(resource.getResourceSet());
+    if (adapterFactory != null) {
+      adapterFactory.dispose();
     }
-    return super.closeDocument(params);
+    super.closeResource(resource);
   }
 
   @Override
@@ -98,10 +178,80 @@ public class EmfEditTspServer extends AbstractTspServerImpl {
         Path.of(setting("tsp.label.images.dir", "tsp-images")),
         setting("tsp.label.images.uri", null)
     ));
+    // the image uris of cached labels depend on the image options
+    labelCaches.values().forEach(LabelCache::clear);
+  }
+
+  LabelCache getLabelCache(Resource resource) {
+    return labelCaches.get(resource);
+  }
+
+  FormSchemaCache getFormSchemaCache() {
+    return formSchemas;
+  }
+
+  CommandMenuCache getCommandMenuCache() {
+    return commandMenus;
+  }
+
+  Map<String, ValueOptions> getValueOptionsCache(Resource resource) {
+    return valueOptionsCaches.get(resource);
+  }
+
+  @Override
+  protected Map<String, Map<String, Number>> cacheMetrics() {
+    var caches = super.cacheMetrics();
+    // the label caches are per document, so their counters are summed
+    long labelHits = 0;
+    long labelMisses = 0;
+    long labelInvalidations = 0;
+    long labelSize = 0;
+    for (var labelCache : labelCaches.values()) {
+      var stats = labelCache.stats();
+      labelHits += stats.hits();
+      labelMisses += stats.misses();
+      labelInvalidations += stats.invalidations();
+      labelSize += stats.size();
+    }
+    caches.put("labels", Map.of("hits", labelHits, "misses", labelMisses,
+        "invalidations", labelInvalidations, "size", labelSize));
+    var formSchemaStats = formSchemas.stats();
+    caches.put("formSchemas", Map.of("hits", formSchemaStats.hits(), "misses", formSchemaStats.misses(),
+        "size", formSchemaStats.size()));
+    var commandMenuStats = commandMenus.stats();
+    caches.put("commandMenus", Map.of("hits", commandMenuStats.hits(), "misses", commandMenuStats.misses(),
+        "size", commandMenuStats.size()));
+    return caches;
   }
 
   @Override
   protected Label labelFor(Object o) {
+    var event = new TspEvents.LabelFor();
+    event.begin();
+    var resource = o instanceof EObject eObject ? eObject.eResource() : null;
+    var labelCache = resource != null ? labelCaches.get(resource) : null;
+    var label = labelCache != null ? labelCache.get(o, this::itemLabelFor) : itemLabelFor(o);
+    event.end();
+    // labels are computed for every tree node, so the id is only computed for committed events
+    if (event.shouldCommit()) {
+      event.documentUri = resource != null ? resource.getURI().toString() : null;
+      event.treeNodeId = objectId(o);
+      event.resultSize = label != null && label.text() != null ? label.text().length() : 0;
+      event.commit();
+    }
+    return label;
+  }
+
+  // labels may show other objects, e.g. the type of a typed element, so a change may affect the label of any object
+  @Override
+  protected void documentChanged(Resource resource, Notification notification) {
+    var labelCache = labelCaches.get(resource);
+    if (labelCache != null) {
+      labelCache.clear();
+    }
+  }
+
+  private Label itemLabelFor(Object o) {
     var labelProvider = adapt(o, IItemLabelProvider.class);
     if (labelProvider == null) {
       return super.labelFor(o);
@@ -115,197 +265,289 @@ public class EmfEditTspServer extends AbstractTspServerImpl {
 
   @Override
   public CompletableFuture<Menu> getCommandMenu(GetCommandMenuParams params) {
-    var resource = getResource(params.documentUri());
-    if (resource == null) {
-      return CompletableFuture.completedFuture(null);
-    }
-    if (!(objectForId(params.treeNodeId(), resource) instanceof EObject parentEObject)) {
-      return CompletableFuture.completedFuture(null);
-    }
-    var createCommands = collectCreateCommands(parentEObject, resource);
-    var menuItems = new ArrayList<MenuItem>();
-
-    var deleteCommand = deleteCommandFor(parentEObject, resource);
-    if (deleteCommand != null && deleteCommand.canExecute()) {
-      menuItems.add(new Command(encodeDeleteCommandId(parentEObject), Label.ofText("Delete")));
-    }
+    return inDocumentLane(params, () -> {
+      var resource = getResource(params.documentUri());
+      if (resource == null) {
+        return null;
+      }
+      if (!(objectForId(params.treeNodeId(), resource) instanceof EObject parentEObject)) {
+        return null;
+      }
+      var event = new TspEvents.GetCommandMenu();
+      event.begin();
+      var createCommands = commandMenus.get(parentEObject, parent -> collectCreateCommands(parent, resource));
+      var menuItems = new ArrayList<MenuItem>();
+
+      var deleteCommand = deleteCommandFor(parentEObject, resource);
+      if (deleteCommand != null && deleteCommand.canExecute()) {
+        menuItems.add(new Command(deleteCommandId(parentEObject), Label.ofText("Delete")));
+      }
 
-    MenuItem[] newMenuItems = createCommands.stream()
-        .map(c -> new Command(c.id(), Label.ofText(c.label())))
-        .toArray(MenuItem[]::new);
-    if (newMenuItems.length > 0) {
-      menuItems.add(new Menu(Label.ofText("New..."), newMenuItems));
-    }
+      int commandCount = menuItems.size() + createCommands.size();
+      MenuItem[] newMenuItems = createCommands.stream()
+          .map(c -> new Command(c.id(), Label.ofText(c.label())))
+          .toArray(MenuItem[]::new);
+      if (newMenuItems.length > 0) {
+        menuItems.add(new Menu(Label.ofText("New..."), newMenuItems));
+      }
+      event.commit(params.documentUri(), params.treeNodeId(), 0, () -> commandCount);
 
-    return CompletableFuture.completedFuture(new Menu(Label.ofText("Commands"),
-        menuItems.toArray(MenuItem[]::new)));
+      return new Menu(Label.ofText("Commands"),
+          menuItems.toArray(MenuItem[]::new));
+    });
   }
 
   @Override
   public CompletableFuture<TreeEditedParams> doCommand(DoCommandParams params) {
-    var resource = getResource(params.documentUri());
-    if (resource == null) {
-      throw new IllegalArgumentException("Resource not found: " + params.documentUri());
-    }
-    var parent = objectForId(params.treeNodeId(), resource);
-    if (!(parent instanceof EObject parentEObject)) {
-      throw new IllegalArgumentException("EObject not found: " + params.treeNodeId());
+    return inDocumentLane(params, () -> {
+      var resource = getResource(params.documentUri());
+      if (resource == null) {
+        throw new IllegalArgumentException("Resource not found: " + params.documentUri());
+      }
+      var parent = objectForId(params.treeNodeId(), resource);
+      if (!(parent instanceof EObject parentEObject)) {
+        throw new IllegalArgumentException("EObject not found: " + params.treeNodeId());
+      }
+      var command = commandForId(parentEObject, resource, params.commandId());
+      if (command == null || !command.canExecute()) {
+        throw new IllegalArgumentException("Unknown command: " + params.commandId());
+      }
+      doCommand(command, resource);
+      return new TreeEditedParams(params.documentUri(), new String[]{params.treeNodeId()});
+    });
+  }
+
+  // a compound command that is affected by all its commands, rather than only the last one,
+  // and isn't merged with other edits, so undoing it only undoes the batch
+  private static class EditsCommand extends CompoundCommand implements BoundedCommandStack.Unmergeable {
+
+    EditsCommand(String label) {
+      super(label);
     }
-    var command = commandForId(parentEObject, resource, params.commandId());
-    if (command == null || !command.canExecute()) {
-      throw new IllegalArgumentException("Unknown command: " + params.commandId());
+
+    @Override
+    public Collection<?> getAffectedObjects() {
+      var affectedObjects = new LinkedHashSet<Object>();
+      for (var command : commandList) {
+        affectedObjects.addAll(command.getAffectedObjects());
+      }
+      return affectedObjects;
     }
-    doCommand(command, resource);
-    var edited = new TreeEditedParams(params.documentUri(), new String[]{params.treeNodeId()});
-    return CompletableFuture.completedFuture(edited);
   }
 
-  private org.eclipse.emf.common.command.Command commandForId(EObject parent, Resource resource, String commandId) {
-    var decodedCommandId = decodeCreateCommandId(commandId);
-    var kind = decodedCommandId.kind();
-    return switch (kind) {
-      case "new" -> createCommandForId(parent, resource, decodedCommandId);
-      case "delete" -> deleteCommandFor(parent, resource);
-      default -> null;
-    };
+  @Override
+  public CompletableFuture<DocumentEditedParams> doEdits(DoEditsParams params) {
+    return inDocumentLane(params, () -> {
+      var resource = getResource(params.documentUri());
+      if (resource == null) {
+        throw new IllegalArgumentException("Resource not found: " + params.documentUri());
+      }
+      var operations = params.operations() != null ? params.operations() : List.<EditOperation>of();
+      var command = new EditsCommand(params.label() != null ? params.label() : "Edit");
+      // consecutive deletes are done by one delete command, which finds the references to all objects at once
+      var deletedObjects = new ArrayList<EObject>();
+      for (int i = 0; i < operations.size(); i++) {
+        var operation = operations.get(i);
+        try {
+          var o = operation.treeNodeId() != null ? objectForId(operation.treeNodeId(), resource) : null;
+          if (o == null) {
+            throw new IllegalArgumentException("EObject not found: " + operation.treeNodeId());
+          }
+          if (operation.kind() == EditOperation.Kind.DO_COMMAND && operation.commandId() != null
+              && operation.commandId().startsWith(DELETE_COMMAND_PREFIX)) {
+            deletedObjects.add(o);
+            continue;
+          }
+          appendDeleteCommand(command, deletedObjects, resource);
+          var operationCommand = editCommandFor(operation, o, resource);
+          if (operationCommand != null) {
+            if (!operationCommand.canExecute()) {
+              throw new IllegalArgumentException("Cannot do " + operation.kind() + " on " + operation.treeNodeId());
+            }
+            command.append(operationCommand);
+          }
+        } catch (IllegalArgumentException e) {
+          command.dispose();
+          throw new IllegalArgumentException("Operation " + i + ": " + e.getMessage(), e);
+        }
+      }
+      appendDeleteCommand(command, deletedObjects, resource);
+      if (command.isEmpty()) {
+        return new DocumentEditedParams(params.documentUri(), EditKind.NORMAL.name(), List.of(), List.of());
+      }
+      if (!command.canExecute()) {
+        command.dispose();
+        throw new IllegalArgumentException("Cannot do the edits");
+      }
+      var documentEdited = doCommand(command, resource, true);
+      if (!isExecuted(command, resource)) {
+        throw new IllegalArgumentException("The edits failed, and none were done");
+      }
+      return documentEdited;
+    });
   }
 
-  private org.eclipse.emf.common.command.Command deleteCommandFor(EObject object, Resource resource) {
-    var editingDomain = getEditingDomain(resource);
-    if (editingDomain == null) {
-      editingDomain = AdapterFactoryEditingDomain.getEditingDomainFor(object);
+  private void appendDeleteCommand(CompoundCommand command, List<EObject> deletedObjects, Resource resource) {
+    if (deletedObjects.isEmpty()) {
+      return;
     }
-    if (editingDomain == null) {
-      return null;
+    var editingDomain = editingDomainFor(deletedObjects.get(0), resource);
+    var deleteCommand = editingDomain != null ? DeleteCommand.create(editingDomain, List.copyOf(deletedObjects)) : null;
+    if (deleteCommand == null || !deleteCommand.canExecute()) {
+      throw new IllegalArgumentException("Cannot delete " + deletedObjects.size() + " objects");
     }
-    return DeleteCommand.create(editingDomain, object);
+    command.append(deleteCommand);
+    deletedObjects.clear();
   }
 
-  private org.eclipse.emf.common.command.Command createCommandForId(
-      EObject parent,
-      Resource resource,
-      DecodedCreateCommandId decodedCommandId
-  ) {
-    var editingDomain = getEditingDomain(resource);
-    if (editingDomain == null) {
-      editingDomain = AdapterFactoryEditingDomain.getEditingDomainFor(parent);
+  /**
+   * Creates the command for an edit operation.
+   *
+   * @return the command, or null if the operation doesn't change anything, i.e. sets a property to its current value
+   */
+  private org.eclipse.emf.common.command.Command editCommandFor(EditOperation operation, EObject o, Resource resource) {
+    if (operation.kind() == null) {
+      throw new IllegalArgumentException("Missing operation kind");
     }
-    if (editingDomain == null) {
-      return null;
+    var editingDomain = editingDomainFor(o, resource);
+    return switch (operation.kind()) {
+      case DO_COMMAND -> {
+        var command = operation.commandId() != null ? commandForId(o, resource, operation.commandId()) : null;
+        if (command == null) {
+          throw new IllegalArgumentException("Unknown command: " + operation.commandId());
+        }
+        yield command;
+      }
+      case SET -> {
+        IItemPropertySource propertySource = adapt(o, IItemPropertySource.class);
+        var item = propertySource != null ? formSchemaFor(o, propertySource).items().get(operation.propertyName()) : null;
+        var descriptor = item != null ? propertyDescriptors(o, propertySource).get(item.propertyName()) : null;
+        if (descriptor == null || !descriptor.canSetProperty(o)) {
+          throw new IllegalArgumentException("Cannot set " + operation.propertyName() + " of " + operation.treeNodeId());
+        }
+        yield setCommandFor(o, resource, descriptor, item, operation.value());
+      }
+      case ADD -> {
+        var feature = manyValuedFeature(o, operation.propertyName());
+        yield AddCommand.create(editingDomain, o, feature, featureValueFor(feature, operation.value(), resource),
+            operation.index());
+      }
+      case REMOVE -> {
+        if (operation.propertyName() == null) {
+          yield RemoveCommand.create(editingDomain, o);
+        }
+        var feature = manyValuedFeature(o, operation.propertyName());
+        yield RemoveCommand.create(editingDomain, o, feature, featureValueFor(feature, operation.value(), resource));
+      }
+    };
+  }
+
+  private static EStructuralFeature manyValuedFeature(EObject o, String name) {
+    var feature = name != null ? o.eClass().getEStructuralFeature(name) : null;
+    if (feature == null || !feature.isMany()) {
+      throw new IllegalArgumentException("No many-valued feature " + name + " in " + o.eClass().getName());
     }
-    var descriptors = editingDomain.getNewChildDescriptors(parent, null);
-    for (var descriptor : descriptors) {
-      if (descriptor instanceof CommandParameter commandParameter && matchesDecodedCommandId(commandParameter, decodedCommandId)) {
-        return createCommandFor(editingDomain, parent, commandParameter);
+    return feature;
+  }
+
+  // objects are given by the id of a value option, i.e. an object id or URI, or of a tree node,
+  // URIs are only resolved in resources that are already loaded, so the client cannot make the server load others
+  private Object featureValueFor(EStructuralFeature feature, Property.Value value, Resource resource) {
+    if (value == null) {
+      throw new IllegalArgumentException("Missing value for " + feature.getName());
+    }
+    if (feature instanceof EReference) {
+      var id = value.id() != null ? value.id() : value.stringValue();
+      EObject object = null;
+      if (id != null) {
+        object = !ObjectIdIndex.isIndexId(id) && id.contains("#")
+            ? resource.getResourceSet().getEObject(URI.createURI(id), false)
+            : objectForId(id, resource);
       }
+      if (object == null) {
+        throw new IllegalArgumentException("EObject not found: " + id);
+      }
+      return object;
+    }
+    try {
+      return EcoreUtil.createFromString((EDataType) feature.getEType(), value.stringValue());
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Invalid value for " + feature.getName() + ": " + value.stringValue(), e);
     }
-    return null;
   }
 
-  private boolean matchesDecodedCommandId(CommandParameter commandParameter, DecodedCreateCommandId decodedCommandId) {
-    Object feature = commandParameter.getFeature();
-    Object value = commandParameter.getValue();
-    String featureName = feature instanceof EStructuralFeature structuralFeature
-        ? structuralFeature.getName()
-        : "";
-    String packageNsUri = "";
-    String className = "";
-    if (value instanceof EObject eObject) {
-      packageNsUri = eObject.eClass().getEPackage().getNsURI();
-      className = eObject.eClass().getName();
+  private org.eclipse.emf.common.command.Command commandForId(EObject parent, Resource resource, String commandId) {
+    if (commandId.startsWith(NEW_COMMAND_PREFIX)) {
+      var entry = commandMenus.entryFor(parent, commandId);
+      if (entry == null) {
+        // not in a menu computed so far
+        commandMenus.get(parent, p -> collectCreateCommands(p, resource));
+        entry = commandMenus.entryFor(parent, commandId);
+      }
+      var editingDomain = editingDomainFor(parent, resource);
+      return entry != null && editingDomain != null
+          ? createCommandFor(editingDomain, parent, entry.feature(), entry.newChild())
+          : null;
+    } else if (commandId.startsWith(DELETE_COMMAND_PREFIX)) {
+      return deleteCommandFor(parent, resource);
     }
-    return Objects.equals(decodedCommandId.featureName(), featureName)
-        && Objects.equals(decodedCommandId.packageNsUri(), packageNsUri)
-        && Objects.equals(decodedCommandId.className(), className);
+    return null;
   }
 
-  private List<CreateCommandEntry> collectCreateCommands(EObject parent, Resource resource) {
+  private EditingDomain editingDomainFor(EObject object, Resource resource) {
     var editingDomain = getEditingDomain(resource);
-    if (editingDomain == null) {
-      editingDomain = AdapterFactoryEditingDomain.getEditingDomainFor(parent);
-    }
+    return editingDomain != null ? editingDomain : AdapterFactoryEditingDomain.getEditingDomainFor(object);
+  }
+
+  private org.eclipse.emf.common.command.Command deleteCommandFor(EObject object, Resource resource) {
+    var editingDomain = editingDomainFor(object, resource);
+    return editingDomain != null ? DeleteCommand.create(editingDomain, object) : null;
+  }
+
+  private List<CommandMenuCache.CreateEntry> collectCreateCommands(EObject parent, Resource resource) {
+    var editingDomain = editingDomainFor(parent, resource);
     if (editingDomain == null) {
       return List.of();
     }
     var descriptors = editingDomain.getNewChildDescriptors(parent, null);
-    var createCommands = new LinkedHashMap<String, CreateCommandEntry>();
+    var createCommands = new LinkedHashMap<String, CommandMenuCache.CreateEntry>();
     for (var descriptor : descriptors) {
-      if (!(descriptor instanceof CommandParameter commandParameter)) {
+      if (!(descriptor instanceof CommandParameter commandParameter)
+          || !(commandParameter.getFeature() instanceof EStructuralFeature feature)
+          || !(commandParameter.getValue() instanceof EObject prototype)) {
         continue;
       }
-      var createCommand = createCommandFor(editingDomain, parent, commandParameter);
-      if (createCommand == null || !createCommand.canExecute()) {
+      var createCommand = createCommandFor(editingDomain, parent, feature, prototype);
+      if (!createCommand.canExecute()) {
         continue;
       }
-      var commandId = encodeCreateCommandId(commandParameter);
+      var commandId = createCommandId(feature, prototype);
       createCommands.putIfAbsent(commandId,
-          new CreateCommandEntry(commandId, createLabelFor(commandParameter), createCommand));
+          new CommandMenuCache.CreateEntry(commandId, createLabelFor(commandParameter), feature, prototype));
     }
     return List.copyOf(createCommands.values());
   }
 
-  private String encodeCreateCommandId(CommandParameter commandParameter) {
-    Object feature = commandParameter.getFeature();
-    Object value = commandParameter.getValue();
-    String featureName = feature instanceof EStructuralFeature structuralFeature
-        ? structuralFeature.getName()
-        : "";
-    String packageNsUri = "";
-    String className = "";
-    if (value instanceof EObject eObject) {
-      packageNsUri = eObject.eClass().getEPackage().getNsURI();
-      className = eObject.eClass().getName();
-    }
-    return String.join("|",
-        "new",
-        encodeCommandPart(featureName),
-        encodeCommandPart(packageNsUri),
-        encodeCommandPart(className));
-  }
-
-  private String encodeDeleteCommandId(EObject object) {
-    String packageNsUri = object.eClass().getEPackage().getNsURI();
-    String className = object.eClass().getName();
-    return String.join("|",
-        "delete",
-        encodeCommandPart(packageNsUri),
-        encodeCommandPart(className));
-  }
-
-  private DecodedCreateCommandId decodeCreateCommandId(String commandId) {
-    String[] parts = commandId.split("\\|", -1);
-    String kind = parts.length > 0 ? decodeCommandPart(parts[0]) : "";
-    String featureName = parts.length > 1 ? decodeCommandPart(parts[1]) : "";
-    String packageNsUri = parts.length > 2 ? decodeCommandPart(parts[2]) : "";
-    String className = parts.length > 3 ? decodeCommandPart(parts[3]) : "";
-    return new DecodedCreateCommandId(kind, featureName, packageNsUri, className);
-  }
-
-  private String encodeCommandPart(String value) {
-    return URLEncoder.encode(value != null ? value : "", StandardCharsets.UTF_8);
+  // ids are only used for lookup, so they aren't encoded
+  private static String createCommandId(EStructuralFeature feature, EObject prototype) {
+    var eClass = prototype.eClass();
+    return NEW_COMMAND_PREFIX + feature.getName() + "|" + eClass.getEPackage().getNsURI() + "#" + eClass.getName();
   }
 
-  private String decodeCommandPart(String value) {
-    return URLDecoder.decode(value != null ? value : "", StandardCharsets.UTF_8);
-  }
-
-  private record DecodedCreateCommandId(String kind, String featureName, String packageNsUri, String className) {
+  private static String deleteCommandId(EObject object) {
+    var eClass = object.eClass();
+    return DELETE_COMMAND_PREFIX + eClass.getEPackage().getNsURI() + "#" + eClass.getName();
   }
 
   private org.eclipse.emf.common.command.Command createCommandFor(
       EditingDomain editingDomain,
       EObject parent,
-      CommandParameter commandParameter
+      EStructuralFeature feature,
+      EObject child
   ) {
-    Object feature = commandParameter.getFeature();
-    Object value = commandParameter.getValue();
-    if (feature instanceof EStructuralFeature structuralFeature) {
-      if (structuralFeature.isMany()) {
-        return AddCommand.create(editingDomain, parent, structuralFeature, value);
-      }
-      return SetCommand.create(editingDomain, parent, structuralFeature, value);
-    }
-    return null;
+    return feature.isMany()
+        ? AddCommand.create(editingDomain, parent, feature, child)
+        : SetCommand.create(editingDomain, parent, feature, child);
   }
 
   private String createLabelFor(CommandParameter commandParameter) {
@@ -329,53 +571,171 @@ public class EmfEditTspServer extends AbstractTspServerImpl {
         : classLabel;
   }
 
-  private record CreateCommandEntry(String id, String label, org.eclipse.emf.common.command.Command command) {
-  }
-
+  /**
+   * Launches the server, for stdin/stdout, or with {@code --listen=address} for many connections,
+   * with servers that share their caches.
+   */
   public static void main(String[] args) {
-    ServerProtocolLauncher.main(new String[]{
-      TreeServerProtocol.class.getName(),
-      EmfEditTspServer.class.getName()
-    });
+    var caches = new ServerCaches();
+    ServerProtocolLauncher.launch(TreeServerProtocol.class, () -> new EmfEditTspServer(caches), args);
   }
 
   @Override
   public CompletableFuture<Form> getTreeNodeForm(GetTreeNodeFormParams params) {
-    var o = objectForId(params.treeNodeId(), getResource(params.documentUri()));
-    IItemPropertySource propertySource = adapt(o, IItemPropertySource.class);
+    return inDocumentLane(params, () -> {
+      var event = new TspEvents.GetTreeNodeForm();
+      event.begin();
+      var o = objectForId(params.treeNodeId(), getResource(params.documentUri()));
+      IItemPropertySource propertySource = adapt(o, IItemPropertySource.class);
+
+      if (propertySource == null) {
+        return new Form(List.of());
+      }
 
-    if (propertySource == null) {
-      return CompletableFuture.completedFuture(new Form(List.of()));
-    }
+      var schema = formSchemaFor(o, propertySource);
+      var descriptors = propertyDescriptors(o, propertySource);
+      List<Form.Item> formItems = new ArrayList<>();
+      for (var item : schema.items().values()) {
+        var descriptor = descriptors.get(item.propertyName());
+        if (descriptor == null) {
+          // the schema is of the class, but an item provider may not have all properties for all instances
+          continue;
+        }
+        var valueOptions = cachedValueOptionsFor(o, item);
+        var choices = valueOptions == null ? descriptor.getChoiceOfValues(o) : null;
+        // only the options that are included are labelled, more are labelled when requested with getValueOptions
+        if (choices != null && choices.size() <= MAX_FORM_VALUE_OPTIONS) {
+          valueOptions = valueOptionsFor(o, descriptor, item, choices);
+        }
+        int valueOptionCount = valueOptions != null ? valueOptions.size() : (choices != null ? choices.size() : 0);
+        formItems.add(new Form.Item(
+            new Property(item.propertyName(), valueFor(o, descriptor, item)),
+            item.label(),
+            valueOptions != null && valueOptions.size() <= MAX_FORM_VALUE_OPTIONS ? valueOptions.values() : null,
+            descriptor.canSetProperty(o),
+            valueOptionCount
+        ));
+      }
+      event.commit(params.documentUri(), params.treeNodeId(), 0, formItems::size);
+      return new Form(formItems, schema.id());
+    });
+  }
 
-    List<Form.Item> formItems = new ArrayList<>();      
-    for (var property : collectProperties(o, propertySource)) {
-      var descriptor = property.descriptor();
-      String displayName = descriptor.getDisplayName(o);
-      String description = descriptor.getDescription(o);
-      Object value = descriptor.getPropertyValue(o);
-      IItemLabelProvider itemLabelProvider = descriptor.getLabelProvider(o);
-      String stringValue = itemLabelProvider != null
-          ? itemLabelProvider.getText(value)
-          : (value != null ? String.valueOf(value) : "");
-      List<Property.Value> valueOptions = new ArrayList<>();
-      var choices = descriptor.getChoiceOfValues(o);
-      if (choices != null) {
-        for (var val : choices) {
-          String stringVal = itemLabelProvider != null
-              ? itemLabelProvider.getText(val)
-              : (val != null ? String.valueOf(val) : "");
-          valueOptions.add(new Property.Value(property.semanticType(), stringVal));
+  @Override
+  public CompletableFuture<Form.Values> getTreeNodeFormValues(GetTreeNodeFormParams params) {
+    return inDocumentLane(params, () -> {
+      var o = objectForId(params.treeNodeId(), getResource(params.documentUri()));
+      IItemPropertySource propertySource = adapt(o, IItemPropertySource.class);
+      if (propertySource == null) {
+        return new Form.Values(null, List.of());
+      }
+      var schema = formSchemaFor(o, propertySource);
+      var descriptors = propertyDescriptors(o, propertySource);
+      List<Property> properties = new ArrayList<>();
+      for (var item : schema.items().values()) {
+        var descriptor = descriptors.get(item.propertyName());
+        if (descriptor != null) {
+          properties.add(new Property(item.propertyName(), valueFor(o, descriptor, item)));
         }
       }
-      formItems.add(new Form.Item(
-          new Property(descriptor.getId(o)).withValue(property.semanticType(), stringValue),
-          Label.ofText(displayName).withDescription(description),
-          valueOptions.isEmpty() ? null : valueOptions,
-          descriptor.canSetProperty(o)
-      ));
+      return new Form.Values(schema.id(), properties);
+    });
+  }
+
+  @Override
+  public CompletableFuture<Form.ValueOptionsPage> getValueOptions(GetValueOptionsParams params) {
+    return inDocumentLane(params, () -> {
+      var o = objectForId(params.treeNodeId(), getResource(params.documentUri()));
+      IItemPropertySource propertySource = adapt(o, IItemPropertySource.class);
+      var item = propertySource != null ? formSchemaFor(o, propertySource).items().get(params.propertyName()) : null;
+      var descriptor = item != null ? propertyDescriptors(o, propertySource).get(item.propertyName()) : null;
+      if (descriptor == null) {
+        throw new IllegalArgumentException("No property " + params.propertyName() + " for " + params.treeNodeId());
+      }
+      var valueOptions = valueOptionsFor(o, descriptor, item);
+      return valueOptions != null
+          ? valueOptions.page(params.filter(), params.offset(), params.limit())
+          : new Form.ValueOptionsPage(0, 0, List.of());
+    });
+  }
+
+  private Property.Value valueFor(EObject o, IItemPropertyDescriptor descriptor, FormSchemaCache.Item item) {
+    var value = descriptor.getPropertyValue(o);
+    var propertyValue = new Property.Value(item.semanticType(), stringValueOf(value, descriptor.getLabelProvider(o)));
+    // the value of a property with options has the id of the option
+    var feature = descriptor.getFeature(o);
+    if (feature instanceof EReference || feature instanceof EAttribute attribute && attribute.getEType() instanceof EEnum) {
+      if (value instanceof ItemPropertyDescriptor.PropertyValueWrapper wrapper) {
+        value = wrapper.getEditableValue(o);
+      }
+      return propertyValue.withId(valueOptionId(value, o.eResource()));
     }
-    return CompletableFuture.completedFuture(new Form(formItems));
+    return propertyValue;
+  }
+
+  /**
+   * Returns the value options of a property of an object, from the cache of its document if possible.
+   *
+   * @return the value options, or null if the property has no choice of values
+   */
+  private ValueOptions valueOptionsFor(EObject o, IItemPropertyDescriptor descriptor, FormSchemaCache.Item item) {
+    var valueOptions = cachedValueOptionsFor(o, item);
+    if (valueOptions != null) {
+      return valueOptions;
+    }
+    var choices = descriptor.getChoiceOfValues(o);
+    return choices != null ? valueOptionsFor(o, descriptor, item, choices) : null;
+  }
+
+  private ValueOptions cachedValueOptionsFor(EObject o, FormSchemaCache.Item item) {
+    var cache = valueOptionsCaches.get(o.eResource());
+    return cache != null ? cache.get(valueOptionsKey(o, item)) : null;
+  }
+
+  private String valueOptionsKey(EObject o, FormSchemaCache.Item item) {
+    return objectId(o) + "/" + item.propertyName();
+  }
+
+  // labels the choices as options, and caches them
+  private ValueOptions valueOptionsFor(EObject o, IItemPropertyDescriptor descriptor, FormSchemaCache.Item item,
+      Collection<?> choices) {
+    IItemLabelProvider itemLabelProvider = descriptor.getLabelProvider(o);
+    var options = new ArrayList<ValueOptions.Option>(choices.size());
+    for (var choice : choices) {
+      options.add(new ValueOptions.Option(choice, new Property.Value(item.semanticType(),
+          stringValueOf(choice, itemLabelProvider)).withId(valueOptionId(choice, o.eResource()))));
+    }
+    var valueOptions = new ValueOptions(options);
+    var cache = valueOptionsCaches.get(o.eResource());
+    if (cache != null) {
+      cache.put(valueOptionsKey(o, item), valueOptions);
+    }
+    return valueOptions;
+  }
+
+  /**
+   * Computes the id of a value option, unique among the options of a property.
+   * Objects in the document have their object id, other objects their URI.
+   *
+   * @param choice the choice
+   * @param resource the resource of the document
+   * @return the id
+   */
+  protected String valueOptionId(Object choice, Resource resource) {
+    if (choice == null) {
+      return "";
+    } else if (choice instanceof EObject eObject) {
+      return eObject.eResource() == resource ? objectId(eObject) : EcoreUtil.getURI(eObject).toString();
+    } else if (choice instanceof Enumerator enumerator) {
+      return enumerator.getLiteral();
+    }
+    return String.valueOf(choice);
+  }
+
+  private static String stringValueOf(Object value, IItemLabelProvider itemLabelProvider) {
+    return itemLabelProvider != null
+        ? itemLabelProvider.getText(value)
+        : (value != null ? String.valueOf(value) : "");
   }
 
   @Override
@@ -386,52 +746,62 @@ public class EmfEditTspServer extends AbstractTspServerImpl {
 
   @Override
   public CompletableFuture<List<Validation>> commitTreeNodeForm(CommitTreeNodeFormParams params) {
-    var resource = getResource(params.documentUri());
-    var o = objectForId(params.treeNodeId(), resource);
-    IItemPropertySource propertySource = adapt(o, IItemPropertySource.class);
-    if (propertySource == null) {
-      return CompletableFuture.completedFuture(List.of());
-    }
-    var properties = collectProperties(o, propertySource);
-    var command = new CompoundCommand("Update form properties");
-    for (var formProperty : params.formProperties()) {
-      var descriptor = properties.stream()
-          .filter(p -> p.descriptor().getId(o).equals(formProperty.name()))
-          .map(TypedProperty::descriptor)
-          .findFirst()
-          .orElse(null);
-      if (descriptor == null || !descriptor.canSetProperty(o)) {
-        continue;
-      }
-      Object updatedValue = convertValue(formProperty.value(), descriptor, o);
-      Object feature = descriptor.getFeature(o);
-      if (!(o instanceof org.eclipse.emf.ecore.EObject eObject) || !(feature instanceof EStructuralFeature sf)) {
-        continue;
+    return inDocumentLane(params, () -> {
+      var event = new TspEvents.CommitTreeNodeForm();
+      event.begin();
+      var resource = getResource(params.documentUri());
+      var o = objectForId(params.treeNodeId(), resource);
+      IItemPropertySource propertySource = adapt(o, IItemPropertySource.class);
+      if (propertySource == null) {
+        return List.of();
       }
-      Object currentValue = descriptor.getPropertyValue(o);
-      if (! Objects.equals(currentValue, updatedValue)) {
-        var editingDomain = getEditingDomain(resource);
-        if (editingDomain == null) {
-          editingDomain = AdapterFactoryEditingDomain.getEditingDomainFor(eObject);
+      var schema = formSchemaFor(o, propertySource);
+      var descriptors = propertyDescriptors(o, propertySource);
+      var command = new CompoundCommand("Update form properties");
+      for (var formProperty : params.formProperties()) {
+        var descriptor = schema.items().containsKey(formProperty.name()) ? descriptors.get(formProperty.name()) : null;
+        if (descriptor == null || !descriptor.canSetProperty(o)) {
+          continue;
         }
-        var setCommand = SetCommand.create(editingDomain, eObject, sf, updatedValue);
-        if (setCommand.canExecute()) {
+        var setCommand = setCommandFor(o, resource, descriptor, schema.items().get(formProperty.name()),
+            formProperty.value());
+        if (setCommand != null && setCommand.canExecute()) {
           command.append(setCommand);
         }
       }
-    }
 
-    if (!command.isEmpty() && command.canExecute()) {
-      doCommand(command, resource);
-    }
+      if (!command.isEmpty() && command.canExecute()) {
+        doCommand(command, resource);
+      }
+      event.commit(params.documentUri(), params.treeNodeId(), 0, () -> command.getCommandList().size());
 
-    return CompletableFuture.completedFuture(List.of());
+      return List.of();
+    });
+  }
+
+  /**
+   * Creates the command for setting a property of an object.
+   *
+   * @return the command, or null if the value is unchanged or the property isn't a feature
+   */
+  private org.eclipse.emf.common.command.Command setCommandFor(EObject o, Resource resource,
+      IItemPropertyDescriptor descriptor, FormSchemaCache.Item item, Property.Value value) {
+    Object updatedValue = convertValue(value, descriptor, o, item);
+    if (!(descriptor.getFeature(o) instanceof EStructuralFeature sf)
+        || Objects.equals(descriptor.getPropertyValue(o), updatedValue)) {
+      return null;
+    }
+    return SetCommand.create(editingDomainFor(o, resource), o, sf, updatedValue);
   }
 
-  private Object convertValue(Property.Value value, IItemPropertyDescriptor descriptor, Object o) {
+  private Object convertValue(Property.Value value, IItemPropertyDescriptor descriptor, EObject o,
+      FormSchemaCache.Item item) {
     if (value == null) {
       return null;
     }
+    if (value.id() != null) {
+      return choiceForId(value.id(), descriptor, o, item);
+    }
 
     String stringValue = value.stringValue();
     var choices = descriptor.getChoiceOfValues(o);
@@ -458,11 +828,30 @@ public class EmfEditTspServer extends AbstractTspServerImpl {
     return stringValue;
   }
 
-  private record TypedProperty(IItemPropertyDescriptor descriptor, String semanticType) {
+  // resolves an option id through the cached options, or else by comparing ids, without computing labels
+  private Object choiceForId(String id, IItemPropertyDescriptor descriptor, EObject o, FormSchemaCache.Item item) {
+    var cache = valueOptionsCaches.get(o.eResource());
+    var valueOptions = cache != null ? cache.get(valueOptionsKey(o, item)) : null;
+    if (valueOptions != null && valueOptions.hasOption(id)) {
+      return valueOptions.choiceFor(id);
+    }
+    var choices = descriptor.getChoiceOfValues(o);
+    if (choices != null) {
+      for (var choice : choices) {
+        if (id.equals(valueOptionId(choice, o.eResource()))) {
+          return choice;
+        }
+      }
+    }
+    throw new IllegalArgumentException("No value option " + id + " for " + item.propertyName());
   }
 
-  private List<TypedProperty> collectProperties(Object o, IItemPropertySource propertySource) {
-    List<TypedProperty> properties = new ArrayList<>();
+  private FormSchemaCache.FormSchema formSchemaFor(EObject o, IItemPropertySource propertySource) {
+    return formSchemas.get(o.eClass(), () -> formSchemaItems(o, propertySource));
+  }
+
+  private List<FormSchemaCache.Item> formSchemaItems(EObject o, IItemPropertySource propertySource) {
+    List<FormSchemaCache.Item> items = new ArrayList<>();
     for (var descriptor : propertySource.getPropertyDescriptors(o)) {
       Object feature = descriptor.getFeature(o);
       String semanticType = null;
@@ -478,8 +867,18 @@ public class EmfEditTspServer extends AbstractTspServerImpl {
       if (semanticType == null) {
         continue;
       }
-      properties.add(new TypedProperty(descriptor, semanticType));
+      items.add(new FormSchemaCache.Item(descriptor.getId(o), semanticType,
+          Label.ofText(descriptor.getDisplayName(o)).withDescription(descriptor.getDescription(o))));
+    }
+    return items;
+  }
+
+  // for looking up the descriptors of the properties of a form, by name
+  private static Map<String, IItemPropertyDescriptor> propertyDescriptors(Object o, IItemPropertySource propertySource) {
+    var descriptors = new HashMap<String, IItemPropertyDescriptor>();
+    for (var descriptor : propertySource.getPropertyDescriptors(o)) {
+      descriptors.putIfAbsent(descriptor.getId(o), descriptor);
     }
-    return properties;
+    return descriptors;
   }
 }
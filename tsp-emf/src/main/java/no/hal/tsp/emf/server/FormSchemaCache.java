@@ -0,0 +1,76 @@
+package no.hal.tsp.emf.server;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import no.hal.tsp.model.Label;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Cache of the form schemas of classes, i.e. the parts of forms that are the same for all instances of a class.
+ * The schemas don't refer to the classes or their features, so the classes of unloaded models can be collected.
+ */
+class FormSchemaCache {
+
+  /**
+   * Counters for checking the effect of the cache.
+   */
+  record Stats(long hits, long misses, int size) {
+  }
+
+  /**
+   * A form item, without the value, and without whether it's editable, which depends on the instance,
+   * e.g. on whether its resource is read-only.
+   *
+   * @param propertyName the name of the property, i.e. the id of its property descriptor
+   */
+  record Item(String propertyName, String semanticType, Label label) {
+  }
+
+  /**
+   * The schema of the forms of the instances of a class.
+   *
+   * @param id identifies the schema, unique for the lifetime of the server
+   * @param items the items, by property name, in the order of the form
+   */
+  record FormSchema(String id, Map<String, Item> items) {
+  }
+
+  private final Map<EClass, FormSchema> schemas = Collections.synchronizedMap(new WeakHashMap<>());
+  private final AtomicInteger schemaCount = new AtomicInteger();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Returns the form schema of a class, creating it if needed.
+   *
+   * @param eClass the class
+   * @param itemsProvider provides the items of the schema, from an instance of the class
+   * @return the form schema
+   */
+  FormSchema get(EClass eClass, Supplier<List<Item>> itemsProvider) {
+    var schema = schemas.get(eClass);
+    if (schema != null) {
+      hits.incrementAndGet();
+      return schema;
+    }
+    misses.incrementAndGet();
+    var items = new LinkedHashMap<String, Item>();
+    for (var item : itemsProvider.get()) {
+      items.put(item.propertyName(), item);
+    }
+    schema = new FormSchema("form-" + schemaCount.incrementAndGet(), Collections.unmodifiableMap(items));
+    var existing = schemas.putIfAbsent(eClass, schema);
+    return existing != null ? existing : schema;
+  }
+
+  Stats stats() {
+    return new Stats(hits.get(), misses.get(), schemas.size());
+  }
+}
@@ -1,59 +1,226 @@
 package no.hal.tsp.emf.server;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.emf.edit.provider.ComposedImage;
 
+/**
+ * Resolves label images to URIs the client can load, by copying them into a content-addressed images directory.
+ * Resolved URIs are cached in memory by image identity, and the content hashes are stored in an index file
+ * in the images directory, so images are read and hashed at most once, also across restarts.
+ * The images in the index are resolved when the options are set, so labels don't check them when first shown.
+ */
 public class ImageSupport {
-  
+
   public record Options(
     Path imagesDir,
     String imagesClientUriBase
   ) {
   }
 
+  static final String IMAGE_INDEX_FILE_NAME = "image-index.properties";
+
+  // marks images that cannot be resolved, since ConcurrentHashMap doesn't allow null values
+  private static final String NO_IMAGE_URI = "";
+
   private Options options;
-  
+
+  // image identity -> client URI, depends on the options
+  private final Map<Object, String> imageUris = new ConcurrentHashMap<>();
+  // image URL -> last modified and content-addressed file name, stored in the index file
+  private final Properties imageIndex = new Properties();
+  // content-addressed files written (or found) by this process
+  private final Set<Path> imageFiles = ConcurrentHashMap.newKeySet();
+
   public ImageSupport(Options options) {
-    this.options = options;
+    setImagesOptions(options);
   }
 
   public void setImagesOptions(Options options) {
+    if (Objects.equals(this.options, options)) {
+      return;
+    }
     this.options = options;
+    imageUris.clear();
+    loadImageIndex();
+    resolveIndexedImageUris();
+  }
+
+  Map<Object, String> getImageUris() {
+    return imageUris;
   }
 
   String imageUriFor(Object image, Object context) {
     if (options.imagesDir() == null) {
       return null;
     }
+    Object imageKey = imageKeyFor(image, context);
+    if (imageKey == null) {
+      return null;
+    }
+    String imageUri = imageUris.computeIfAbsent(imageKey, key -> {
+      String uri = resolveImageUri(image, context);
+      return uri != null ? uri : NO_IMAGE_URI;
+    });
+    return imageUri != NO_IMAGE_URI ? imageUri : null;
+  }
+
+  // the identity of an image, without reading it
+  private Object imageKeyFor(Object image, Object context) {
+    return switch (image) {
+      case URL url -> url.toExternalForm();
+      case URI uri -> uri.toString();
+      case ComposedImage composedImage -> composedImage.getImages().stream()
+          .map(i -> imageKeyFor(i, context))
+          .toList();
+      case String imageString -> imageString.contains("://") || context == null
+          ? imageString
+          : List.of(context.getClass(), imageString);
+      case null, default -> null;
+    };
+  }
+
+  private String resolveImageUri(Object image, Object context) {
     URL imageUrl = imageUrlFor(image, context);
     if (imageUrl == null) {
       return null;
     }
     try {
-      byte[] bytes = imageUrl.openStream().readAllBytes();
-      String fileName = sha1(bytes) + "." + extensionFor(imageUrl.getPath());
-      Path imageFile = options.imagesDir().resolve(fileName);
-      if (! Files.exists(imageFile)) {
-        Files.createDirectories(options.imagesDir());
-        Files.write(imageFile, bytes);
-      }
-      String uriBase = options.imagesClientUriBase();
-      if (uriBase != null && !uriBase.isBlank()) {
-        return uriBase.endsWith("/") ? uriBase + fileName : uriBase + "/" + fileName;
-      }
-      return imageFile.toUri().toString();
+      return clientUriFor(imageFileNameFor(imageUrl));
     } catch (IOException e) {
       return null;
     }
   }
 
+  private String clientUriFor(String fileName) {
+    String uriBase = options.imagesClientUriBase();
+    if (uriBase != null && !uriBase.isBlank()) {
+      return uriBase.endsWith("/") ? uriBase + fileName : uriBase + "/" + fileName;
+    }
+    return options.imagesDir().resolve(fileName).toUri().toString();
+  }
+
+  private String imageFileNameFor(URL imageUrl) throws IOException {
+    String urlString = imageUrl.toExternalForm();
+    URLConnection connection = imageUrl.openConnection();
+    long lastModified = connection.getLastModified();
+    String fileName = indexedFileName(urlString, lastModified);
+    if (fileName != null) {
+      return fileName;
+    }
+    byte[] bytes;
+    try (InputStream input = connection.getInputStream()) {
+      bytes = input.readAllBytes();
+    }
+    fileName = sha1(bytes) + "." + extensionFor(imageUrl.getPath());
+    writeImageFile(options.imagesDir().resolve(fileName), bytes);
+    imageIndex.setProperty(urlString, lastModified + ":" + fileName);
+    storeImageIndex();
+    return fileName;
+  }
+
+  // the file name in the index entry of an image, if the image is unchanged and its file exists
+  private String indexedFileName(String urlString, long lastModified) {
+    String indexEntry = imageIndex.getProperty(urlString);
+    int pos = indexEntry != null ? indexEntry.indexOf(':') : -1;
+    if (pos < 0) {
+      return null;
+    }
+    String fileName = indexEntry.substring(pos + 1);
+    try {
+      if (Long.parseLong(indexEntry.substring(0, pos)) != lastModified) {
+        return null;
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    return isImageFile(options.imagesDir().resolve(fileName)) ? fileName : null;
+  }
+
+  private boolean isImageFile(Path imageFile) {
+    return imageFiles.contains(imageFile) || (Files.exists(imageFile) && imageFiles.add(imageFile));
+  }
+
+  private void writeImageFile(Path imageFile, byte[] bytes) throws IOException {
+    if (isImageFile(imageFile)) {
+      return;
+    }
+    Files.createDirectories(imageFile.getParent());
+    // write to a temporary file first, so the client never sees a partial image
+    Path tempFile = Files.createTempFile(imageFile.getParent(), imageFile.getFileName().toString(), ".tmp");
+    Files.write(tempFile, bytes);
+    Files.move(tempFile, imageFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    imageFiles.add(imageFile);
+  }
+
+  private void loadImageIndex() {
+    synchronized (imageIndex) {
+      imageIndex.clear();
+      if (options.imagesDir() == null) {
+        return;
+      }
+      Path indexFile = options.imagesDir().resolve(IMAGE_INDEX_FILE_NAME);
+      if (Files.exists(indexFile)) {
+        try (InputStream input = Files.newInputStream(indexFile)) {
+          imageIndex.load(input);
+        } catch (IOException | IllegalArgumentException e) {
+          // a missing or broken index just means images are read and hashed again
+          imageIndex.clear();
+        }
+      }
+    }
+  }
+
+  // only checks the last modified time of each image, images that have changed are resolved when used
+  private void resolveIndexedImageUris() {
+    if (options.imagesDir() == null) {
+      return;
+    }
+    for (String urlString : imageIndex.stringPropertyNames()) {
+      try {
+        long lastModified = URI.create(urlString).toURL().openConnection().getLastModified();
+        String fileName = indexedFileName(urlString, lastModified);
+        if (fileName != null) {
+          imageUris.putIfAbsent(urlString, clientUriFor(fileName));
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        // resolved when used
+      }
+    }
+  }
+
+  private void storeImageIndex() {
+    synchronized (imageIndex) {
+      try {
+        Files.createDirectories(options.imagesDir());
+        Path indexFile = options.imagesDir().resolve(IMAGE_INDEX_FILE_NAME);
+        Path tempFile = Files.createTempFile(options.imagesDir(), IMAGE_INDEX_FILE_NAME, ".tmp");
+        try (OutputStream output = Files.newOutputStream(tempFile)) {
+          imageIndex.store(output, "Label image URLs, with last modified time and content-addressed file name");
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        // the index is only an optimization
+      }
+    }
+  }
+
   private URL imageUrlFor(Object image, Object context) {
     try {
       return switch (image) {
@@ -99,12 +266,7 @@ public class ImageSupport {
   private static String sha1(byte[] bytes) {
     try {
       MessageDigest digest = MessageDigest.getInstance("SHA-1");
-      byte[] hash = digest.digest(bytes);
-      StringBuilder builder = new StringBuilder(hash.length * 2);
-      for (byte b : hash) {
-        builder.append(String.format("%02x", b));
-      }
-      return builder.toString();
+      return HexFormat.of().formatHex(digest.digest(bytes));
     } catch (NoSuchAlgorithmException e) {
       return Integer.toHexString(java.util.Arrays.hashCode(bytes));
     }
@@ -0,0 +1,56 @@
+package no.hal.tsp.emf.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import no.hal.tsp.model.Label;
+
+/**
+ * Cache of the labels of the objects of a document.
+ * Since a label may be computed from other objects than its own, the cache is cleared by any change of the document,
+ * so labels are computed again only after a change, and only for the objects that are shown again.
+ */
+class LabelCache {
+
+  /**
+   * Counters for checking the effect of the cache.
+   */
+  record Stats(long hits, long misses, long invalidations, int size) {
+  }
+
+  private final Map<Object, Label> labels = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  Label get(Object o, Function<Object, Label> labelProvider) {
+    var label = labels.get(o);
+    if (label != null) {
+      hits.incrementAndGet();
+      return label;
+    }
+    misses.incrementAndGet();
+    label = labelProvider.apply(o);
+    if (label != null) {
+      labels.put(o, label);
+    }
+    return label;
+  }
+
+  /**
+   * Clears the cache, counting the labels as invalidated.
+   * Checks if it's empty first, since clearing doesn't shrink the map, so it's as costly when empty.
+   */
+  void clear() {
+    if (!labels.isEmpty()) {
+      invalidations.addAndGet(labels.size());
+      labels.clear();
+    }
+  }
+
+  Stats stats() {
+    return new Stats(hits.get(), misses.get(), invalidations.get(), labels.size());
+  }
+}
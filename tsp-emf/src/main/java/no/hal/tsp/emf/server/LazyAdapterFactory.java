@@ -0,0 +1,111 @@
+package no.hal.tsp.emf.server;
+
+import java.util.function.Supplier;
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.AdapterFactory;
+import org.eclipse.emf.common.notify.Notifier;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.edit.provider.ComposeableAdapterFactory;
+import org.eclipse.emf.edit.provider.ComposedAdapterFactory;
+import org.eclipse.emf.edit.provider.IDisposable;
+
+/**
+ * Adapter factory of item providers, that is created when an object of its package is first adapted,
+ * so starting the server doesn't load and create the providers of packages that aren't edited.
+ * It tells if it's the factory for a package without creating the factory,
+ * the same way as generated adapter factories do, so the composed adapter factory picks the same factories.
+ */
+class LazyAdapterFactory implements ComposeableAdapterFactory, IDisposable {
+
+  // the namespace of the package of the factory, or null if it is for all packages
+  private final String nsURI;
+  private final Supplier<? extends AdapterFactory> factorySupplier;
+  private volatile AdapterFactory adapterFactory;
+  private ComposedAdapterFactory parentAdapterFactory;
+
+  /**
+   * @param nsURI the namespace of the package of the factory, or null if it is for all packages
+   * @param factorySupplier creates the factory
+   */
+  LazyAdapterFactory(String nsURI, Supplier<? extends AdapterFactory> factorySupplier) {
+    this.nsURI = nsURI;
+    this.factorySupplier = factorySupplier;
+  }
+
+  boolean isCreated() {
+    return adapterFactory != null;
+  }
+
+  private AdapterFactory adapterFactory() {
+    var current = adapterFactory;
+    if (current == null) {
+      synchronized (this) {
+        current = adapterFactory;
+        if (current == null) {
+          current = factorySupplier.get();
+          if (current instanceof ComposeableAdapterFactory composeable) {
+            composeable.setParentAdapterFactory(parentAdapterFactory);
+          }
+          adapterFactory = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  // as generated factories, that are for their package and the supported types, but not for other objects,
+  // so the composed adapter factory doesn't take them to be generic
+  @Override
+  public boolean isFactoryForType(Object type) {
+    if (nsURI != null) {
+      if (type instanceof EPackage ePackage) {
+        return nsURI.equals(ePackage.getNsURI());
+      }
+      if (type instanceof EObject || type instanceof Package) {
+        return false;
+      }
+    }
+    return adapterFactory().isFactoryForType(type);
+  }
+
+  @Override
+  public Object adapt(Object object, Object type) {
+    return adapterFactory().adapt(object, type);
+  }
+
+  @Override
+  public Adapter adapt(Notifier target, Object type) {
+    return adapterFactory().adapt(target, type);
+  }
+
+  @Override
+  public Adapter adaptNew(Notifier target, Object type) {
+    return adapterFactory().adaptNew(target, type);
+  }
+
+  @Override
+  public void adaptAllNew(Notifier notifier) {
+    adapterFactory().adaptAllNew(notifier);
+  }
+
+  @Override
+  public ComposeableAdapterFactory getRootAdapterFactory() {
+    return parentAdapterFactory == null ? this : parentAdapterFactory.getRootAdapterFactory();
+  }
+
+  @Override
+  public synchronized void setParentAdapterFactory(ComposedAdapterFactory parentAdapterFactory) {
+    this.parentAdapterFactory = parentAdapterFactory;
+    if (adapterFactory instanceof ComposeableAdapterFactory composeable) {
+      composeable.setParentAdapterFactory(parentAdapterFactory);
+    }
+  }
+
+  @Override
+  public void dispose() {
+    if (adapterFactory instanceof IDisposable disposable) {
+      disposable.dispose();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package no.hal.tsp.emf.server;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.impl.XMLParserPoolImpl;
+
+/**
+ * Sets of load options for documents, selected with the tsp.load.profile setting.
+ */
+enum LoadProfile {
+
+  /**
+   * EMF's default load options.
+   */
+  DEFAULT,
+
+  /**
+   * Reuses parsers and feature lookups across loads, resolves IDREFs at the end of the load, and reads through a
+   * large buffer. Roots are still added to the document as they are parsed, so they can be listed while loading.
+   */
+  FAST,
+
+  /**
+   * Like {@link #FAST}, but attaches the contents to the document when they are complete,
+   * which avoids notifications while loading, but also means roots cannot be listed until the load is done.
+   */
+  BULK;
+
+  static final int INPUT_BUFFER_SIZE = 1024 * 1024;
+
+  // shared by all loads, the parser pool is thread-safe
+  private static final XMLParserPoolImpl PARSER_POOL = new XMLParserPoolImpl();
+
+  /**
+   * Returns the profile for a setting value, with null meaning {@link #DEFAULT}.
+   *
+   * @param name the name of the profile, case-insensitive
+   * @return the profile
+   * @throws IllegalArgumentException if there is no profile with the name
+   */
+  static LoadProfile forName(String name) {
+    if (name == null || name.isBlank()) {
+      return DEFAULT;
+    }
+    try {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown load profile: " + name);
+    }
+  }
+
+  /**
+   * Creates the load options of this profile, for a single load.
+   * The feature lookups are cached in a given map, since its keys are the classes of the loaded objects,
+   * so it must not outlive their packages.
+   *
+   * @param nameToFeatureMap the synchronized map of the feature lookups, used by loads with the same owner
+   * @return the load options
+   */
+  Map<Object, Object> loadOptions(Map<Object, Object> nameToFeatureMap) {
+    var options = new HashMap<Object, Object>();
+    if (this == DEFAULT) {
+      return options;
+    }
+    options.put(XMLResource.OPTION_USE_PARSER_POOL, PARSER_POOL);
+    options.put(XMLResource.OPTION_USE_XML_NAME_TO_FEATURE_MAP, nameToFeatureMap);
+    options.put(XMLResource.OPTION_USE_DEPRECATED_METHODS, Boolean.FALSE);
+    options.put(XMLResource.OPTION_DEFER_IDREF_RESOLUTION, Boolean.TRUE);
+    options.put(DocumentResourceFactory.OPTION_INPUT_BUFFER_SIZE, INPUT_BUFFER_SIZE);
+    if (this == BULK) {
+      options.put(XMLResource.OPTION_DEFER_ATTACHMENT, Boolean.TRUE);
+    }
+    return options;
+  }
+}
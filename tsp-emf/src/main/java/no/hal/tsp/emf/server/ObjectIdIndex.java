@@ -0,0 +1,139 @@
+package no.hal.tsp.emf.server;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+
+/**
+ * Index of stable, compact ids for the objects of a resource.
+ * Ids are assigned on demand and kept in an adapter on the object, so the id-to-object and object-to-id
+ * lookups are both O(1), and an id survives containment changes, including removal and re-insertion by undo/redo,
+ * without any upkeep. Objects are referenced weakly, so removed objects that are no longer referenced,
+ * e.g. by the command stack, drop out of the index.
+ */
+class ObjectIdIndex {
+
+  static final String ID_PREFIX = "#";
+
+  private final Resource resource;
+  private final Map<String, IdReference> objects = new ConcurrentHashMap<>();
+  private final ReferenceQueue<EObject> staleReferences = new ReferenceQueue<>();
+  private final AtomicLong lastId = new AtomicLong();
+
+  ObjectIdIndex(Resource resource) {
+    this.resource = resource;
+  }
+
+  private static class IdReference extends WeakReference<EObject> {
+    private final String id;
+
+    IdReference(String id, EObject eObject, ReferenceQueue<EObject> queue) {
+      super(eObject, queue);
+      this.id = id;
+    }
+  }
+
+  private class IdAdapter extends AdapterImpl {
+    private final String id;
+
+    IdAdapter(String id) {
+      this.id = id;
+    }
+
+    @Override
+    public boolean isAdapterForType(Object type) {
+      return type == ObjectIdIndex.this;
+    }
+  }
+
+  /**
+   * Returns the id already assigned to an object, by any index.
+   *
+   * @param eObject the object
+   * @return the id of the object, or null if it hasn't been assigned one
+   */
+  static String existingIdFor(EObject eObject) {
+    for (Adapter adapter : eObject.eAdapters()) {
+      if (adapter instanceof ObjectIdIndex.IdAdapter idAdapter) {
+        return idAdapter.id;
+      }
+    }
+    return null;
+  }
+
+  static boolean isIndexId(String id) {
+    return id.startsWith(ID_PREFIX);
+  }
+
+  /**
+   * Returns the id of an object, assigning a new one if the object doesn't have one.
+   *
+   * @param eObject the object
+   * @return the id of the object
+   */
+  String idFor(EObject eObject) {
+    String id = existingIdFor(eObject);
+    if (id != null) {
+      return id;
+    }
+    expungeStaleReferences();
+    id = ID_PREFIX + Long.toString(lastId.incrementAndGet(), Character.MAX_RADIX);
+    eObject.eAdapters().add(new IdAdapter(id));
+    objects.put(id, new IdReference(id, eObject, staleReferences));
+    return id;
+  }
+
+  /**
+   * Returns the object with a specific id, or null if no such object is known.
+   * The object may have been removed from the resource.
+   *
+   * @param id the id
+   * @return the object with the id, or null
+   */
+  EObject objectFor(String id) {
+    var reference = objects.get(id);
+    return reference != null ? reference.get() : null;
+  }
+
+  /**
+   * Maps an id back to the URI fragment of the object, e.g. for persisting references to it.
+   *
+   * @param id the id
+   * @return the URI fragment of the object with the id, or null if it isn't contained in the resource
+   */
+  String uriFragmentFor(String id) {
+    var eObject = objectFor(id);
+    return eObject != null && eObject.eResource() == resource ? resource.getURIFragment(eObject) : null;
+  }
+
+  int size() {
+    expungeStaleReferences();
+    return objects.size();
+  }
+
+  private void expungeStaleReferences() {
+    IdReference reference;
+    while ((reference = (IdReference) staleReferences.poll()) != null) {
+      objects.remove(reference.id, reference);
+    }
+  }
+
+  /**
+   * Removes the id adapters from all indexed objects and clears the index.
+   */
+  void dispose() {
+    for (var reference : objects.values()) {
+      var eObject = reference.get();
+      if (eObject != null) {
+        eObject.eAdapters().removeIf(adapter -> adapter.isAdapterForType(this));
+      }
+    }
+    objects.clear();
+  }
+}
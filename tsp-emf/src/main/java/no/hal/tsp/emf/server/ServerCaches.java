@@ -0,0 +1,47 @@
+package no.hal.tsp.emf.server;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.eclipse.emf.edit.provider.ComposedAdapterFactory;
+
+/**
+ * The caches of a server that don't depend on its documents or client,
+ * so a process that serves many connections can share them, between servers of the same class.
+ * Referenced resources are then loaded once, and form schemas and command menus computed once, for all editors.
+ */
+class ServerCaches {
+
+  final SharedResourcePool sharedResources = new SharedResourcePool();
+  final FormSchemaCache formSchemas = new FormSchemaCache();
+  final CommandMenuCache commandMenus = new CommandMenuCache();
+  private final Map<Path, BinaryLoadCache> loadCaches = new ConcurrentHashMap<>();
+  private DocumentAdapterFactory.Shared sharedAdapterFactory;
+
+  /**
+   * Returns the adapter factory of objects outside documents, e.g. of shared resources, creating it the first time.
+   * It adapts while holding the lock of the shared resources, so the adapters of their objects aren't attached
+   * by several documents at the same time, nor while they are unloaded, which removes the adapters.
+   *
+   * @param registerProviders registers the item providers of the factory, when it's created
+   * @return the shared adapter factory
+   */
+  synchronized DocumentAdapterFactory.Shared sharedAdapterFactory(Consumer<ComposedAdapterFactory> registerProviders) {
+    if (sharedAdapterFactory == null) {
+      sharedAdapterFactory = new DocumentAdapterFactory.Shared(sharedResources);
+      registerProviders.accept(sharedAdapterFactory);
+    }
+    return sharedAdapterFactory;
+  }
+
+  /**
+   * Returns the binary load cache of a directory, so servers using the same directory use the same cache.
+   *
+   * @param cacheDir the directory
+   * @return the load cache
+   */
+  BinaryLoadCache loadCache(Path cacheDir) {
+    return loadCaches.computeIfAbsent(cacheDir, BinaryLoadCache::new);
+  }
+}
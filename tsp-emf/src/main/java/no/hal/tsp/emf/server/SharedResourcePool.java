@@ -0,0 +1,149 @@
+package no.hal.tsp.emf.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+/**
+ * Resources referenced from documents, e.g. metamodels and libraries, that are loaded once and shared by all documents.
+ * Shared resources are read-only, and are loaded with all their references resolved,
+ * so documents using them in parallel don't change their contents.
+ * The item providers of documents do attach adapters to their objects, e.g. when labelling value options,
+ * which is done by the shared adapter factory, while holding the lock of the pool, see {@link ServerCaches}.
+ * Each shared resource keeps track of the documents using it, directly or through other shared resources,
+ * and is unloaded when no document uses it any more.
+ */
+class SharedResourcePool {
+
+  private final ResourceSet resourceSet = new ResourceSetImpl();
+  // the document resource sets using each shared resource
+  private final Map<Resource, Set<ResourceSet>> users = new HashMap<>();
+  // the shared resources each shared resource references
+  private final Map<Resource, Set<Resource>> dependencies = new HashMap<>();
+  // the feature lookups of loads, keyed by the classes of the loaded objects, e.g. of shared metamodels
+  private final Map<Object, Object> nameToFeatureMap = Collections.synchronizedMap(new HashMap<>());
+
+  SharedResourcePool() {
+    resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new DocumentResourceFactory());
+  }
+
+  synchronized void setLoadOptions(Map<?, ?> loadOptions) {
+    resourceSet.getLoadOptions().clear();
+    resourceSet.getLoadOptions().putAll(loadOptions);
+  }
+
+  /**
+   * Returns the map of feature lookups used when loading documents and shared resources,
+   * which is cleared when shared resources are unloaded, so it doesn't keep their classes alive.
+   *
+   * @return the synchronized map
+   */
+  Map<Object, Object> getNameToFeatureMap() {
+    return nameToFeatureMap;
+  }
+
+  /**
+   * Returns a shared resource for a document, loading it if needed.
+   *
+   * @param uri the uri of the resource
+   * @param user the resource set of the document
+   * @param loadOnDemand whether to load the resource if it isn't loaded already
+   * @return the shared resource, or null if not loaded and loadOnDemand is false
+   */
+  synchronized Resource acquire(URI uri, ResourceSet user, boolean loadOnDemand) {
+    var resource = resourceSet.getResource(uri, false);
+    if (resource == null && loadOnDemand) {
+      resource = load(uri);
+    }
+    if (resource != null) {
+      addUser(resource, user);
+    }
+    return resource;
+  }
+
+  private Resource load(URI uri) {
+    int firstNew = resourceSet.getResources().size();
+    try {
+      return resourceSet.getResource(uri, true);
+    } finally {
+      // resolve all references, including those of resources loaded meanwhile, so using them doesn't modify them
+      var resources = resourceSet.getResources();
+      for (int i = firstNew; i < resources.size(); i++) {
+        EcoreUtil.resolveAll(resources.get(i));
+      }
+      for (var loaded : List.copyOf(resources.subList(firstNew, resources.size()))) {
+        dependencies.put(loaded, referencedResources(loaded));
+        users.putIfAbsent(loaded, new HashSet<>());
+      }
+    }
+  }
+
+  private static Set<Resource> referencedResources(Resource resource) {
+    var referenced = new LinkedHashSet<Resource>();
+    for (var references : EcoreUtil.ExternalCrossReferencer.find(List.of(resource)).keySet()) {
+      var referencedResource = references.eResource();
+      if (referencedResource != null && referencedResource != resource
+          && referencedResource.getResourceSet() == resource.getResourceSet()) {
+        referenced.add(referencedResource);
+      }
+    }
+    return referenced;
+  }
+
+  private void addUser(Resource resource, ResourceSet user) {
+    var resourceUsers = users.computeIfAbsent(resource, key -> new HashSet<>());
+    if (resourceUsers.add(user)) {
+      for (var dependency : dependencies.getOrDefault(resource, Set.of())) {
+        addUser(dependency, user);
+      }
+    }
+  }
+
+  /**
+   * Releases the shared resources used by a document, and unloads those no other document uses.
+   *
+   * @param user the resource set of the document
+   */
+  synchronized void release(ResourceSet user) {
+    users.values().forEach(resourceUsers -> resourceUsers.remove(user));
+    // including those that were never used, e.g. that failed to load
+    var unused = users.entrySet().stream()
+        .filter(entry -> entry.getValue().isEmpty())
+        .map(Map.Entry::getKey)
+        .toList();
+    for (var resource : unused) {
+      users.remove(resource);
+      dependencies.remove(resource);
+      resource.unload();
+      resourceSet.getResources().remove(resource);
+    }
+    if (!unused.isEmpty()) {
+      nameToFeatureMap.clear();
+    }
+  }
+
+  boolean isShared(Resource resource) {
+    return resource != null && resource.getResourceSet() == resourceSet;
+  }
+
+  /**
+   * @return the number of documents using a shared resource, or -1 if it isn't loaded
+   */
+  synchronized int userCount(URI uri) {
+    var resource = resourceSet.getResource(uri, false);
+    return resource != null ? users.getOrDefault(resource, Set.of()).size() : -1;
+  }
+
+  synchronized int size() {
+    return resourceSet.getResources().size();
+  }
+}
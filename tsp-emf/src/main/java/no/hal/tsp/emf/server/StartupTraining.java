@@ -0,0 +1,131 @@
+package no.hal.tsp.emf.server;
+
+import com.google.gson.JsonDeserializer;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import no.hal.tsp.launcher.ServerProtocolLauncher;
+import no.hal.tsp.model.MenuItem;
+import no.hal.tsp.model.Property;
+import no.hal.tsp.protocol.DocumentApi.CloseDocumentParams;
+import no.hal.tsp.protocol.DocumentApi.DocumentSavedParams;
+import no.hal.tsp.protocol.DocumentApi.LoadProgressParams;
+import no.hal.tsp.protocol.DocumentApi.OpenDocumentParams;
+import no.hal.tsp.protocol.DocumentClientProtocol;
+import no.hal.tsp.protocol.FormApi.CommitTreeNodeFormParams;
+import no.hal.tsp.protocol.FormApi.GetTreeNodeFormParams;
+import no.hal.tsp.protocol.ServerConfigApi.ConfigureParams;
+import no.hal.tsp.protocol.TreeEditApi.GetCommandMenuParams;
+import no.hal.tsp.protocol.TreeServerProtocol;
+import no.hal.tsp.protocol.TreeStructureApi.GetChildrenParams;
+import no.hal.tsp.protocol.UndoRedoApi.DocumentEditedParams;
+import no.hal.tsp.protocol.UndoRedoApi.UndoEditsParams;
+import org.eclipse.lsp4j.jsonrpc.Launcher;
+
+/**
+ * Runs the requests of an editor that opens, shows and edits a document, against a server over JSON-RPC,
+ * as the training run of a class data sharing archive, so the archive has the classes used at startup:
+ * <pre>
+ * java -XX:ArchiveClassesAtExit=tsp-server.jsa -cp tsp-emf-1.0.0-SNAPSHOT-standalone.jar \
+ *   no.hal.tsp.emf.server.StartupTraining model.ecore
+ * </pre>
+ * The document is copied first, so it isn't changed.
+ */
+public class StartupTraining {
+
+  private static final long TIMEOUT_SECONDS = 60;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: StartupTraining <document>");
+      System.exit(1);
+    }
+    var workDir = Files.createTempDirectory("tsp-training");
+    var document = Files.copy(Path.of(args[0]), workDir.resolve(Path.of(args[0]).getFileName()),
+        StandardCopyOption.REPLACE_EXISTING);
+    var status = 0;
+    try {
+      train(document.toUri().toString(), workDir.resolve("images"));
+    } catch (Exception e) {
+      System.err.println("Training failed: " + e);
+      status = 1;
+    } finally {
+      deleteRecursively(workDir);
+    }
+    // the classes are archived when the process exits, which also stops the client and server threads
+    System.exit(status);
+  }
+
+  private static void train(String documentUri, Path imagesDir) throws Exception {
+    Pipe clientToServer = Pipe.open();
+    Pipe serverToClient = Pipe.open();
+    var serverLauncher = new ServerProtocolLauncher<TreeServerProtocol>(TreeServerProtocol.class,
+        new EmfEditTspServer());
+    Thread.ofPlatform().daemon().name("tsp-server").start(() -> serverLauncher.startServer(
+        Channels.newInputStream(clientToServer.source()), Channels.newOutputStream(serverToClient.sink())));
+
+    Launcher<TreeServerProtocol> clientLauncher = new Launcher.Builder<TreeServerProtocol>()
+        .setLocalService(new IgnoringClient())
+        .setRemoteInterface(TreeServerProtocol.class)
+        .setInput(Channels.newInputStream(serverToClient.source()))
+        .setOutput(Channels.newOutputStream(clientToServer.sink()))
+        .configureGson(gsonBuilder -> gsonBuilder.registerTypeAdapter(MenuItem.class, MENU_ITEM_DESERIALIZER))
+        .create();
+    clientLauncher.startListening();
+    var server = clientLauncher.getRemoteProxy();
+
+    get(server.configure(new ConfigureParams(Map.of("tsp.label.images.dir", imagesDir.toString()))));
+    get(server.openDocument(new OpenDocumentParams(documentUri)));
+    var root = get(server.getChildren(new GetChildrenParams(documentUri, null, 0)))[0];
+    var children = get(server.getChildren(new GetChildrenParams(documentUri, root.id(), 1)));
+    get(server.getTreeNodeForm(new GetTreeNodeFormParams(documentUri, root.id())));
+    if (children.length > 0) {
+      get(server.getTreeNodeForm(new GetTreeNodeFormParams(documentUri, children[0].id())));
+    }
+    get(server.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, root.id(),
+        List.of(new Property("name").withValue("ecore:EString", "trained")))));
+    get(server.undoEdits(new UndoEditsParams(documentUri, 1)));
+    get(server.getCommandMenu(new GetCommandMenuParams(documentUri, root.id())));
+    get(server.closeDocument(new CloseDocumentParams(documentUri)));
+  }
+
+  private static <T> T get(CompletableFuture<T> future) throws Exception {
+    return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  // menu items are menus if they have items, and commands otherwise
+  private static final JsonDeserializer<MenuItem> MENU_ITEM_DESERIALIZER = (json, type, context) ->
+      context.deserialize(json, json.getAsJsonObject().has("items") ? MenuItem.Menu.class : MenuItem.Command.class);
+
+  // receives the notifications of the server, so they aren't logged as unsupported
+  private static class IgnoringClient implements DocumentClientProtocol {
+
+    @Override
+    public void documentEdited(DocumentEditedParams params) {
+    }
+
+    @Override
+    public void loadProgress(LoadProgressParams params) {
+    }
+
+    @Override
+    public void documentSaved(DocumentSavedParams params) {
+    }
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    try (var paths = Files.walk(dir)) {
+      for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+}
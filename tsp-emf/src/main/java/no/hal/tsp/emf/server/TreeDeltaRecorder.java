@@ -0,0 +1,196 @@
+package no.hal.tsp.emf.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import no.hal.tsp.model.TreeNode;
+import no.hal.tsp.model.TreeNodeDelta;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.util.EContentAdapter;
+
+/**
+ * Records the notifications of a resource and its contents, and turns them into tree node deltas.
+ * Indices and the ids of inserted and removed objects are computed when the notification arrives,
+ * so they are consistent when the deltas are applied in order, while nodes are computed when the deltas are drained.
+ * The server is told about each change when it arrives, so e.g. cached labels are invalidated
+ * before the nodes are computed.
+ */
+class TreeDeltaRecorder extends EContentAdapter {
+
+  private record Change(TreeNodeDelta.Kind kind, Object parent, Object child, String childId, int index, int oldIndex) {
+  }
+
+  private final EmfDocumentServer server;
+  private final List<Change> changes = new ArrayList<>();
+  // the objects this is attached to, i.e. the contents of the resource
+  private int objectCount;
+
+  TreeDeltaRecorder(EmfDocumentServer server) {
+    this.server = server;
+  }
+
+  /**
+   * @return the number of objects in the resource, counted as this is attached to and detached from them
+   */
+  int objectCount() {
+    return objectCount;
+  }
+
+  @Override
+  protected void setTarget(EObject target) {
+    objectCount++;
+    super.setTarget(target);
+  }
+
+  @Override
+  protected void unsetTarget(EObject target) {
+    objectCount--;
+    super.unsetTarget(target);
+  }
+
+  @Override
+  public void notifyChanged(Notification notification) {
+    // let EContentAdapter attach to and detach from added and removed contents
+    super.notifyChanged(notification);
+    if (notification.isTouch()
+        || notification.getEventType() == Notification.RESOLVE
+        || notification.getEventType() == Notification.REMOVING_ADAPTER) {
+      return;
+    }
+    Object notifier = notification.getNotifier();
+    var changedResource = notifier instanceof EObject eObject ? eObject.eResource() : (Resource) notifier;
+    if (changedResource != null) {
+      server.documentChanged(changedResource, notification);
+    }
+    if (notifier instanceof Resource resource) {
+      if (notification.getFeatureID(Resource.class) == Resource.RESOURCE__CONTENTS) {
+        recordContainmentChange(notification, resource, 0);
+      }
+    } else if (notifier instanceof EObject eObject) {
+      if (notification.getFeature() instanceof EReference reference && reference.isContainment()) {
+        recordContainmentChange(notification, eObject, contentsOffset(eObject, reference));
+      } else {
+        changes.add(new Change(TreeNodeDelta.Kind.CHANGED, null, eObject, null, -1, -1));
+      }
+    }
+  }
+
+  private void recordContainmentChange(Notification notification, Object parent, int offset) {
+    int position = Math.max(0, notification.getPosition());
+    switch (notification.getEventType()) {
+      case Notification.SET, Notification.UNSET -> {
+        if (notification.getOldValue() != null) {
+          recordRemoved(parent, notification.getOldValue(), offset, 0);
+        }
+        if (notification.getNewValue() != null) {
+          recordInserted(parent, notification.getNewValue(), offset);
+        }
+      }
+      case Notification.ADD -> recordInserted(parent, notification.getNewValue(), offset + position);
+      case Notification.ADD_MANY -> {
+        int i = 0;
+        for (var child : (Collection<?>) notification.getNewValue()) {
+          recordInserted(parent, child, offset + position + i);
+          i++;
+        }
+      }
+      case Notification.REMOVE -> recordRemoved(parent, notification.getOldValue(), offset, position);
+      case Notification.REMOVE_MANY -> {
+        // record from the end, so earlier indices remain valid when applied in order
+        var children = new ArrayList<Object>((Collection<?>) notification.getOldValue());
+        int[] positions = notification.getNewValue() instanceof int[] ints ? ints : null;
+        for (int i = children.size() - 1; i >= 0; i--) {
+          recordRemoved(parent, children.get(i), offset, positions != null ? positions[i] : i);
+        }
+      }
+      case Notification.MOVE -> {
+        int oldPosition = (Integer) notification.getOldValue();
+        changes.add(new Change(TreeNodeDelta.Kind.MOVED, parent, notification.getNewValue(), null,
+            offset + position, offset + oldPosition));
+      }
+      default -> {
+      }
+    }
+  }
+
+  private void recordInserted(Object parent, Object child, int index) {
+    // the child may be detached before the deltas are drained, and then needs the id it was inserted with
+    changes.add(new Change(TreeNodeDelta.Kind.INSERTED, parent, child, server.objectId(child), index, -1));
+  }
+
+  private void recordRemoved(Object parent, Object child, int offset, int position) {
+    // the child is already detached, so its id must be computed now, relative to the parent
+    String childId = server.removedObjectId(parent, child);
+    changes.add(new Change(TreeNodeDelta.Kind.REMOVED, parent, child, childId, offset + position, -1));
+  }
+
+  // the index of the first element of the containment reference, among all the contents of the parent
+  private static int contentsOffset(EObject parent, EReference reference) {
+    int offset = 0;
+    for (var containment : parent.eClass().getEAllContainments()) {
+      if (containment == reference) {
+        break;
+      }
+      Object value = parent.eGet(containment, false);
+      if (containment.isMany()) {
+        offset += ((Collection<?>) value).size();
+      } else if (value != null) {
+        offset++;
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Converts the recorded changes into deltas, and clears them.
+   *
+   * @return the deltas for the changes recorded since the last call
+   */
+  List<TreeNodeDelta> drain() {
+    var deltas = new ArrayList<TreeNodeDelta>();
+    Set<Object> insertedObjects = Collections.newSetFromMap(new IdentityHashMap<>());
+    Set<Object> changedObjects = new LinkedHashSet<>();
+    for (var change : changes) {
+      switch (change.kind()) {
+        case INSERTED -> {
+          // a child that is detached again is still inserted, since the indices of later deltas count it,
+          // but without its label, since it is removed by a later delta
+          TreeNode treeNode;
+          if (isAttached(change.child())) {
+            insertedObjects.add(change.child());
+            treeNode = server.treeNodeFor(change.child());
+          } else {
+            treeNode = new TreeNode(change.childId(), "object", null, null);
+          }
+          deltas.add(TreeNodeDelta.inserted(parentId(change.parent()), change.index(), treeNode));
+        }
+        case REMOVED -> deltas.add(TreeNodeDelta.removed(parentId(change.parent()), change.childId(), change.index()));
+        case MOVED -> deltas.add(TreeNodeDelta.moved(parentId(change.parent()),
+            server.objectId(change.child()), change.oldIndex(), change.index()));
+        case CHANGED -> changedObjects.add(change.child());
+      }
+    }
+    for (var changedObject : changedObjects) {
+      if (isAttached(changedObject) && !insertedObjects.contains(changedObject)) {
+        deltas.add(TreeNodeDelta.changed(server.treeNodeFor(changedObject)));
+      }
+    }
+    changes.clear();
+    return deltas;
+  }
+
+  private String parentId(Object parent) {
+    return parent instanceof Resource ? null : server.objectId(parent);
+  }
+
+  private static boolean isAttached(Object o) {
+    return o instanceof EObject eObject && eObject.eResource() != null;
+  }
+}
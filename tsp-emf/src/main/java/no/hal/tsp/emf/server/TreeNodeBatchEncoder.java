@@ -0,0 +1,61 @@
+package no.hal.tsp.emf.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import no.hal.tsp.model.Label;
+import no.hal.tsp.model.TreeNode;
+import no.hal.tsp.model.TreeNodeBatch;
+
+/**
+ * Builds a {@link TreeNodeBatch} from tree nodes, interning their types, semantic types and labels.
+ */
+class TreeNodeBatchEncoder {
+
+  private final List<String> strings = new ArrayList<>();
+  private final Map<String, Integer> stringIndices = new HashMap<>();
+  private final List<Label> labels = new ArrayList<>();
+  private final Map<Label, Integer> labelIndices = new HashMap<>();
+  private final List<TreeNodeBatch.Result> results = new ArrayList<>();
+
+  void addResult(String treeNodeId, int totalCount, TreeNode[] children) {
+    results.add(new TreeNodeBatch.Result(treeNodeId, totalCount, encode(children), null));
+  }
+
+  void addError(String treeNodeId, String error) {
+    results.add(new TreeNodeBatch.Result(treeNodeId, -1, null, error));
+  }
+
+  private TreeNodeBatch.Node[] encode(TreeNode[] nodes) {
+    if (nodes == null) {
+      return null;
+    }
+    var encoded = new TreeNodeBatch.Node[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      var node = nodes[i];
+      encoded[i] = new TreeNodeBatch.Node(node.id(),
+          indexOf(node.type(), strings, stringIndices),
+          indexOf(node.semanticType(), strings, stringIndices),
+          indexOf(node.label(), labels, labelIndices),
+          encode(node.children()),
+          node.childCount());
+    }
+    return encoded;
+  }
+
+  private static <T> int indexOf(T value, List<T> values, Map<T, Integer> indices) {
+    if (value == null) {
+      return -1;
+    }
+    return indices.computeIfAbsent(value, key -> {
+      values.add(key);
+      return values.size() - 1;
+    });
+  }
+
+  TreeNodeBatch toBatch() {
+    return new TreeNodeBatch(strings.toArray(String[]::new), labels.toArray(Label[]::new),
+        results.toArray(TreeNodeBatch.Result[]::new));
+  }
+}
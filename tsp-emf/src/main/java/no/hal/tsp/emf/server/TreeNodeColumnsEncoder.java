@@ -0,0 +1,93 @@
+package no.hal.tsp.emf.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import no.hal.tsp.model.TreeNode;
+import no.hal.tsp.model.TreeNodeColumns;
+
+/**
+ * Builds {@link TreeNodeColumns} from the objects of tree nodes added in depth-first order, interning their types,
+ * semantic types and image URIs. The objects are collected first, so the columns are allocated with their final size,
+ * and the tree nodes are created one at a time, without children, so no nested arrays are built.
+ *
+ * @param <T> the type of the objects
+ */
+class TreeNodeColumnsEncoder<T> {
+
+  private final List<T> objects = new ArrayList<>();
+  private int[] parents = new int[16];
+
+  private final List<String> strings = new ArrayList<>();
+  private final Map<String, Integer> stringIndices = new HashMap<>();
+
+  /**
+   * Adds the object of a node.
+   *
+   * @param parent the index of the parent node, -1 for the children of the requested node
+   * @param o the object of the node
+   * @return the index of the node, for adding its children
+   */
+  int add(int parent, T o) {
+    int index = objects.size();
+    if (index == parents.length) {
+      parents = Arrays.copyOf(parents, index * 2);
+    }
+    parents[index] = parent;
+    objects.add(o);
+    return index;
+  }
+
+  int size() {
+    return objects.size();
+  }
+
+  /**
+   * Creates the tree node of each object, and builds the columns from them.
+   *
+   * @param treeNodeFor creates the tree node of an object, its children are ignored
+   * @return the columns
+   */
+  TreeNodeColumns toColumns(Function<? super T, TreeNode> treeNodeFor) {
+    int size = objects.size();
+    var ids = new String[size];
+    var types = new int[size];
+    var semanticTypes = new int[size];
+    var texts = new String[size];
+    var descriptions = new String[size];
+    var images = new int[size];
+    var childCounts = new int[size];
+    boolean hasDescriptions = false;
+    for (int i = 0; i < size; i++) {
+      var node = treeNodeFor.apply(objects.get(i));
+      var label = node.label();
+      ids[i] = node.id();
+      types[i] = indexOf(node.type());
+      semanticTypes[i] = indexOf(node.semanticType());
+      texts[i] = label != null ? label.text() : null;
+      descriptions[i] = label != null ? label.description() : null;
+      hasDescriptions |= descriptions[i] != null;
+      images[i] = indexOf(label != null ? label.imageUri() : null);
+      childCounts[i] = node.childCount();
+    }
+    return new TreeNodeColumns(strings.toArray(String[]::new), Arrays.copyOf(parents, size), ids, types,
+        semanticTypes, texts, hasDescriptions ? descriptions : null, images, childCounts);
+  }
+
+  // not computeIfAbsent, since it's called for each node, and the lambda would be allocated for each call
+  private int indexOf(String value) {
+    if (value == null) {
+      return -1;
+    }
+    var index = stringIndices.get(value);
+    if (index == null) {
+      index = strings.size();
+      strings.add(value);
+      stringIndices.put(value, index);
+    }
+    return index;
+  }
+}
@@ -0,0 +1,125 @@
+package no.hal.tsp.emf.server;
+
+import java.util.function.IntSupplier;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import no.hal.tsp.model.TreeNode;
+
+/**
+ * Java Flight Recorder events for the operations of the server, so they show up in recordings of a slow editor.
+ * The events are disabled by default, also in recordings with the JDK's settings,
+ * and are enabled with the tsp.jfc settings, e.g.
+ * {@code -XX:StartFlightRecording:settings=tsp.jfc,filename=tsp.jfr}.
+ */
+final class TspEvents {
+
+  private TspEvents() {
+  }
+
+  static final String PREFIX = "no.hal.tsp.";
+
+  @Category("Tree Structure Protocol")
+  @Enabled(false)
+  @StackTrace(false)
+  abstract static class TspEvent extends Event {
+
+    @Label("Document URI")
+    String documentUri;
+
+    @Label("Tree Node ID")
+    String treeNodeId;
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Result Size")
+    @Description("The number of objects, tree nodes, form properties or menu items, or bytes saved")
+    int resultSize;
+
+    /**
+     * Ends the event, and commits it if it is enabled and above its threshold.
+     * The result size is only computed if the event is committed.
+     */
+    void commit(String documentUri, String treeNodeId, int depth, IntSupplier resultSize) {
+      end();
+      if (shouldCommit()) {
+        this.documentUri = documentUri;
+        this.treeNodeId = treeNodeId;
+        this.depth = depth;
+        this.resultSize = resultSize.getAsInt();
+        commit();
+      }
+    }
+  }
+
+  @Name(PREFIX + "DocumentLoad")
+  @Label("Document Load")
+  static class DocumentLoad extends TspEvent {
+
+    @Label("From Cache")
+    boolean cached;
+  }
+
+  @Name(PREFIX + "DocumentSave")
+  @Label("Document Save")
+  @Description("Serializing a document in its lane, and writing it in the background")
+  static class DocumentSave extends TspEvent {
+
+    @Label("Written")
+    @Description("False if the content was unchanged")
+    boolean written;
+  }
+
+  @Name(PREFIX + "UndoRedo")
+  @Label("Undo/Redo")
+  static class UndoRedo extends TspEvent {
+
+    @Label("Kind")
+    String kind;
+  }
+
+  @Name(PREFIX + "GetChildren")
+  @Label("Get Children")
+  static class GetChildren extends TspEvent {
+  }
+
+  @Name(PREFIX + "LabelFor")
+  @Label("Label For")
+  @Threshold("1 ms")
+  static class LabelFor extends TspEvent {
+  }
+
+  @Name(PREFIX + "GetTreeNodeForm")
+  @Label("Get Tree Node Form")
+  static class GetTreeNodeForm extends TspEvent {
+  }
+
+  @Name(PREFIX + "CommitTreeNodeForm")
+  @Label("Commit Tree Node Form")
+  static class CommitTreeNodeForm extends TspEvent {
+  }
+
+  @Name(PREFIX + "GetCommandMenu")
+  @Label("Get Command Menu")
+  static class GetCommandMenu extends TspEvent {
+  }
+
+  /**
+   * Counts tree nodes, including the children that are included in them.
+   */
+  static int nodeCount(TreeNode[] nodes) {
+    int count = 0;
+    if (nodes != null) {
+      for (var node : nodes) {
+        count += 1 + nodeCount(node.children());
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,79 @@
+package no.hal.tsp.emf.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import no.hal.tsp.model.Form;
+import no.hal.tsp.model.Property;
+
+/**
+ * The value options of a property of an object, i.e. the choices of its property descriptor, with their ids and labels.
+ * Options are identified by id, so a committed value is resolved without matching the labels of all options.
+ */
+class ValueOptions {
+
+  /**
+   * An option, as the choice and its value in the protocol.
+   */
+  record Option(Object choice, Property.Value value) {
+  }
+
+  private final List<Option> options;
+  private final Map<String, Option> optionsById = new HashMap<>();
+
+  ValueOptions(List<Option> options) {
+    this.options = options;
+    for (var option : options) {
+      optionsById.putIfAbsent(option.value().id(), option);
+    }
+  }
+
+  int size() {
+    return options.size();
+  }
+
+  List<Property.Value> values() {
+    return options.stream().map(Option::value).toList();
+  }
+
+  boolean hasOption(String id) {
+    return optionsById.containsKey(id);
+  }
+
+  /**
+   * @param id the id of an option
+   * @return the choice of the option, which may be null, e.g. for an unset reference
+   */
+  Object choiceFor(String id) {
+    var option = optionsById.get(id);
+    return option != null ? option.choice() : null;
+  }
+
+  /**
+   * Returns a page of the options with a label containing a filter text, ignoring case.
+   *
+   * @param filter the filter text, or null or blank for all options
+   * @param offset the offset of the page among the matching options
+   * @param limit the maximum size of the page, zero or less means no limit
+   * @return the page
+   */
+  Form.ValueOptionsPage page(String filter, int offset, int limit) {
+    var matching = options;
+    if (filter != null && !filter.isBlank()) {
+      var text = filter.toLowerCase(Locale.ROOT);
+      matching = new ArrayList<>();
+      for (var option : options) {
+        var label = option.value().stringValue();
+        if (label != null && label.toLowerCase(Locale.ROOT).contains(text)) {
+          matching.add(option);
+        }
+      }
+    }
+    int start = Math.min(Math.max(0, offset), matching.size());
+    int end = limit > 0 ? Math.min(matching.size(), start + limit) : matching.size();
+    return new Form.ValueOptionsPage(start, matching.size(),
+        matching.subList(start, end).stream().map(Option::value).toList());
+  }
+}
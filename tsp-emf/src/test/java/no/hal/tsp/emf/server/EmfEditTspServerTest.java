@@ -1,28 +1,91 @@
 package no.hal.tsp.emf.server;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
 import no.hal.tsp.model.Label;
 import no.hal.tsp.model.MenuItem;
 import no.hal.tsp.model.Property;
 import no.hal.tsp.model.TreeNode;
+import no.hal.tsp.model.TreeNodeDelta;
 import no.hal.tsp.protocol.FormApi.CommitTreeNodeFormParams;
+import no.hal.tsp.protocol.DocumentApi.CloseDocumentParams;
+import no.hal.tsp.protocol.DocumentApi.DocumentSavedParams;
+import no.hal.tsp.protocol.DocumentApi.LoadProgressParams;
+import no.hal.tsp.protocol.DocumentApi.NewUriOptions;
 import no.hal.tsp.protocol.DocumentApi.OpenDocumentParams;
+import no.hal.tsp.protocol.DocumentApi.SaveDocumentParams;
+import no.hal.tsp.protocol.DocumentClientProtocol;
 import no.hal.tsp.protocol.FormApi.GetTreeNodeFormParams;
+import no.hal.tsp.protocol.FormApi.GetValueOptionsParams;
+import no.hal.tsp.protocol.ServerConfigApi.ConfigureParams;
+import no.hal.tsp.protocol.ServerConfigApi.GetMetricsParams;
 import no.hal.tsp.protocol.TreeServerProtocol;
 import no.hal.tsp.protocol.TreeEditApi.DoCommandParams;
+import no.hal.tsp.protocol.TreeEditApi.DoEditsParams;
+import no.hal.tsp.protocol.TreeEditApi.EditOperation;
 import no.hal.tsp.protocol.TreeEditApi.GetCommandMenuParams;
+import no.hal.tsp.protocol.TreeStructureApi.ChildrenRequest;
+import no.hal.tsp.protocol.TreeStructureApi.GetChildrenBatchParams;
 import no.hal.tsp.protocol.TreeStructureApi.GetChildrenParams;
+import no.hal.tsp.protocol.UndoRedoApi.DocumentEditedParams;
 import no.hal.tsp.protocol.UndoRedoApi.EditKind;
+import no.hal.tsp.protocol.UndoRedoApi.RedoEditsParams;
 import no.hal.tsp.protocol.UndoRedoApi.UndoEditsParams;
+import org.eclipse.emf.common.command.StrictCompoundCommand;
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EcoreFactory;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.provider.EClassItemProvider;
+import org.eclipse.emf.ecore.provider.EPackageItemProvider;
+import org.eclipse.emf.ecore.provider.EcoreItemProviderAdapterFactory;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
+import org.eclipse.emf.edit.command.AddCommand;
+import org.eclipse.emf.edit.command.RemoveCommand;
+import org.eclipse.emf.edit.domain.AdapterFactoryEditingDomain;
+import org.eclipse.emf.edit.provider.ComposeableAdapterFactory;
+import org.eclipse.emf.edit.provider.ComposedAdapterFactory;
+import org.eclipse.emf.edit.provider.IItemLabelProvider;
+import org.eclipse.emf.edit.provider.IItemPropertyDescriptor;
+import org.eclipse.emf.edit.provider.ItemProviderAdapter;
+import org.eclipse.emf.edit.provider.ReflectiveItemProvider;
+import org.eclipse.emf.edit.provider.ReflectiveItemProviderAdapterFactory;
+import org.eclipse.emf.edit.tree.TreePackage;
+import org.eclipse.emf.edit.tree.provider.TreeItemProviderAdapterFactory;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * Test for the TSP Server Launcher.
@@ -47,12 +110,39 @@ class EmfEditTspServerTest {
         .toList();
   }
 
+  private EmfEditTspServer server;
   private TreeServerProtocol tsp;
   private OpenDocumentParams openDocumentParams;
+  private List<DocumentEditedParams> documentEdits;
+  private List<LoadProgressParams> loadProgress;
+  private List<DocumentSavedParams> documentSaves;
+  // called with each load progress notification, e.g. to make requests while loading
+  private Consumer<LoadProgressParams> loadProgressHandler = progress -> {};
 
   @BeforeEach
   void setUp() throws Exception {
-    tsp = new EmfEditTspServer();
+    server = new EmfEditTspServer();
+    documentEdits = new CopyOnWriteArrayList<>();
+    loadProgress = new ArrayList<>();
+    documentSaves = new CopyOnWriteArrayList<>();
+    server.setDocumentClient(new DocumentClientProtocol() {
+      @Override
+      public void documentEdited(DocumentEditedParams params) {
+        documentEdits.add(params);
+      }
+
+      @Override
+      public void loadProgress(LoadProgressParams params) {
+        loadProgress.add(params);
+        loadProgressHandler.accept(params);
+      }
+
+      @Override
+      public void documentSaved(DocumentSavedParams params) {
+        documentSaves.add(params);
+      }
+    });
+    tsp = server;
     var documentUri = getClass().getResource("/models/Tournament.ecore").toString();
     openDocumentParams = new OpenDocumentParams(documentUri);
     tsp.openDocument(openDocumentParams).get(5, TimeUnit.SECONDS);
@@ -98,6 +188,167 @@ class EmfEditTspServerTest {
     assertEquals(8, children.length, "EPackage tournament should have 8 children");
   }
 
+  @Test
+  void testGetChildrenPageAndChildCounts() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    assertEquals(8, root.childCount());
+    assertTrue(root.children() == null, "Unexpanded node should not include children");
+
+    var allChildren = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0)));
+    var page = get(tsp.getChildrenPage(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0, 2, 3)));
+    assertEquals(2, page.offset());
+    assertEquals(8, page.totalCount());
+    assertEquals(3, page.children().length);
+    for (int i = 0; i < page.children().length; i++) {
+      assertEquals(allChildren[i + 2].id(), page.children()[i].id());
+    }
+
+    var lastPage = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0, 6, 3)));
+    assertEquals(2, lastPage.length);
+
+    var expanded = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 1, 0, 0)));
+    for (var child : expanded) {
+      assertNotNull(child.children());
+      assertEquals(child.childCount(), child.children().length);
+    }
+  }
+
+  @Test
+  void testGetChildrenBatchSharesStringsAndReportsMissingNodes() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var documentUri = openDocumentParams.documentUri();
+    var children = get(tsp.getChildren(new GetChildrenParams(documentUri, root.id(), 0)));
+    var parent = java.util.Arrays.stream(children).filter(TreeNode::hasChildren).findFirst().orElseThrow();
+
+    var batch = get(tsp.getChildrenBatch(new GetChildrenBatchParams(documentUri, List.of(
+        new ChildrenRequest(root.id(), 1, 0, 0),
+        new ChildrenRequest("#unknown", 0, 0, 0),
+        new ChildrenRequest(parent.id(), 0, 1, 2)))));
+    assertEquals(3, batch.results().length);
+
+    var rootResult = batch.results()[0];
+    assertEquals(root.id(), rootResult.treeNodeId());
+    assertEquals(8, rootResult.totalCount());
+    assertEquals(children.length, rootResult.children().length);
+    for (int i = 0; i < children.length; i++) {
+      var node = rootResult.children()[i];
+      assertEquals(children[i].id(), node.id());
+      assertEquals(children[i].type(), batch.strings()[node.type()]);
+      assertEquals(children[i].semanticType(), batch.strings()[node.semanticType()]);
+      assertEquals(children[i].label(), batch.labels()[node.label()]);
+      assertEquals(children[i].childCount(), node.children().length);
+    }
+    assertEquals(Set.of(batch.strings()).size(), batch.strings().length, "Strings should be shared");
+    assertEquals(Set.of(batch.labels()).size(), batch.labels().length, "Labels should be shared");
+
+    var missing = batch.results()[1];
+    assertNotNull(missing.error());
+    assertTrue(missing.children() == null);
+
+    var pageResult = batch.results()[2];
+    assertEquals(parent.childCount(), pageResult.totalCount());
+    assertEquals(Math.min(2, parent.childCount() - 1), pageResult.children().length);
+  }
+
+  @Test
+  void testGetChildrenColumnsMatchesNestedNodes() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var documentUri = openDocumentParams.documentUri();
+    var nested = get(tsp.getChildren(new GetChildrenParams(documentUri, root.id(), 1)));
+    var columns = get(tsp.getChildrenColumns(new GetChildrenParams(documentUri, root.id(), 1)));
+
+    // the nested nodes in depth-first order, with the index of their parent
+    var nodes = new ArrayList<TreeNode>();
+    var parents = new ArrayList<Integer>();
+    for (var child : nested) {
+      int parent = nodes.size();
+      nodes.add(child);
+      parents.add(-1);
+      for (var grandChild : child.children()) {
+        nodes.add(grandChild);
+        parents.add(parent);
+      }
+    }
+    assertEquals(nodes.size(), columns.size());
+    for (int i = 0; i < nodes.size(); i++) {
+      var node = nodes.get(i);
+      assertEquals(parents.get(i), columns.parents()[i]);
+      assertEquals(node.id(), columns.ids()[i]);
+      assertEquals(node.type(), columns.strings()[columns.types()[i]]);
+      assertEquals(node.semanticType(), columns.strings()[columns.semanticTypes()[i]]);
+      assertEquals(node.label().text(), columns.texts()[i]);
+      assertEquals(node.label().imageUri(), columns.images()[i] < 0 ? null : columns.strings()[columns.images()[i]]);
+      assertEquals(node.childCount(), columns.childCounts()[i]);
+    }
+    assertTrue(columns.descriptions() == null, "No node has a description");
+    assertEquals(Set.of(columns.strings()).size(), columns.strings().length, "Strings should be shared");
+
+    // pages apply to the requested node, and limits to nested nodes too, as for getChildren
+    var page = get(tsp.getChildrenColumns(new GetChildrenParams(documentUri, root.id(), 1, 1, 2)));
+    var nestedPage = get(tsp.getChildren(new GetChildrenParams(documentUri, root.id(), 1, 1, 2)));
+    assertEquals(TspEvents.nodeCount(nestedPage), page.size());
+    assertEquals(nestedPage[0].id(), page.ids()[0]);
+  }
+
+  @Test
+  void testObjectIdsAreStableAcrossSiblingInsertion() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var children = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0)));
+    var lastChild = children[children.length - 1];
+
+    var menu = get(tsp.getCommandMenu(new GetCommandMenuParams(openDocumentParams.documentUri(), root.id())));
+    var createCommand = commandsOfKind(menu, "new|").stream()
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Expected at least one create command"));
+    get(tsp.doCommand(new DoCommandParams(openDocumentParams.documentUri(), root.id(), createCommand.id())));
+
+    var updatedChildren = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0)));
+    assertTrue(java.util.Arrays.stream(updatedChildren).anyMatch(child -> child.id().equals(lastChild.id())),
+        "Existing node should keep its id when a sibling is inserted");
+    var lastChildForm = get(tsp.getTreeNodeForm(new GetTreeNodeFormParams(openDocumentParams.documentUri(), lastChild.id())));
+    assertTrue(!lastChildForm.items().isEmpty(), "Existing node should still be resolvable by its id");
+  }
+
+  @Test
+  void testLabelCacheHitsAndInvalidation() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var labelCache = server.getLabelCache(server.getResource(openDocumentParams.documentUri()));
+
+    get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0)));
+    var firstStats = labelCache.stats();
+    get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0)));
+    var secondStats = labelCache.stats();
+    assertEquals(firstStats.misses(), secondStats.misses(), "Unchanged labels should not be computed again");
+    assertEquals(firstStats.hits() + 8, secondStats.hits());
+
+    get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(openDocumentParams.documentUri(), root.id(),
+        List.of(new Property("name").withValue("ecore:EString", "renamed")))));
+    assertTrue(labelCache.stats().invalidations() > 0, "Renaming should invalidate the label");
+    var rootNodes = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), null, 0)));
+    assertEquals(Label.ofText("renamed"), rootNodes[0].label());
+  }
+
+  @Test
+  void testLabelsShowingRenamedObjectsAreInvalidated() throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    var resource = server.getResource(documentUri);
+    var ids = get(server.inDocumentLane(openDocumentParams, () -> List.of(
+        server.objectId(resource.getEObject("//Tournament")),
+        server.objectId(resource.getEObject("//Group")))));
+    var featuresParams = new GetChildrenParams(documentUri, ids.get(0), 0);
+    var groupsLabel = Arrays.stream(get(tsp.getChildren(featuresParams)))
+        .map(node -> node.label().text())
+        .filter(text -> text.startsWith("groups"))
+        .findFirst().orElseThrow();
+    assertTrue(groupsLabel.endsWith("Group"), groupsLabel);
+
+    // the label of the reference shows the name of its type
+    get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, ids.get(1),
+        List.of(new Property("name").withValue("ecore:EString", "Pool")))));
+    var labels = Arrays.stream(get(tsp.getChildren(featuresParams))).map(node -> node.label().text()).toList();
+    assertTrue(labels.contains(groupsLabel.replace("Group", "Pool")), labels.toString());
+  }
+
   @Test
   void testOpenResourceAndGetEPackageForm() throws Exception {
     TreeNode root = checkEPackageRootNode();
@@ -113,6 +364,166 @@ class EmfEditTspServerTest {
     }
   }
 
+  @Test
+  void testFormSchemaIsCachedPerClassAndValuesCanBeRefreshed() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var treeFormParams = new GetTreeNodeFormParams(openDocumentParams.documentUri(), root.id());
+    var form = get(tsp.getTreeNodeForm(treeFormParams));
+    assertNotNull(form.schemaId());
+    assertEquals(form.schemaId(), get(tsp.getTreeNodeForm(treeFormParams)).schemaId());
+    var stats = server.getFormSchemaCache().stats();
+    assertEquals(1, stats.misses());
+    assertEquals(1, stats.hits());
+
+    var values = get(tsp.getTreeNodeFormValues(treeFormParams));
+    assertEquals(form.schemaId(), values.schemaId());
+    assertEquals(form.items().stream().map(item -> item.property()).toList(), values.properties());
+
+    get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(openDocumentParams.documentUri(), root.id(),
+        List.of(new Property("nsPrefix").withValue("ecore:EString", "refreshed")))));
+    var refreshedValues = get(tsp.getTreeNodeFormValues(treeFormParams));
+    assertTrue(refreshedValues.properties().contains(new Property("nsPrefix").withValue("ecore:EString", "refreshed")));
+
+    // other classes have other schemas
+    var child = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0)))[0];
+    var childForm = get(tsp.getTreeNodeForm(new GetTreeNodeFormParams(openDocumentParams.documentUri(), child.id())));
+    assertTrue(!form.schemaId().equals(childForm.schemaId()));
+  }
+
+  @Test
+  void testFormItemsAreEditableDependingOnTheInstance(@TempDir Path dir) throws Exception {
+    var copy = Files.copy(Path.of(URI.create(openDocumentParams.documentUri())), dir.resolve("ReadOnly.ecore"));
+    var copyParams = new OpenDocumentParams(copy.toUri().toString());
+    get(tsp.openDocument(copyParams));
+    var copyResource = server.getResource(copyParams.documentUri());
+    ((AdapterFactoryEditingDomain) server.getEditingDomain(copyResource))
+        .setResourceToReadOnlyMap(new HashMap<>(Map.of(copyResource, true)));
+
+    var editable = new ArrayList<Boolean>();
+    for (var params : List.of(openDocumentParams, copyParams)) {
+      var root = get(tsp.getChildren(new GetChildrenParams(params.documentUri(), null, 0)))[0];
+      var form = get(tsp.getTreeNodeForm(new GetTreeNodeFormParams(params.documentUri(), root.id())));
+      editable.add(form.items().stream()
+          .filter(item -> "name".equals(item.property().name()))
+          .findFirst().orElseThrow()
+          .editable());
+    }
+    // the same schema, but not the same editability
+    assertEquals(1, server.getFormSchemaCache().stats().misses());
+    assertEquals(List.of(true, false), editable);
+  }
+
+  @Test
+  void testFormsLeaveOutPropertiesTheInstanceDoesNotHave(@TempDir Path dir) throws Exception {
+    // item providers of classes that only have the abstract property when they are abstract
+    var ecoreProviders = new EcoreItemProviderAdapterFactory() {
+      @Override
+      public Adapter createEClassAdapter() {
+        return new EClassItemProvider(this) {
+          @Override
+          public List<IItemPropertyDescriptor> getPropertyDescriptors(Object object) {
+            return super.getPropertyDescriptors(object).stream()
+                .filter(descriptor -> ((EClass) object).isAbstract()
+                    || descriptor.getFeature(object) != EcorePackage.Literals.ECLASS__ABSTRACT)
+                .toList();
+          }
+        };
+      }
+    };
+    try (var instanceServer = new EmfEditTspServer(new ServerCaches()) {
+      @Override
+      protected void registerProviders(ComposedAdapterFactory adapterFactory) {
+        adapterFactory.addAdapterFactory(ecoreProviders);
+        super.registerProviders(adapterFactory);
+      }
+    }) {
+      get(instanceServer.configure(new ConfigureParams(Map.of("tsp.label.images.dir", dir.toString()))));
+      var documentUri = openDocumentParams.documentUri();
+      get(instanceServer.openDocument(openDocumentParams));
+      var resource = instanceServer.getResource(documentUri);
+      var ids = get(instanceServer.inDocumentLane(openDocumentParams, () -> List.of(
+          instanceServer.objectId(resource.getEObject("//NamedElement")),
+          instanceServer.objectId(resource.getEObject("//Tournament")))));
+      assertTrue(((EClass) resource.getEObject("//NamedElement")).isAbstract());
+
+      // the schema is computed from the abstract class, and used for the other
+      var propertyNames = new ArrayList<List<String>>();
+      for (var id : ids) {
+        var params = new GetTreeNodeFormParams(documentUri, id);
+        var form = get(instanceServer.getTreeNodeForm(params));
+        propertyNames.add(form.items().stream().map(item -> item.property().name()).toList());
+        assertEquals(form.items().size(), get(instanceServer.getTreeNodeFormValues(params)).properties().size());
+      }
+      assertEquals(1, instanceServer.getFormSchemaCache().stats().misses());
+      assertTrue(propertyNames.get(0).contains("abstract"));
+      assertFalse(propertyNames.get(1).contains("abstract"));
+      var failed = assertThrows(ExecutionException.class, () -> get(instanceServer.getValueOptions(
+          new GetValueOptionsParams(documentUri, ids.get(1), "abstract", null, 0, 10))));
+      assertInstanceOf(IllegalArgumentException.class, failed.getCause());
+    }
+  }
+
+  @Test
+  void testValueOptionsArePagedFilteredAndCommittedById() throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    var reference = (EReference) server.getResource(documentUri).getEObject("//Tournament/groups");
+    var referenceId = get(server.inDocumentLane(openDocumentParams, () -> server.objectId(reference)));
+    var form = get(tsp.getTreeNodeForm(new GetTreeNodeFormParams(documentUri, referenceId)));
+    var eTypeItem = form.items().stream()
+        .filter(item -> "eType".equals(item.property().name()))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Missing eType property in form"));
+    assertTrue(eTypeItem.valueOptionCount() > 1);
+    assertNotNull(eTypeItem.property().value().id());
+
+    var allOptions = get(tsp.getValueOptions(new GetValueOptionsParams(documentUri, referenceId, "eType", null, 0, 0)));
+    assertEquals(eTypeItem.valueOptionCount(), allOptions.totalCount());
+    var page = get(tsp.getValueOptions(new GetValueOptionsParams(documentUri, referenceId, "eType", null, 1, 2)));
+    assertEquals(allOptions.options().subList(1, 3), page.options());
+    assertEquals(allOptions.totalCount(), page.totalCount());
+
+    var teamOptions = get(tsp.getValueOptions(new GetValueOptionsParams(documentUri, referenceId, "eType", "team", 0, 0)));
+    assertEquals(1, teamOptions.totalCount());
+    var teamOption = teamOptions.options().get(0);
+    get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, referenceId,
+        List.of(new Property("eType", teamOption)))));
+    assertEquals("Team", reference.getEType().getName());
+    var eTypeValue = get(tsp.getTreeNodeFormValues(new GetTreeNodeFormParams(documentUri, referenceId))).properties().stream()
+        .filter(property -> "eType".equals(property.name()))
+        .findFirst()
+        .orElseThrow();
+    assertEquals(teamOption.id(), eTypeValue.value().id());
+  }
+
+  @Test
+  void testFormCountsValueOptionsWithoutLabellingThem() throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    var resource = server.getResource(documentUri);
+    var reference = (EReference) resource.getEObject("//Tournament/groups");
+    var referenceId = get(server.inDocumentLane(openDocumentParams, () -> {
+      var ePackage = (EPackage) resource.getContents().get(0);
+      for (int i = 0; i < EmfEditTspServer.MAX_FORM_VALUE_OPTIONS; i++) {
+        var eClass = EcoreFactory.eINSTANCE.createEClass();
+        eClass.setName("Extra" + i);
+        ePackage.getEClassifiers().add(eClass);
+      }
+      return server.objectId(reference);
+    }));
+    var form = get(tsp.getTreeNodeForm(new GetTreeNodeFormParams(documentUri, referenceId)));
+    var eTypeItem = form.items().stream()
+        .filter(item -> "eType".equals(item.property().name()))
+        .findFirst()
+        .orElseThrow();
+    assertTrue(eTypeItem.valueOptionCount() > EmfEditTspServer.MAX_FORM_VALUE_OPTIONS);
+    assertNull(eTypeItem.valueOptions());
+    assertTrue(server.getValueOptionsCache(resource).keySet().stream().noneMatch(key -> key.endsWith("/eType")),
+        "The options that aren't included shouldn't be labelled");
+
+    var page = get(tsp.getValueOptions(new GetValueOptionsParams(documentUri, referenceId, "eType", null, 0, 10)));
+    assertEquals(eTypeItem.valueOptionCount(), page.totalCount());
+    assertEquals(10, page.options().size());
+  }
+
   @Test
   void testCommitEPackageNsPrefixUpdatesModelValue() throws Exception {
     TreeNode root = checkEPackageRootNode();
@@ -224,6 +635,388 @@ class EmfEditTspServerTest {
     assertTrue(updatedChildren.length > initialCount, "Expected create command to add a child node");
   }
 
+  @Test
+  void testCommandMenusAreCachedPerClassAndState() throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    var resource = server.getResource(documentUri);
+    var classIds = get(server.inDocumentLane(openDocumentParams, () -> List.of(
+        server.objectId(resource.getEObject("//Tournament")),
+        server.objectId(resource.getEObject("//Group")))));
+
+    var tournamentMenu = get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, classIds.get(0))));
+    var groupMenu = get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, classIds.get(1))));
+    assertEquals(commandsOfKind(tournamentMenu, "new|"), commandsOfKind(groupMenu, "new|"));
+    var stats = server.getCommandMenuCache().stats();
+    assertEquals(1, stats.misses());
+    assertEquals(1, stats.hits());
+
+    // executing the same command twice creates two children
+    var group = (EClass) resource.getEObject("//Group");
+    int featureCount = group.getEStructuralFeatures().size();
+    var createAttribute = commandsOfKind(groupMenu, "new|eStructuralFeatures|").stream()
+        .filter(command -> command.id().endsWith("#EAttribute"))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Expected a create command for attributes"));
+    get(tsp.doCommand(new DoCommandParams(documentUri, classIds.get(1), createAttribute.id())));
+    get(tsp.doCommand(new DoCommandParams(documentUri, classIds.get(1), createAttribute.id())));
+    assertEquals(featureCount + 2, group.getEStructuralFeatures().size());
+    assertTrue(group.getEStructuralFeatures().get(featureCount) != group.getEStructuralFeatures().get(featureCount + 1));
+  }
+
+  @Test
+  void testDoEditsIsOneUndoableEditAndAllOrNothing() throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    var resource = server.getResource(documentUri);
+    var tournament = (EClass) resource.getEObject("//Tournament");
+    var group = (EClass) resource.getEObject("//Group");
+    var ePackage = tournament.getEPackage();
+    var ids = get(server.inDocumentLane(openDocumentParams, () -> List.of(
+        server.objectId(tournament),
+        server.objectId(group),
+        server.objectId(resource.getEObject("//Match")),
+        server.objectId(resource.getEObject("//MatchKind")))));
+    var deleteCommandIds = new ArrayList<String>();
+    for (var id : ids.subList(2, 4)) {
+      var menu = get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, id)));
+      deleteCommandIds.add(commandsOfKind(menu, "delete|").get(0).id());
+    }
+    int classifierCount = ePackage.getEClassifiers().size();
+
+    var edited = get(tsp.doEdits(new DoEditsParams(documentUri, "Batch edit", List.of(
+        EditOperation.set(ids.get(0), "name", new Property.Value("ecore:EString", "Cup")),
+        EditOperation.set(ids.get(1), "name", new Property.Value("ecore:EString", "Pool")),
+        EditOperation.add(ids.get(1), "eSuperTypes", new Property.Value("ecore:EClass", "Cup").withId(ids.get(0)), 0),
+        EditOperation.doCommand(ids.get(2), deleteCommandIds.get(0)),
+        EditOperation.doCommand(ids.get(3), deleteCommandIds.get(1))))));
+    assertEquals("Cup", tournament.getName());
+    assertEquals("Pool", group.getName());
+    assertEquals(tournament, group.getESuperTypes().get(0));
+    assertEquals(classifierCount - 2, ePackage.getEClassifiers().size());
+    assertEquals(1, documentEdits.size(), "Expected one document/edited notification");
+    assertTrue(edited.affectedObjectIds().containsAll(ids.subList(0, 2)));
+
+    get(tsp.undoEdits(new UndoEditsParams(documentUri, 1)));
+    assertEquals("Tournament", tournament.getName());
+    assertEquals("Group", group.getName());
+    assertTrue(!group.getESuperTypes().contains(tournament));
+    assertEquals(classifierCount, ePackage.getEClassifiers().size());
+
+    // an operation that fails prevents all of them
+    assertThrows(Exception.class, () -> get(tsp.doEdits(new DoEditsParams(documentUri, null, List.of(
+        EditOperation.set(ids.get(0), "name", new Property.Value("ecore:EString", "Cup")),
+        EditOperation.remove(ids.get(1), "eSuperTypes", new Property.Value("ecore:EClass", "Cup").withId("#unknown")))))));
+    assertEquals("Tournament", tournament.getName());
+    assertEquals(2, documentEdits.size());
+  }
+
+  @Test
+  void testDoEditsSettingTheSameAttributeAgainIsNotMerged() throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    var resource = server.getResource(documentUri);
+    var tournament = (EClass) resource.getEObject("//Tournament");
+    var id = get(server.inDocumentLane(openDocumentParams, () -> server.objectId(tournament)));
+    var commandStack = (BoundedCommandStack) server.getCommandStack(resource);
+
+    // within the default merge window, but each batch is undone on its own
+    get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, id,
+        List.of(new Property("name").withValue("ecore:EString", "A")))));
+    for (var name : List.of("B", "C")) {
+      var edited = get(tsp.doEdits(new DoEditsParams(documentUri, null, List.of(
+          EditOperation.set(id, "name", new Property.Value("ecore:EString", name))))));
+      assertEquals(EditKind.NORMAL.name(), edited.kind());
+    }
+    assertEquals("C", tournament.getName());
+    assertEquals(3, commandStack.size());
+    assertEquals(0, commandStack.mergeCount());
+    get(tsp.undoEdits(new UndoEditsParams(documentUri, 1)));
+    assertEquals("B", tournament.getName());
+    get(tsp.undoEdits(new UndoEditsParams(documentUri, 1)));
+    assertEquals("A", tournament.getName());
+  }
+
+  @Test
+  void testEditsOnlyReferToObjectsOfLoadedResources(@TempDir Path dir) throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    var resource = server.getResource(documentUri);
+    var group = (EClass) resource.getEObject("//Group");
+    var id = get(server.inDocumentLane(openDocumentParams, () -> server.objectId(group)));
+    var otherFile = Files.copy(Path.of(URI.create(documentUri)), dir.resolve("Other.ecore"));
+    int resourceCount = resource.getResourceSet().getResources().size();
+    var superTypes = List.copyOf(group.getESuperTypes());
+
+    var failed = assertThrows(ExecutionException.class, () -> get(tsp.doEdits(new DoEditsParams(documentUri, null,
+        List.of(EditOperation.add(id, "eSuperTypes",
+            new Property.Value("ecore:EClass", "Tournament").withId(otherFile.toUri() + "#//Tournament"), 0))))));
+    assertInstanceOf(IllegalArgumentException.class, failed.getCause());
+    assertEquals(resourceCount, resource.getResourceSet().getResources().size());
+    assertEquals(superTypes, group.getESuperTypes());
+
+    get(tsp.doEdits(new DoEditsParams(documentUri, null, List.of(EditOperation.add(id, "eSuperTypes",
+        new Property.Value("ecore:EClass", "EObject").withId(EcorePackage.eNS_URI + "#//EObject"), 0)))));
+    assertEquals(EcorePackage.Literals.EOBJECT, group.getESuperTypes().get(0));
+  }
+
+  @Test
+  void testEditsAfterSavingAreNotMergedIntoTheSavedState(@TempDir Path dir) throws Exception {
+    get(tsp.configure(new ConfigureParams(Map.of("tsp.label.images.dir", dir.resolve("images").toString()))));
+    var modelFile = Files.copy(Path.of(URI.create(openDocumentParams.documentUri())), dir.resolve("Tournament.ecore"));
+    var documentUri = modelFile.toUri().toString();
+    get(tsp.openDocument(new OpenDocumentParams(documentUri)));
+    var resource = server.getResource(documentUri);
+    var commandStack = (BoundedCommandStack) server.getCommandStack(resource);
+    var root = get(tsp.getChildren(new GetChildrenParams(documentUri, null, 0)))[0];
+    documentEdits.clear();
+
+    // all within the default merge window
+    for (var nsPrefix : List.of("a", "ab", "abc")) {
+      get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, root.id(),
+          List.of(new Property("nsPrefix").withValue("ecore:EString", nsPrefix)))));
+      if (nsPrefix.equals("a")) {
+        get(tsp.saveDocument(new SaveDocumentParams(documentUri, null)));
+        assertFalse(commandStack.isSaveNeeded());
+      }
+    }
+    // the edit after saving is a new entry, so the client sees the document as changed
+    assertEquals(List.of("NORMAL", "NORMAL", "MERGED"), documentEdits.stream().map(DocumentEditedParams::kind).toList());
+    assertTrue(commandStack.isSaveNeeded());
+    get(tsp.undoEdits(new UndoEditsParams(documentUri, 1)));
+    assertEquals("a", ((EPackage) resource.getContents().get(0)).getNsPrefix());
+    assertFalse(commandStack.isSaveNeeded());
+  }
+
+  @Test
+  void testEditNotificationsAreOnePerOperationAndCoalesced(@TempDir Path imagesDir) throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    TreeNode root = checkEPackageRootNode();
+    var menu = get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, root.id())));
+    var createCommand = commandsOfKind(menu, "new|").get(0);
+    for (int i = 0; i < 3; i++) {
+      get(tsp.doCommand(new DoCommandParams(documentUri, root.id(), createCommand.id())));
+    }
+    assertEquals(3, documentEdits.size());
+
+    // undoing several edits gives one notification
+    var undone = get(tsp.undoEdits(new UndoEditsParams(documentUri, 3)));
+    assertEquals(4, documentEdits.size());
+    var undoEdited = documentEdits.get(3);
+    assertEquals(EditKind.UNDO.name(), undoEdited.kind());
+    assertEquals(3, undoEdited.deltas().stream().filter(delta -> delta.kind() == TreeNodeDelta.Kind.REMOVED).count());
+    assertEquals(undone.deltas(), undoEdited.deltas());
+
+    // each command within the window is notified on its own, since the client adds an undo entry for each,
+    // and replied edits aren't notified
+    get(tsp.configure(new ConfigureParams(Map.of(
+        "tsp.edit.notify.window.ms", "200",
+        "tsp.edit.notify.replied", "false",
+        "tsp.label.images.dir", imagesDir.toString()))));
+    documentEdits.clear();
+    get(tsp.doCommand(new DoCommandParams(documentUri, root.id(), createCommand.id())));
+    get(tsp.doCommand(new DoCommandParams(documentUri, root.id(), createCommand.id())));
+    for (int i = 0; i < 50 && documentEdits.size() < 2; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(List.of("NORMAL", "NORMAL"), documentEdits.stream().map(DocumentEditedParams::kind).toList());
+    var undoneAgain = get(tsp.undoEdits(new UndoEditsParams(documentUri, 2)));
+    assertEquals(2, undoneAgain.deltas().size());
+    Thread.sleep(300);
+    assertEquals(2, documentEdits.size(), "Undo is replied, so it shouldn't be notified");
+
+    // edits merged into the previous command, e.g. typing a value, are merged into its notification
+    documentEdits.clear();
+    for (var nsPrefix : List.of("a", "ab", "abc")) {
+      get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, root.id(),
+          List.of(new Property("nsPrefix").withValue("ecore:EString", nsPrefix)))));
+    }
+    assertTrue(documentEdits.isEmpty(), "Edits should wait for the window to close");
+    for (int i = 0; i < 50 && documentEdits.isEmpty(); i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(1, documentEdits.size());
+    assertEquals(EditKind.NORMAL.name(), documentEdits.get(0).kind());
+    assertEquals(3, documentEdits.get(0).deltas().size());
+  }
+
+  @Test
+  void testPendingEditNotificationsAreSentBeforeRepliedEdits(@TempDir Path imagesDir) throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    TreeNode root = checkEPackageRootNode();
+    var menu = get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, root.id())));
+    var createCommand = commandsOfKind(menu, "new|").get(0);
+    get(tsp.configure(new ConfigureParams(Map.of(
+        "tsp.edit.notify.window.ms", "60000",
+        "tsp.edit.notify.replied", "false",
+        "tsp.label.images.dir", imagesDir.toString()))));
+
+    get(tsp.doCommand(new DoCommandParams(documentUri, root.id(), createCommand.id())));
+    assertTrue(documentEdits.isEmpty(), "The edit should wait for the window to close");
+    // the reply's deltas are relative to the pending edit, so it must be notified before the reply
+    get(tsp.doEdits(new DoEditsParams(documentUri, null, List.of(
+        EditOperation.set(root.id(), "nsPrefix", new Property.Value("ecore:EString", "t"))))));
+    assertEquals(1, documentEdits.size());
+    assertEquals(TreeNodeDelta.Kind.INSERTED, documentEdits.get(0).deltas().get(0).kind());
+
+    get(tsp.doCommand(new DoCommandParams(documentUri, root.id(), createCommand.id())));
+    get(tsp.undoEdits(new UndoEditsParams(documentUri, 1)));
+    assertEquals(2, documentEdits.size(), "The pending edit should be notified before the undo is replied");
+  }
+
+  @Test
+  void testUndoHistoryIsBoundedAndMergesAttributeSets(@TempDir Path imagesDir) throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    get(tsp.configure(new ConfigureParams(Map.of(
+        "tsp.undo.limit", "3",
+        "tsp.undo.merge.window.ms", "60000",
+        "tsp.label.images.dir", imagesDir.toString()))));
+    var documentUri = openDocumentParams.documentUri();
+    var resource = server.getResource(documentUri);
+    var commandStack = (BoundedCommandStack) server.getCommandStack(resource);
+    var ePackage = (EPackage) resource.getContents().get(0);
+    var originalNsPrefix = ePackage.getNsPrefix();
+
+    // typing a value, one commit per keystroke, is one entry
+    for (var nsPrefix : List.of("a", "ab", "abc")) {
+      get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, root.id(),
+          List.of(new Property("nsPrefix").withValue("ecore:EString", nsPrefix)))));
+    }
+    assertEquals(1, commandStack.size());
+    assertEquals(2, commandStack.mergeCount());
+    assertEquals(List.of("NORMAL", "MERGED", "MERGED"), documentEdits.stream().map(DocumentEditedParams::kind).toList());
+    get(tsp.undoEdits(new UndoEditsParams(documentUri, 1)));
+    assertEquals(originalNsPrefix, ePackage.getNsPrefix());
+    get(tsp.redoEdits(new RedoEditsParams(documentUri, 1)));
+    assertEquals("abc", ePackage.getNsPrefix());
+
+    // a different attribute is a new entry
+    get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, root.id(),
+        List.of(new Property("name").withValue("ecore:EString", "renamed")))));
+    assertEquals(2, commandStack.size());
+
+    // the oldest entries are dropped
+    var menu = get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, root.id())));
+    var createCommand = commandsOfKind(menu, "new|").get(0);
+    for (int i = 0; i < 3; i++) {
+      get(tsp.doCommand(new DoCommandParams(documentUri, root.id(), createCommand.id())));
+    }
+    assertEquals(3, commandStack.size());
+    get(tsp.undoEdits(new UndoEditsParams(documentUri, 10)));
+    assertEquals("renamed", ePackage.getName(), "The rename should have been dropped from the history");
+
+    // deleted subtrees count towards the retained size
+    var tournament = (EClass) resource.getEObject("//Tournament");
+    var deleteMenu = get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, server.objectId(tournament))));
+    get(tsp.doCommand(new DoCommandParams(documentUri, server.objectId(tournament),
+        commandsOfKind(deleteMenu, "delete|").get(0).id())));
+    assertTrue(commandStack.retainedBytes()
+        >= BoundedCommandStack.COMMAND_BYTES + (1 + tournament.eContents().size()) * BoundedCommandStack.OBJECT_BYTES);
+  }
+
+  @Test
+  void testGetMetricsReportsMethodsDocumentsAndCaches(@TempDir Path dir) throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var documentUri = openDocumentParams.documentUri();
+    var messageMetrics = server.getMessageMetrics();
+    // as recorded by the launcher
+    for (int i = 0; i < 10; i++) {
+      messageMetrics.requestReceived(String.valueOf(i), "tree/getChildren", 100);
+      messageMetrics.responseSent(String.valueOf(i), i == 9, 1000);
+    }
+    messageMetrics.notificationSent("document/edited", 50);
+
+    var menu = get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, root.id())));
+    get(tsp.doCommand(new DoCommandParams(documentUri, root.id(), commandsOfKind(menu, "new|").get(0).id())));
+    get(tsp.undoEdits(new UndoEditsParams(documentUri, 1)));
+    var savedUri = dir.resolve("Saved.ecore").toUri().toString();
+    get(tsp.saveDocument(new SaveDocumentParams(documentUri, new NewUriOptions(savedUri, false))));
+
+    var metrics = get(tsp.getMetrics(new GetMetricsParams(true)));
+    var getChildren = metrics.methods().stream()
+        .filter(method -> method.method().equals("tree/getChildren"))
+        .findFirst().orElseThrow();
+    assertEquals("request", getChildren.kind());
+    assertEquals(10, getChildren.count());
+    assertEquals(1, getChildren.errorCount());
+    assertEquals(1000, getChildren.requestBytes());
+    assertEquals(10000, getChildren.responseBytes());
+    assertTrue(getChildren.p50Millis() <= getChildren.p99Millis() && getChildren.p99Millis() <= getChildren.maxMillis());
+    assertTrue(metrics.methods().stream()
+        .anyMatch(method -> method.method().equals("document/edited") && method.kind().equals("sent notification")));
+
+    assertEquals(1, metrics.documents().size());
+    var document = metrics.documents().get(0);
+    assertEquals(documentUri, document.documentUri());
+    var resource = server.getResource(documentUri);
+    int objectCount = 0;
+    for (var contents = resource.getAllContents(); contents.hasNext(); contents.next()) {
+      objectCount++;
+    }
+    assertEquals(objectCount, document.objectCount());
+    assertEquals(0, document.undoCount());
+    assertEquals(1, document.redoCount());
+    assertEquals(documentSaves.get(0).byteCount(), document.savedBytes());
+    assertTrue(document.saveMillis() >= 0);
+
+    assertTrue(metrics.caches().get("labels").get("misses").longValue() > 0);
+    assertEquals(1L, metrics.caches().get("commandMenus").get("misses"));
+    assertEquals(0, metrics.caches().get("sharedResources").get("size"));
+
+    // reset starts the method metrics over
+    assertTrue(get(tsp.getMetrics(new GetMetricsParams(false))).methods().isEmpty());
+  }
+
+  @Test
+  void testOperationsAreRecordedAsFlightRecorderEvents(@TempDir Path dir) throws Exception {
+    var documentUri = openDocumentParams.documentUri();
+    var recordingFile = dir.resolve("tsp.jfr");
+    TreeNode root;
+    try (var recording = new Recording(Configuration.create(Path.of("src/main/jfr/tsp.jfc")))) {
+      recording.start();
+      get(tsp.closeDocument(new CloseDocumentParams(documentUri)));
+      get(tsp.openDocument(openDocumentParams));
+      root = checkEPackageRootNode();
+      get(tsp.getChildren(new GetChildrenParams(documentUri, root.id(), 1, 0, 0)));
+      get(tsp.getTreeNodeForm(new GetTreeNodeFormParams(documentUri, root.id())));
+      get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, root.id(),
+          List.of(new Property("nsPrefix").withValue("ecore:EString", "recorded")))));
+      get(tsp.getCommandMenu(new GetCommandMenuParams(documentUri, root.id())));
+      get(tsp.undoEdits(new UndoEditsParams(documentUri, 1)));
+      get(tsp.saveDocument(new SaveDocumentParams(documentUri,
+          new NewUriOptions(dir.resolve("Saved.ecore").toUri().toString(), false))));
+      recording.stop();
+      recording.dump(recordingFile);
+    }
+    var events = RecordingFile.readAllEvents(recordingFile).stream()
+        .filter(event -> event.getEventType().getName().startsWith(TspEvents.PREFIX))
+        .toList();
+    var eventNames = events.stream()
+        .map(event -> event.getEventType().getName().substring(TspEvents.PREFIX.length()))
+        .collect(Collectors.toSet());
+    // labels are only recorded when slow
+    assertTrue(eventNames.containsAll(Set.of("DocumentLoad", "GetChildren", "GetTreeNodeForm", "CommitTreeNodeForm",
+        "GetCommandMenu", "UndoRedo", "DocumentSave")), eventNames.toString());
+    for (var event : events) {
+      assertEquals(documentUri, event.getString("documentUri"), event.toString());
+    }
+    var getChildren = events.stream()
+        .filter(event -> event.getEventType().getName().endsWith("GetChildren") && event.getInt("depth") == 1)
+        .findFirst().orElseThrow();
+    var children = get(tsp.getChildren(new GetChildrenParams(documentUri, root.id(), 1, 0, 0)));
+    assertEquals(TspEvents.nodeCount(children), getChildren.getInt("resultSize"));
+    var load = events.stream().filter(event -> event.getEventType().getName().endsWith("DocumentLoad")).findFirst().orElseThrow();
+    assertTrue(load.getInt("resultSize") > 1);
+    assertEquals(1, events.stream().filter(event -> event.getEventType().getName().endsWith("UndoRedo"))
+        .findFirst().orElseThrow().getInt("resultSize"));
+
+    // not recorded with the JDK's settings
+    try (var recording = new Recording(Configuration.getConfiguration("default"))) {
+      recording.start();
+      get(tsp.getChildren(new GetChildrenParams(documentUri, root.id(), 1, 0, 0)));
+      recording.stop();
+      recording.dump(recordingFile);
+    }
+    assertTrue(RecordingFile.readAllEvents(recordingFile).stream()
+        .noneMatch(event -> event.getEventType().getName().startsWith(TspEvents.PREFIX)));
+  }
+
   @Test
   void testUndoAfterCreateCommandRestoresChildCount() throws Exception {
     TreeNode root = checkEPackageRootNode();
@@ -266,4 +1059,428 @@ class EmfEditTspServerTest {
     int restoredCount = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0))).length;
     assertEquals(initialCount, restoredCount, "Undo should restore deleted child node");
   }
+
+  @Test
+  void testCreateCommandNotifiesInsertedDelta() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var menu = get(tsp.getCommandMenu(new GetCommandMenuParams(openDocumentParams.documentUri(), root.id())));
+    var createCommand = commandsOfKind(menu, "new|").stream()
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Expected at least one create command"));
+
+    get(tsp.doCommand(new DoCommandParams(openDocumentParams.documentUri(), root.id(), createCommand.id())));
+    assertEquals(1, documentEdits.size(), "Expected one document/edited notification");
+    var inserted = documentEdits.get(0).deltas().stream()
+        .filter(delta -> delta.kind() == TreeNodeDelta.Kind.INSERTED)
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Expected an inserted delta"));
+    assertEquals(root.id(), inserted.parentId());
+
+    var children = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0)));
+    assertEquals(children[inserted.index()].id(), inserted.treeNode().id());
+    assertEquals(children[inserted.index()].label(), inserted.treeNode().label());
+  }
+
+  @Test
+  void testDeleteAndUndoRecordRemovedAndInsertedDeltas() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var children = get(tsp.getChildren(new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0)));
+    var childToDelete = children[0];
+
+    var menu = get(tsp.getCommandMenu(new GetCommandMenuParams(openDocumentParams.documentUri(), childToDelete.id())));
+    var deleteCommand = commandsOfKind(menu, "delete|").stream()
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Expected delete command"));
+    get(tsp.doCommand(new DoCommandParams(openDocumentParams.documentUri(), childToDelete.id(), deleteCommand.id())));
+
+    var removed = documentEdits.get(0).deltas().stream()
+        .filter(delta -> delta.kind() == TreeNodeDelta.Kind.REMOVED)
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Expected a removed delta"));
+    assertEquals(root.id(), removed.parentId());
+    assertEquals(childToDelete.id(), removed.treeNodeId());
+    assertEquals(0, removed.index());
+
+    var undoResult = get(tsp.undoEdits(new UndoEditsParams(openDocumentParams.documentUri(), 1)));
+    var inserted = undoResult.deltas().stream()
+        .filter(delta -> delta.kind() == TreeNodeDelta.Kind.INSERTED)
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Expected undo to record an inserted delta"));
+    assertEquals(root.id(), inserted.parentId());
+    assertEquals(0, inserted.index());
+    assertEquals(childToDelete.id(), inserted.treeNode().id());
+    assertEquals(undoResult.deltas(), documentEdits.get(1).deltas());
+  }
+
+  @Test
+  void testChildInsertedAndRemovedByOneCommandHasBothDeltas() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var documentUri = openDocumentParams.documentUri();
+    var resource = server.getResource(documentUri);
+    var ePackage = (EPackage) resource.getContents().get(0);
+    var childIds = new ArrayList<>(Arrays.stream(get(tsp.getChildren(new GetChildrenParams(documentUri, root.id(), 0))))
+        .map(TreeNode::id)
+        .toList());
+
+    // the second child is inserted after the first, which is then removed, so its index counts the first
+    var edited = get(server.inDocumentLane(openDocumentParams, () -> {
+      var domain = server.getEditingDomain(resource);
+      var eClassifiers = EcorePackage.Literals.EPACKAGE__ECLASSIFIERS;
+      var first = EcoreFactory.eINSTANCE.createEClass();
+      var command = new StrictCompoundCommand();
+      command.append(AddCommand.create(domain, ePackage, eClassifiers, first, 0));
+      command.append(AddCommand.create(domain, ePackage, eClassifiers, EcoreFactory.eINSTANCE.createEClass(), 1));
+      command.append(RemoveCommand.create(domain, ePackage, eClassifiers, first));
+      return server.doCommand(command, resource);
+    }));
+    assertEquals(List.of(TreeNodeDelta.Kind.INSERTED, TreeNodeDelta.Kind.INSERTED, TreeNodeDelta.Kind.REMOVED),
+        edited.deltas().stream().map(TreeNodeDelta::kind).toList());
+    for (var delta : edited.deltas()) {
+      if (delta.kind() == TreeNodeDelta.Kind.INSERTED) {
+        childIds.add(delta.index(), delta.treeNode().id());
+      } else {
+        assertEquals(delta.treeNodeId(), childIds.remove(delta.index()));
+      }
+    }
+    assertEquals(Arrays.stream(get(tsp.getChildren(new GetChildrenParams(documentUri, root.id(), 0))))
+        .map(TreeNode::id)
+        .toList(), childIds);
+  }
+
+  @Test
+  void testCommitFormRecordsChangedDelta() throws Exception {
+    TreeNode root = checkEPackageRootNode();
+    var commitParams = new CommitTreeNodeFormParams(
+        openDocumentParams.documentUri(),
+        root.id(),
+        List.of(new Property("name").withValue("ecore:EString", "renamed"))
+    );
+    get(tsp.commitTreeNodeForm(commitParams));
+
+    var changed = documentEdits.get(0).deltas().stream()
+        .filter(delta -> delta.kind() == TreeNodeDelta.Kind.CHANGED)
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("Expected a changed delta"));
+    assertEquals(Label.ofText("renamed"), changed.treeNode().label());
+  }
+
+  @Test
+  void testLabelImagesAreWrittenOnceAndIndexed(@TempDir Path imagesDir) throws Exception {
+    get(tsp.configure(new ConfigureParams(Map.of("tsp.label.images.dir", imagesDir.toString()))));
+    var rootParams = new GetChildrenParams(openDocumentParams.documentUri(), null, 0);
+    TreeNode root = get(tsp.getChildren(rootParams))[0];
+    var childrenParams = new GetChildrenParams(openDocumentParams.documentUri(), root.id(), 0);
+    TreeNode[] children = get(tsp.getChildren(childrenParams));
+    String imageUri = children[0].label().imageUri();
+    assertNotNull(imageUri);
+    var imageFile = Path.of(URI.create(imageUri));
+    var lastModified = Files.getLastModifiedTime(imageFile);
+    assertTrue(Files.exists(imagesDir.resolve(ImageSupport.IMAGE_INDEX_FILE_NAME)));
+
+    // a new image support, e.g. after a restart, resolves the images in the index up front
+    var imageSupport = new ImageSupport(new ImageSupport.Options(imagesDir, null));
+    assertTrue(imageSupport.getImageUris().containsValue(imageUri));
+    var eObject = server.objectForId(children[0].id(), server.getResource(openDocumentParams.documentUri()));
+    var image = server.adapt(eObject, IItemLabelProvider.class).getImage(eObject);
+    assertEquals(imageUri, imageSupport.imageUriFor(image, eObject));
+    assertEquals(lastModified, Files.getLastModifiedTime(imageFile));
+  }
+
+  @Test
+  void testDocumentLanesRunInOrderAndInParallel() throws Exception {
+    try (var scheduler = new DocumentScheduler()) {
+      var blocker = new CountDownLatch(1);
+      var order = new CopyOnWriteArrayList<String>();
+      var first = scheduler.schedule("a", () -> {
+        try {
+          blocker.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        order.add("a1");
+        return "a1";
+      });
+      var second = scheduler.schedule("a", () -> {
+        order.add("a2");
+        return "a2";
+      });
+      // another document is not blocked by the first
+      assertEquals("b1", get(scheduler.schedule("b", () -> "b1")));
+      assertTrue(!first.isDone() && !second.isDone());
+      blocker.countDown();
+      assertEquals("a2", get(second));
+      assertEquals(List.of("a1", "a2"), order);
+    }
+  }
+
+  @Test
+  void testOpenDocumentReportsProgressAndListsRootsWhileLoading() throws Exception {
+    var lastProgress = loadProgress.get(loadProgress.size() - 1);
+    assertTrue(lastProgress.done());
+    assertEquals(1, lastProgress.rootCount());
+    assertTrue(lastProgress.loadedBytes() > 0);
+    assertEquals(lastProgress.totalBytes(), lastProgress.loadedBytes());
+
+    get(tsp.closeDocument(new CloseDocumentParams(openDocumentParams.documentUri())));
+    var rootsWhileLoading = new ArrayList<TreeNode[]>();
+    loadProgressHandler = progress -> {
+      if (!progress.done() && progress.rootCount() > 0 && rootsWhileLoading.isEmpty()) {
+        var rootParams = new GetChildrenParams(openDocumentParams.documentUri(), null, 0);
+        rootsWhileLoading.add(tsp.getChildren(rootParams).getNow(null));
+      }
+    };
+    get(tsp.openDocument(openDocumentParams));
+
+    // the root is listed while loading, with a provisional label and unknown child count
+    TreeNode provisionalRoot = rootsWhileLoading.get(0)[0];
+    assertEquals("ecore:EPackage", provisionalRoot.semanticType());
+    assertEquals(Label.ofText("EPackage"), provisionalRoot.label());
+    assertEquals(-1, provisionalRoot.childCount());
+    // and keeps its id when loading is finished
+    TreeNode root = checkEPackageRootNode();
+    assertEquals(provisionalRoot.id(), root.id());
+  }
+
+  @Test
+  void testBinaryLoadCacheIsUsedForUnchangedDocuments(@TempDir Path dir) throws Exception {
+    var cacheDir = dir.resolve("cache");
+    get(tsp.configure(new ConfigureParams(Map.of(
+        "tsp.load.cache.dir", cacheDir.toString(),
+        "tsp.label.images.dir", dir.resolve("images").toString()))));
+    var modelFile = dir.resolve("Tournament.ecore");
+    Files.copy(Path.of(URI.create(openDocumentParams.documentUri())), modelFile);
+    var modelParams = new OpenDocumentParams(modelFile.toUri().toString());
+    var rootParams = new GetChildrenParams(modelParams.documentUri(), null, 1);
+
+    get(tsp.openDocument(modelParams));
+    TreeNode[] sourceRoots = get(tsp.getChildren(rootParams));
+    get(tsp.closeDocument(new CloseDocumentParams(modelParams.documentUri())));
+    get(tsp.openDocument(modelParams));
+    TreeNode[] cachedRoots = get(tsp.getChildren(rootParams));
+    get(tsp.closeDocument(new CloseDocumentParams(modelParams.documentUri())));
+
+    var stats = server.getLoadCache().stats();
+    assertEquals(1, stats.misses());
+    assertEquals(1, stats.hits());
+    assertEquals(sourceRoots[0].label(), cachedRoots[0].label());
+    assertEquals(sourceRoots[0].children().length, cachedRoots[0].children().length);
+
+    // a changed document is loaded from its source
+    Files.writeString(modelFile, Files.readString(modelFile) + "\n");
+    get(tsp.openDocument(modelParams));
+    assertEquals(2, server.getLoadCache().stats().misses());
+  }
+
+  @Test
+  void testDocumentLoadedFromTheCacheIsSavedAsItWasRead(@TempDir Path dir) throws Exception {
+    get(tsp.configure(new ConfigureParams(Map.of(
+        "tsp.load.cache.dir", dir.resolve("cache").toString(),
+        "tsp.label.images.dir", dir.resolve("images").toString()))));
+    var modelFile = Files.copy(Path.of(URI.create(openDocumentParams.documentUri())), dir.resolve("Tournament.ecore"));
+    var documentUri = modelFile.toUri().toString();
+    get(tsp.openDocument(new OpenDocumentParams(documentUri)));
+    var root = get(tsp.getChildren(new GetChildrenParams(documentUri, null, 0)))[0];
+    get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(documentUri, root.id(),
+        List.of(new Property("nsPrefix").withValue("ecore:EString", "turnering-\u00f8")))));
+    get(tsp.saveDocument(new SaveDocumentParams(documentUri, null)));
+    get(tsp.closeDocument(new CloseDocumentParams(documentUri)));
+    var content = Files.readAllBytes(modelFile);
+
+    // loaded from the source and stored in the cache, then loaded from the cache
+    for (int i = 0; i < 2; i++) {
+      get(tsp.openDocument(new OpenDocumentParams(documentUri)));
+      get(tsp.saveDocument(new SaveDocumentParams(documentUri, null)));
+      get(tsp.closeDocument(new CloseDocumentParams(documentUri)));
+      assertFalse(documentSaves.get(documentSaves.size() - 1).written());
+      assertArrayEquals(content, Files.readAllBytes(modelFile));
+    }
+    assertEquals(1, server.getLoadCache().stats().hits());
+  }
+
+  @Test
+  void testLoadProfiles(@TempDir Path imagesDir) throws Exception {
+    var rootParams = new GetChildrenParams(openDocumentParams.documentUri(), null, 1);
+    for (var profile : List.of("fast", "bulk")) {
+      get(tsp.closeDocument(new CloseDocumentParams(openDocumentParams.documentUri())));
+      get(tsp.configure(new ConfigureParams(Map.of(
+          "tsp.load.profile", profile,
+          "tsp.label.images.dir", imagesDir.toString()))));
+      get(tsp.openDocument(openDocumentParams));
+      TreeNode root = get(tsp.getChildren(rootParams))[0];
+      assertEquals("tournament", root.label().text());
+      assertEquals(8, root.children().length);
+    }
+    assertThrows(IllegalArgumentException.class,
+        () -> tsp.configure(new ConfigureParams(Map.of("tsp.load.profile", "fastest"))));
+    // invalid settings leave the current ones in effect
+    for (var invalid : List.of("many", "-1", "4294967296")) {
+      assertThrows(IllegalArgumentException.class,
+          () -> tsp.configure(new ConfigureParams(Map.of("tsp.undo.limit", invalid))));
+      assertEquals("bulk", server.setting("tsp.load.profile", null));
+    }
+  }
+
+  @Test
+  void testSaveDocumentWritesOnlyChangedContentAtomically(@TempDir Path dir) throws Exception {
+    get(tsp.configure(new ConfigureParams(Map.of("tsp.label.images.dir", dir.resolve("images").toString()))));
+    var modelDir = Files.createDirectories(dir.resolve("models"));
+    var modelFile = modelDir.resolve("Tournament.ecore");
+    Files.copy(Path.of(URI.create(openDocumentParams.documentUri())), modelFile);
+    var modelUri = modelFile.toUri().toString();
+    get(tsp.openDocument(new OpenDocumentParams(modelUri)));
+
+    // normalizes the content, if needed, then nothing more is written
+    get(tsp.saveDocument(new SaveDocumentParams(modelUri, null)));
+    var content = Files.readString(modelFile);
+    get(tsp.saveDocument(new SaveDocumentParams(modelUri, null)));
+    var unchanged = documentSaves.get(documentSaves.size() - 1);
+    assertEquals(false, unchanged.written());
+    assertEquals(modelUri, unchanged.documentUri());
+    assertEquals(content.getBytes().length, unchanged.byteCount());
+
+    var root = get(tsp.getChildren(new GetChildrenParams(modelUri, null, 0)))[0];
+    get(tsp.commitTreeNodeForm(new CommitTreeNodeFormParams(modelUri, root.id(),
+        List.of(new Property("nsPrefix").withValue("ecore:EString", "saved")))));
+    get(tsp.saveDocument(new SaveDocumentParams(modelUri, null)));
+    assertTrue(documentSaves.get(documentSaves.size() - 1).written());
+    assertTrue(Files.readString(modelFile).contains("nsPrefix=\"saved\""));
+
+    // save a copy, and then save as, which continues editing the new document
+    var copyUri = modelDir.resolve("Copy.ecore").toUri().toString();
+    get(tsp.saveDocument(new SaveDocumentParams(modelUri, new NewUriOptions(copyUri, false))));
+    assertEquals(Files.readString(modelFile), Files.readString(modelDir.resolve("Copy.ecore")));
+    // a failed save as keeps the document's uri
+    var unwritableUri = modelDir.resolve("Copy.ecore").resolve("Unwritable.ecore").toUri().toString();
+    int saveCount = documentSaves.size();
+    assertThrows(Exception.class,
+        () -> get(tsp.saveDocument(new SaveDocumentParams(modelUri, new NewUriOptions(unwritableUri, true)))));
+    assertEquals(saveCount, documentSaves.size());
+    assertEquals(1, get(tsp.getChildren(new GetChildrenParams(modelUri, null, 0))).length);
+    assertThrows(Exception.class, () -> get(tsp.getChildren(new GetChildrenParams(unwritableUri, null, 0))));
+    var savedAsUri = modelDir.resolve("SavedAs.ecore").toUri().toString();
+    get(tsp.saveDocument(new SaveDocumentParams(modelUri, new NewUriOptions(savedAsUri, true))));
+    var savedAs = documentSaves.get(documentSaves.size() - 1);
+    assertEquals(savedAsUri, savedAs.documentUri());
+    assertTrue(savedAs.written());
+    assertEquals(1, get(tsp.getChildren(new GetChildrenParams(savedAsUri, null, 0))).length);
+
+    // only the saved files, no temp files are left
+    try (var files = Files.list(modelDir)) {
+      assertEquals(List.of("Copy.ecore", "SavedAs.ecore", "Tournament.ecore"),
+          files.map(file -> file.getFileName().toString()).sorted().toList());
+    }
+    assertThrows(Exception.class, () -> get(tsp.saveDocument(new SaveDocumentParams(modelUri, null))));
+  }
+
+  @Test
+  void testReferencedResourcesAreSharedAndReleased(@TempDir Path dir) throws Exception {
+    get(tsp.configure(new ConfigureParams(Map.of(
+        "tsp.load.profile", "fast",
+        "tsp.label.images.dir", dir.resolve("images").toString()))));
+    var resourceSet = new ResourceSetImpl();
+    resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMIResourceFactoryImpl());
+    var libraryFile = dir.resolve("library.ecore");
+    var libraryResource = resourceSet.createResource(org.eclipse.emf.common.util.URI.createFileURI(libraryFile.toString()));
+    libraryResource.getContents().add(ePackageWithClass("library", null));
+    libraryResource.save(null);
+    var base = (EClass) ((EPackage) libraryResource.getContents().get(0)).getEClassifiers().get(0);
+    var documentUris = new ArrayList<String>();
+    for (var name : List.of("first", "second")) {
+      var file = dir.resolve(name + ".ecore");
+      var resource = resourceSet.createResource(org.eclipse.emf.common.util.URI.createFileURI(file.toString()));
+      resource.getContents().add(ePackageWithClass(name, base));
+      resource.save(null);
+      documentUris.add(file.toUri().toString());
+      get(tsp.openDocument(new OpenDocumentParams(file.toUri().toString())));
+    }
+
+    // both documents resolve the library to the same, read-only resource
+    var superTypes = new ArrayList<EClass>();
+    for (var documentUri : documentUris) {
+      var resource = server.getResource(documentUri);
+      var eClass = (EClass) ((EPackage) resource.getContents().get(0)).getEClassifiers().get(0);
+      superTypes.add(get(server.inDocumentLane(new CloseDocumentParams(documentUri),
+          () -> eClass.getESuperTypes().get(0))));
+      assertTrue(server.getEditingDomain(resource).isReadOnly(superTypes.get(superTypes.size() - 1).eResource()));
+      assertEquals(1, resource.getResourceSet().getResources().size());
+    }
+    assertTrue(superTypes.get(0) == superTypes.get(1));
+    // shared objects are adapted by the shared adapter factory, from any document, and any server sharing the caches
+    var itemProviders = new ArrayList<Object>();
+    for (var documentUri : documentUris) {
+      itemProviders.add(get(server.inDocumentLane(new CloseDocumentParams(documentUri),
+          () -> server.adapt(superTypes.get(0), IItemLabelProvider.class))));
+    }
+    try (var otherServer = new EmfEditTspServer(server.getCaches())) {
+      itemProviders.add(otherServer.adapt(superTypes.get(0), IItemLabelProvider.class));
+    }
+    assertTrue(itemProviders.get(0) == itemProviders.get(1) && itemProviders.get(0) == itemProviders.get(2));
+    var sharedResources = server.getSharedResources();
+    var libraryUri = superTypes.get(0).eResource().getURI();
+    assertEquals(2, sharedResources.userCount(libraryUri));
+    assertFalse(sharedResources.getNameToFeatureMap().isEmpty());
+
+    get(tsp.closeDocument(new CloseDocumentParams(documentUris.get(0))));
+    assertEquals(1, sharedResources.userCount(libraryUri));
+    get(tsp.closeDocument(new CloseDocumentParams(documentUris.get(1))));
+    assertEquals(-1, sharedResources.userCount(libraryUri));
+    assertEquals(0, sharedResources.size());
+    assertTrue(superTypes.get(0).eAdapters().isEmpty(), "Unloading should remove the adapters");
+    assertTrue(sharedResources.getNameToFeatureMap().isEmpty(), "Unloading should forget the feature lookups");
+  }
+
+  @Test
+  void testDocumentsHaveTheirOwnItemProviders(@TempDir Path dir) throws Exception {
+    var copy = Files.copy(Path.of(URI.create(openDocumentParams.documentUri())), dir.resolve("Copy.ecore"));
+    var copyParams = new OpenDocumentParams(copy.toUri().toString());
+    get(tsp.openDocument(copyParams));
+    var adapterFactories = new ArrayList<Object>();
+    for (var params : List.of(openDocumentParams, copyParams)) {
+      var resource = server.getResource(params.documentUri());
+      adapterFactories.add(get(server.inDocumentLane(params, () -> {
+        var itemProvider = (ItemProviderAdapter) server.adapt(resource.getContents().get(0), IItemLabelProvider.class);
+        return ((ComposeableAdapterFactory) itemProvider.getAdapterFactory()).getRootAdapterFactory();
+      })));
+    }
+    assertTrue(adapterFactories.get(0) instanceof DocumentAdapterFactory);
+    assertTrue(adapterFactories.get(0) != adapterFactories.get(1), "Documents in parallel lanes must not share providers");
+  }
+
+  @Test
+  void testItemProviderFactoriesAreCreatedWhenFirstUsedAndKeepPrecedence() {
+    var treeFactory = new LazyAdapterFactory(TreePackage.eNS_URI, () -> new TreeItemProviderAdapterFactory());
+    var reflectiveFactory = new LazyAdapterFactory(null, () -> new ReflectiveItemProviderAdapterFactory());
+    var ecoreFactory = new LazyAdapterFactory(EcorePackage.eNS_URI, () -> new EcoreItemProviderAdapterFactory());
+    var adapterFactory = new ComposedAdapterFactory();
+    adapterFactory.addAdapterFactory(treeFactory);
+    adapterFactory.addAdapterFactory(reflectiveFactory);
+    adapterFactory.addAdapterFactory(ecoreFactory);
+    assertFalse(treeFactory.isCreated() || reflectiveFactory.isCreated() || ecoreFactory.isCreated());
+
+    // the generated Ecore providers, not the reflective one, as when the factories are registered eagerly
+    var ePackage = ePackageWithClass("lazy", null);
+    assertTrue(adapterFactory.adapt(ePackage, IItemLabelProvider.class) instanceof EPackageItemProvider);
+    assertTrue(ecoreFactory.isCreated());
+    assertFalse(treeFactory.isCreated());
+
+    // objects of packages without generated providers are adapted by the reflective factory
+    var dynamicObject = EcoreUtil.create((EClass) ePackage.getEClassifiers().get(0));
+    assertTrue(adapterFactory.adapt(dynamicObject, IItemLabelProvider.class) instanceof ReflectiveItemProvider);
+    assertTrue(reflectiveFactory.isCreated());
+    adapterFactory.dispose();
+  }
+
+  private static EPackage ePackageWithClass(String name, EClass superType) {
+    var ePackage = EcoreFactory.eINSTANCE.createEPackage();
+    ePackage.setName(name);
+    ePackage.setNsPrefix(name);
+    ePackage.setNsURI("http://no.hal.tsp/test/" + name);
+    var eClass = EcoreFactory.eINSTANCE.createEClass();
+    eClass.setName(name.toUpperCase());
+    if (superType != null) {
+      eClass.getESuperTypes().add(superType);
+    }
+    ePackage.getEClassifiers().add(eClass);
+    return ePackage;
+  }
 }
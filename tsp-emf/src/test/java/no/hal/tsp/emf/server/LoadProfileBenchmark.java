@@ -0,0 +1,142 @@
+package no.hal.tsp.emf.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EcoreFactory;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
+
+/**
+ * Benchmark of the load profiles, on the example models and on generated models of increasing size.
+ * Not a test, run it with the test classpath, e.g. from the tsp-emf folder:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/classes:target/test-classes:$(cat target/classpath.txt) \
+ *   no.hal.tsp.emf.server.LoadProfileBenchmark [model files or folders] [--sizes=1000,5000,20000]
+ * </pre>
+ */
+public class LoadProfileBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int MEASURED_ITERATIONS = 10;
+  private static final Map<Object, Object> NAME_TO_FEATURE_MAP = Collections.synchronizedMap(new HashMap<>());
+
+  public static void main(String[] args) throws Exception {
+    List<Path> models = new ArrayList<>();
+    int[] sizes = {1_000, 5_000, 20_000};
+    for (var arg : args) {
+      if (arg.startsWith("--sizes=")) {
+        sizes = Arrays.stream(arg.substring("--sizes=".length()).split(",")).mapToInt(Integer::parseInt).toArray();
+      } else {
+        models.addAll(modelFiles(Path.of(arg)));
+      }
+    }
+    if (models.isEmpty() && Files.isDirectory(Path.of("../examples/models"))) {
+      models.addAll(modelFiles(Path.of("../examples/models")));
+    }
+    Path generatedDir = Files.createTempDirectory("tsp-load-benchmark");
+    for (int size : sizes) {
+      models.add(generateModel(generatedDir.resolve("generated-" + size + ".ecore"), size));
+    }
+    System.out.printf("%-40s %12s", "model", "size (KB)");
+    for (var profile : LoadProfile.values()) {
+      System.out.printf(" %12s", profile.name().toLowerCase() + " (ms)");
+    }
+    System.out.println();
+    for (var model : models) {
+      System.out.printf("%-40s %12d", model.getFileName(), Files.size(model) / 1024);
+      for (var profile : LoadProfile.values()) {
+        System.out.printf(" %12.2f", medianLoadMillis(model, profile));
+      }
+      System.out.println();
+    }
+  }
+
+  private static List<Path> modelFiles(Path path) throws IOException {
+    if (!Files.isDirectory(path)) {
+      return List.of(path);
+    }
+    try (Stream<Path> files = Files.list(path)) {
+      return files.filter(Files::isRegularFile)
+          .filter(file -> !file.getFileName().toString().endsWith(".md"))
+          .sorted()
+          .toList();
+    }
+  }
+
+  private static double medianLoadMillis(Path model, LoadProfile profile) throws IOException {
+    var uri = URI.createFileURI(model.toAbsolutePath().toString());
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      load(uri, profile);
+    }
+    long[] times = new long[MEASURED_ITERATIONS];
+    for (int i = 0; i < times.length; i++) {
+      long start = System.nanoTime();
+      load(uri, profile);
+      times[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(times);
+    return times[times.length / 2] / 1_000_000.0;
+  }
+
+  private static Resource load(URI uri, LoadProfile profile) throws IOException {
+    var resourceSet = new ResourceSetImpl();
+    resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new DocumentResourceFactory());
+    var resource = resourceSet.createResource(uri);
+    resource.load(profile.loadOptions(NAME_TO_FEATURE_MAP));
+    return resource;
+  }
+
+  /**
+   * Generates an Ecore model with a number of classes, with attributes, containments and cross-references,
+   * so loading it resolves many references.
+   */
+  private static Path generateModel(Path file, int classCount) throws IOException {
+    var ecoreFactory = EcoreFactory.eINSTANCE;
+    EPackage ePackage = ecoreFactory.createEPackage();
+    ePackage.setName("generated");
+    ePackage.setNsPrefix("generated");
+    ePackage.setNsURI("http://no.hal.tsp/generated/" + classCount);
+    List<EClass> eClasses = new ArrayList<>();
+    for (int i = 0; i < classCount; i++) {
+      EClass eClass = ecoreFactory.createEClass();
+      eClass.setName("Class" + i);
+      if (i > 0) {
+        eClass.getESuperTypes().add(eClasses.get(i / 2));
+      }
+      for (int j = 0; j < 3; j++) {
+        var attribute = ecoreFactory.createEAttribute();
+        attribute.setName("attribute" + j);
+        attribute.setEType(j % 2 == 0 ? EcorePackage.Literals.ESTRING : EcorePackage.Literals.EINT);
+        eClass.getEStructuralFeatures().add(attribute);
+      }
+      if (i > 0) {
+        var reference = ecoreFactory.createEReference();
+        reference.setName("reference");
+        reference.setEType(eClasses.get((i * 7) % i));
+        reference.setUpperBound(-1);
+        reference.setContainment(i % 3 == 0);
+        eClass.getEStructuralFeatures().add(reference);
+      }
+      eClasses.add(eClass);
+      ePackage.getEClassifiers().add(eClass);
+    }
+    var resource = new XMIResourceFactoryImpl().createResource(URI.createFileURI(file.toString()));
+    resource.getContents().add(ePackage);
+    resource.save(null);
+    return file;
+  }
+}
@@ -1,22 +1,36 @@
 package no.hal.tsp.emf.server;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import no.hal.tsp.launcher.ServerProtocolLauncher;
+import no.hal.tsp.launcher.SessionRecorder;
 import no.hal.tsp.model.Label;
 import no.hal.tsp.model.TreeNode;
 import no.hal.tsp.protocol.DocumentApi.OpenDocumentParams;
+import no.hal.tsp.protocol.FormApi.GetTreeNodeFormParams;
+import no.hal.tsp.protocol.ServerConfigApi.GetMetricsParams;
 import no.hal.tsp.protocol.TreeServerProtocol;
 import no.hal.tsp.protocol.TreeStructureApi.GetChildrenParams;
 import org.eclipse.lsp4j.jsonrpc.Launcher;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 /**
  * Test for the TSP Server Launcher.
@@ -25,17 +39,20 @@ class TspServerLauncherIT {
 
   private Thread serverThread;
   private TreeServerProtocol client;
-  private PipedOutputStream clientOutput;
-  private PipedInputStream clientInput;
+  private OutputStream clientOutput;
+  private InputStream clientInput;
 
   @BeforeEach
   void setUp() throws Exception {
-    // Create piped streams for client-server communication
-    PipedInputStream serverInput = new PipedInputStream();
-    PipedOutputStream serverOutput = new PipedOutputStream();
+    // Create pipes for client-server communication,
+    // not piped streams, since the server writes responses from short-lived (virtual) threads
+    Pipe clientToServer = Pipe.open();
+    Pipe serverToClient = Pipe.open();
+    InputStream serverInput = Channels.newInputStream(clientToServer.source());
+    OutputStream serverOutput = Channels.newOutputStream(serverToClient.sink());
 
-    clientOutput = new PipedOutputStream(serverInput);
-    clientInput = new PipedInputStream(serverOutput);
+    clientOutput = Channels.newOutputStream(clientToServer.sink());
+    clientInput = Channels.newInputStream(serverToClient.source());
 
     // Start server in a separate thread
     var launcher = new ServerProtocolLauncher<TreeServerProtocol>(TreeServerProtocol.class,
@@ -102,5 +119,58 @@ class TspServerLauncherIT {
     assertNotNull(children);
     // two EAnnotation instances and six EClassifier instances
     assertEquals(8, children.length, "EPackage tournament should have 8 children");
+
+    // the startup is recorded at the first getChildren response of the process
+    var metrics = client.getMetrics(new GetMetricsParams(false)).get(5, TimeUnit.SECONDS);
+    assertTrue(metrics.startupMillis() >= 0, "Startup should be recorded");
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"unix:", "tcp:0"})
+  void testListenServesConnectionsWithSharedCaches(String address, @TempDir Path tempDir) throws Exception {
+    var caches = new ServerCaches();
+    var launcher = new ServerProtocolLauncher<TreeServerProtocol>(TreeServerProtocol.class,
+        () -> new EmfEditTspServer(caches));
+    var serverChannel = ServerProtocolLauncher.bind(address.startsWith("unix:")
+        ? address + tempDir.resolve("tsp.sock")
+        : address);
+    var listenThread = Thread.ofPlatform().daemon().start(() -> launcher.listen(serverChannel));
+    var sessionFile = tempDir.resolve("session.jsonl");
+    System.setProperty(SessionRecorder.RECORD_PROPERTY, sessionFile.toString());
+    try {
+      var documentUri = getClass().getResource("/models/Tournament.ecore").toString();
+      // one connection after the other, each opens the document and gets the form of its root
+      for (int i = 0; i < 2; i++) {
+        try (var channel = SocketChannel.open(serverChannel.getLocalAddress())) {
+          Launcher<TreeServerProtocol> clientLauncher = new Launcher.Builder<TreeServerProtocol>()
+              .setLocalService(new Object())
+              .setRemoteInterface(TreeServerProtocol.class)
+              .setInput(Channels.newInputStream(channel))
+              .setOutput(Channels.newOutputStream(channel))
+              .create();
+          clientLauncher.startListening();
+          var socketClient = clientLauncher.getRemoteProxy();
+          socketClient.openDocument(new OpenDocumentParams(documentUri)).get(5, TimeUnit.SECONDS);
+          var root = socketClient.getChildren(new GetChildrenParams(documentUri, null, 0)).get(5, TimeUnit.SECONDS)[0];
+          var form = socketClient.getTreeNodeForm(new GetTreeNodeFormParams(documentUri, root.id()))
+              .get(5, TimeUnit.SECONDS);
+          assertNotNull(form);
+        }
+      }
+      // the second connection's server used the form schema computed by the first one's
+      assertEquals(1, caches.formSchemas.stats().misses());
+      assertEquals(1, caches.formSchemas.stats().hits());
+      // each connection is recorded to its own file
+      for (int connectionId = 1; connectionId <= 2; connectionId++) {
+        var session = SessionRecorder.read(SessionRecorder.connectionFile(sessionFile, connectionId));
+        assertEquals(List.of("document/openDocument", "tree/getChildren", "form/getTreeNodeForm"),
+            session.stream().map(SessionRecorder.RecordedMessage::method).toList());
+      }
+      assertFalse(Files.exists(sessionFile));
+    } finally {
+      System.clearProperty(SessionRecorder.RECORD_PROPERTY);
+      serverChannel.close();
+      listenThread.join(5000);
+    }
   }
 }
@@ -0,0 +1,90 @@
+package no.hal.tsp.launcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies, with log-linear buckets, as in HDR histograms.
+ * Each power of two of microseconds is split into eight buckets, so values are recorded with a precision of 12.5%,
+ * from a microsecond to days, in a fixed number of buckets.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder totalCount = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucketFor(value / 1000));
+    totalCount.increment();
+    totalNanos.add(value);
+    maxNanos.accumulateAndGet(value, Math::max);
+  }
+
+  // values below the number of sub-buckets have their own bucket, larger values are split by their highest bit
+  static int bucketFor(long micros) {
+    if (micros < SUB_BUCKET_COUNT) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  // the largest value in a bucket, in microseconds
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKET_COUNT;
+    return ((SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  public long count() {
+    return totalCount.sum();
+  }
+
+  public double meanMillis() {
+    long count = totalCount.sum();
+    return count > 0 ? totalNanos.sum() / 1e6 / count : 0.0;
+  }
+
+  public double maxMillis() {
+    return maxNanos.get() / 1e6;
+  }
+
+  /**
+   * Returns a percentile, as the upper bound of the bucket it is in, but not above the maximum.
+   *
+   * @param percentile the percentile, between 0 and 100
+   * @return the percentile in milliseconds
+   */
+  public double percentileMillis(double percentile) {
+    long count = 0;
+    long[] snapshot = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0) {
+      return 0.0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i) / 1e3, maxMillis());
+      }
+    }
+    return maxMillis();
+  }
+}
@@ -0,0 +1,260 @@
+package no.hal.tsp.launcher;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import no.hal.tsp.model.ServerMetrics;
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.json.StreamMessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseMessage;
+
+/**
+ * Counts, latencies, sizes and errors of the JSON-RPC messages of a server, per method.
+ * Messages are measured as they pass through the launcher, so all methods are measured,
+ * and sizes are counted on the streams, so messages aren't serialized again.
+ * Recording is lock-free, so the metrics can be left on.
+ */
+public class MessageMetrics {
+
+  /**
+   * Implemented by servers that use the metrics, e.g. to expose them in a request.
+   */
+  public interface Consumer {
+    void setMessageMetrics(MessageMetrics messageMetrics);
+  }
+
+  static final String REQUEST = "request";
+  static final String NOTIFICATION = "notification";
+  static final String SENT_NOTIFICATION = "sent notification";
+
+  // the request whose first response ends the startup of the process, when an editor can show its tree
+  static final String STARTUP_METHOD = "tree/getChildren";
+  // the time from the start of the JVM to the first response to the startup method, for all connections
+  private static final AtomicLong startupMillis = new AtomicLong(-1);
+
+  private static class MethodStats {
+    final LatencyHistogram latencies = new LatencyHistogram();
+    final LongAdder count = new LongAdder();
+    final LongAdder errorCount = new LongAdder();
+    final LongAdder requestBytes = new LongAdder();
+    final LongAdder responseBytes = new LongAdder();
+  }
+
+  private record PendingRequest(String method, long startNanos) {
+  }
+
+  private record MethodKey(String method, String kind) {
+  }
+
+  private volatile Map<MethodKey, MethodStats> methods = new ConcurrentHashMap<>();
+  private final Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+  private volatile long startMillis = System.currentTimeMillis();
+
+  private MethodStats statsFor(String method, String kind) {
+    return methods.computeIfAbsent(new MethodKey(method, kind), key -> new MethodStats());
+  }
+
+  public void requestReceived(String id, String method, long bytes) {
+    pendingRequests.put(id, new PendingRequest(method, System.nanoTime()));
+    statsFor(method, REQUEST).requestBytes.add(bytes);
+  }
+
+  public void responseSent(String id, boolean error, long bytes) {
+    var pending = pendingRequests.remove(id);
+    if (pending == null) {
+      return;
+    }
+    var stats = statsFor(pending.method(), REQUEST);
+    stats.latencies.record(System.nanoTime() - pending.startNanos());
+    stats.count.increment();
+    if (error) {
+      stats.errorCount.increment();
+    }
+    stats.responseBytes.add(bytes);
+    if (startupMillis.get() < 0 && STARTUP_METHOD.equals(pending.method())) {
+      recordStartup();
+    }
+  }
+
+  // the start time of the JVM, since the start of the process as told by the OS may be off by a lot, e.g. in VMs
+  private static void recordStartup() {
+    long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    if (startupMillis.compareAndSet(-1, millis)) {
+      System.err.println("Started in " + millis + " ms, from JVM start to the first " + STARTUP_METHOD + " response");
+    }
+  }
+
+  /**
+   * @return the time from the start of the JVM to the first response to tree/getChildren, or -1 if none yet
+   */
+  public static long startupMillis() {
+    return startupMillis.get();
+  }
+
+  public void notificationReceived(String method, long bytes) {
+    var stats = statsFor(method, NOTIFICATION);
+    stats.count.increment();
+    stats.requestBytes.add(bytes);
+  }
+
+  public void notificationSent(String method, long bytes) {
+    var stats = statsFor(method, SENT_NOTIFICATION);
+    stats.count.increment();
+    stats.requestBytes.add(bytes);
+  }
+
+  /**
+   * @return the time since the metrics were created or last reset
+   */
+  public long uptimeMillis() {
+    return System.currentTimeMillis() - startMillis;
+  }
+
+  /**
+   * Returns the metrics of each method, ordered by method and kind.
+   *
+   * @param reset whether to start over, with new metrics
+   * @return the metrics
+   */
+  public List<ServerMetrics.MethodMetrics> snapshot(boolean reset) {
+    var current = methods;
+    if (reset) {
+      methods = new ConcurrentHashMap<>();
+      startMillis = System.currentTimeMillis();
+    }
+    return current.entrySet().stream()
+        .map(entry -> methodMetrics(entry.getKey(), entry.getValue()))
+        .sorted(Comparator.comparing(ServerMetrics.MethodMetrics::method).thenComparing(ServerMetrics.MethodMetrics::kind))
+        .toList();
+  }
+
+  private static ServerMetrics.MethodMetrics methodMetrics(MethodKey key, MethodStats stats) {
+    var latencies = stats.latencies;
+    return new ServerMetrics.MethodMetrics(key.method(), key.kind(),
+        stats.count.sum(), stats.errorCount.sum(),
+        latencies.meanMillis(), latencies.percentileMillis(50), latencies.percentileMillis(90),
+        latencies.percentileMillis(99), latencies.maxMillis(),
+        stats.requestBytes.sum(), stats.responseBytes.sum());
+  }
+
+  /**
+   * Wraps an input stream, so the size of received messages can be counted.
+   */
+  public InputStream countingInput(InputStream input) {
+    return new CountingInputStream(input);
+  }
+
+  /**
+   * Wraps an output stream, so the size of sent messages can be counted.
+   */
+  public OutputStream countingOutput(OutputStream output) {
+    return new CountingOutputStream(output);
+  }
+
+  /**
+   * Returns a message wrapper for a launcher, that records the messages it receives and sends.
+   * The input and output of the launcher must be streams from countingInput and countingOutput.
+   *
+   * @param input the input of the launcher
+   * @param output the output of the launcher
+   * @return the message wrapper
+   */
+  public Function<MessageConsumer, MessageConsumer> messageWrapper(InputStream input, OutputStream output) {
+    var countingInput = (CountingInputStream) input;
+    var countingOutput = (CountingOutputStream) output;
+    return consumer -> consumer instanceof StreamMessageConsumer
+        ? message -> {
+          // the message is written by this thread, while consuming it
+          long start = countingOutput.threadCount();
+          consumer.consume(message);
+          long bytes = countingOutput.threadCount() - start;
+          if (message instanceof ResponseMessage response) {
+            responseSent(response.getId(), response.getError() != null, bytes);
+          } else if (message instanceof NotificationMessage notification) {
+            notificationSent(notification.getMethod(), bytes);
+          }
+        }
+        : message -> {
+          // the message has been read by this thread, just before it is consumed
+          long bytes = countingInput.takeCount();
+          if (message instanceof RequestMessage request) {
+            requestReceived(request.getId(), request.getMethod(), bytes);
+          } else if (message instanceof NotificationMessage notification) {
+            notificationReceived(notification.getMethod(), bytes);
+          }
+          consumer.consume(message);
+        };
+  }
+
+  // counts the bytes read since the count was last taken, messages are read by one thread
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    CountingInputStream(InputStream input) {
+      super(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int n = super.read(bytes, offset, length);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    long takeCount() {
+      long taken = count;
+      count = 0;
+      return taken;
+    }
+  }
+
+  // counts the bytes written by each thread, since messages are written by the threads sending them
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    private final ThreadLocal<long[]> counts = ThreadLocal.withInitial(() -> new long[1]);
+
+    CountingOutputStream(OutputStream output) {
+      super(output);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      counts.get()[0]++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+      counts.get()[0] += length;
+    }
+
+    long threadCount() {
+      return counts.get()[0];
+    }
+  }
+}
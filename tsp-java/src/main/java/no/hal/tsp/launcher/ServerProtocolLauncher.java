@@ -1,64 +1,252 @@
 package no.hal.tsp.launcher;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import no.hal.tsp.protocol.DocumentClientProtocol;
 import no.hal.tsp.protocol.DocumentServerProtocol;
 import org.eclipse.lsp4j.jsonrpc.Launcher;
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
 
 /**
  * Launcher for the Tree Structure Protocol server.
- * Communicates via stdin/stdout using JSON-RPC.
+ * Communicates via stdin/stdout using JSON-RPC,
+ * or listens for connections on a local socket, serving each with its own server.
  */
 public class ServerProtocolLauncher<SP extends DocumentServerProtocol> {
 
   private static final Logger LOG = Logger.getLogger(ServerProtocolLauncher.class.getName());
 
+  static final String TCP_PREFIX = "tcp:";
+  static final String UNIX_PREFIX = "unix:";
+  static final String LISTEN_OPTION = "--listen=";
+
   private final Class<SP> protocolClass;
-  private final SP server;
+  private final Supplier<? extends SP> serverFactory;
+  private final AtomicInteger connectionCount = new AtomicInteger();
 
+  /**
+   * Launcher for a single connection, to the given server.
+   */
   public ServerProtocolLauncher(Class<SP> protocolClass, SP server) {
+    this(protocolClass, () -> server);
+  }
+
+  /**
+   * Launcher that creates a server for each connection, so it can listen for many.
+   */
+  public ServerProtocolLauncher(Class<SP> protocolClass, Supplier<? extends SP> serverFactory) {
     this.protocolClass = protocolClass;
-    this.server = server;
+    this.serverFactory = serverFactory;
   }
 
+  /**
+   * Serves a connection on the given streams, e.g. stdin/stdout, until the input ends,
+   * so the process can exit when the client is gone.
+   */
   public void startServer(InputStream in, OutputStream out) {
-    Launcher<SP> launcher = new Launcher.Builder<SP>()
+    serve(in, out, 0);
+  }
+
+  /**
+   * Opens a server socket on a local address, for listen.
+   * The address is a TCP port on the loopback interface, e.g. tcp:5007 or just 5007, where port 0 picks a free one,
+   * or the path of a Unix domain socket, e.g. unix:/tmp/tsp.sock. A stale socket file is replaced.
+   *
+   * @param address the address
+   * @return the bound server socket channel
+   * @throws IOException if the address can't be bound
+   */
+  public static ServerSocketChannel bind(String address) throws IOException {
+    if (address.startsWith(UNIX_PREFIX)) {
+      var path = Path.of(address.substring(UNIX_PREFIX.length()));
+      Files.deleteIfExists(path);
+      var serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      serverChannel.bind(UnixDomainSocketAddress.of(path));
+      path.toFile().deleteOnExit();
+      return serverChannel;
+    }
+    var port = Integer.parseInt(address.startsWith(TCP_PREFIX) ? address.substring(TCP_PREFIX.length()) : address);
+    var serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    return serverChannel;
+  }
+
+  /**
+   * Accepts connections, and serves each with its own server from the factory, until the server socket is closed.
+   * Since the servers are in the same process, caches that the factory gives them are shared by all connections.
+   * When a connection ends, its server is closed, if it is AutoCloseable, as for startServer.
+   *
+   * @param serverChannel the server socket channel, see bind
+   */
+  public void listen(ServerSocketChannel serverChannel) {
+    try (serverChannel) {
+      LOG.info("Listening on " + serverChannel.getLocalAddress());
+      while (true) {
+        var channel = serverChannel.accept();
+        Thread.ofVirtual().name("tsp-connection-", 0).start(() -> serve(channel));
+      }
+    } catch (AsynchronousCloseException e) {
+      LOG.info("Stopped listening");
+    } catch (IOException e) {
+      LOG.log(Level.SEVERE, "Failed to accept connection", e);
+    }
+  }
+
+  private void serve(SocketChannel channel) {
+    try (channel) {
+      serve(Channels.newInputStream(channel), Channels.newOutputStream(channel), connectionCount.incrementAndGet());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to close connection", e);
+    }
+  }
+
+  // serves a connection with a new server, until the input ends, and then closes the server,
+  // the connection id is 0 for the only connection, and counts the connections when listening
+  private void serve(InputStream in, OutputStream out, int connectionId) {
+    var server = serverFactory.get();
+    var sessionRecorder = sessionRecorder(connectionId);
+    try {
+      connect(server, in, out, sessionRecorder).get();
+    } catch (ExecutionException e) {
+      LOG.log(Level.WARNING, "Connection failed", e);
+    } catch (InterruptedException e) {
+      LOG.log(Level.SEVERE, "Server interrupted", e);
+      Thread.currentThread().interrupt();
+    } finally {
+      if (sessionRecorder != null) {
+        try {
+          sessionRecorder.close();
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Failed to close session recording", e);
+        }
+      }
+      if (server instanceof AutoCloseable closeable) {
+        try {
+          closeable.close();
+        } catch (Exception e) {
+          LOG.log(Level.WARNING, "Failed to close server of connection", e);
+        }
+      }
+    }
+  }
+
+  // records the session of a connection, if the record property is set, to its own file when listening
+  private static SessionRecorder sessionRecorder(int connectionId) {
+    var recordFile = System.getProperty(SessionRecorder.RECORD_PROPERTY);
+    if (recordFile == null || recordFile.isBlank()) {
+      return null;
+    }
+    var file = connectionId > 0
+        ? SessionRecorder.connectionFile(Path.of(recordFile), connectionId)
+        : Path.of(recordFile);
+    try {
+      return new SessionRecorder(file);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to record session to " + file, e);
+      return null;
+    }
+  }
+
+  // starts listening for messages to the server, returns a future that completes when the input ends
+  private Future<Void> connect(SP server, InputStream in, OutputStream out, SessionRecorder sessionRecorder) {
+    // the message reader only dispatches requests, the server runs them in its own (per-document) lanes,
+    // on virtual threads. The reader itself blocks on input while holding a monitor,
+    // so it runs on a platform thread, to avoid pinning a carrier thread of the virtual threads.
+    ExecutorService executorService = Executors.newCachedThreadPool(
+        Thread.ofPlatform().name("tsp-reader-", 0).daemon().factory());
+    Function<MessageConsumer, MessageConsumer> messageWrapper = sessionRecorder != null
+        ? sessionRecorder.messageWrapper()
+        : Function.identity();
+    if (server instanceof MessageMetrics.Consumer metricsConsumer) {
+      var messageMetrics = new MessageMetrics();
+      in = messageMetrics.countingInput(in);
+      out = messageMetrics.countingOutput(out);
+      // outermost, since it tells sent from received messages by the consumer it wraps
+      messageWrapper = messageWrapper.andThen(messageMetrics.messageWrapper(in, out));
+      metricsConsumer.setMessageMetrics(messageMetrics);
+    }
+    // one launcher for requests and notifications, since messages are written to the output
+    // under the lock of the launcher, so messages sent by separate launchers could be interleaved
+    Launcher<Object> launcher = new Launcher.Builder<Object>()
         .setLocalService(server)
-        .setRemoteInterface(protocolClass)
+        .setRemoteInterfaces(List.of(protocolClass, DocumentClientProtocol.class))
+        .setClassLoader(protocolClass.getClassLoader())
         .setInput(in)
         .setOutput(out)
+        .setExecutorService(executorService)
+        .wrapMessages(messageWrapper)
         .create();
 
     if (server instanceof DocumentClientProtocol.Consumer dcpConsumer) {
-      Launcher<DocumentClientProtocol> clientLauncher = new Launcher.Builder<DocumentClientProtocol>()
-          .setLocalService(new Object()) // No local service needed for client
-          .setRemoteInterface(DocumentClientProtocol.class)
-          .setInput(in)
-          .setOutput(out)
-          .create();
-      dcpConsumer.setDocumentClient(clientLauncher.getRemoteProxy());
+      dcpConsumer.setDocumentClient((DocumentClientProtocol) launcher.getRemoteProxy());
     }
 
-    launcher.startListening();
-    try {
-      // launcher.getRemoteProxy();
-      Thread.currentThread().join();
-    } catch (InterruptedException e) {
-      LOG.log(Level.SEVERE, "Server interrupted", e);
-    }
+    return launcher.startListening();
   }
 
-  public static void main(String[] args) {
+  /**
+   * Launches servers with the given options: {@code --listen=address} listens on a local address, see bind,
+   * otherwise a single server communicates via stdin/stdout.
+   *
+   * @param protocolClass the protocol of the servers
+   * @param serverFactory creates the server, or the server of each connection when listening
+   * @param args the options
+   */
+  public static <SP extends DocumentServerProtocol> void launch(Class<SP> protocolClass,
+      Supplier<? extends SP> serverFactory, String... args) {
     // Configure logging
     LogManager.getLogManager()
         .getLogger("")
         .setLevel(Level.SEVERE);
     LOG.setLevel(Level.INFO);
 
+    String listenAddress = null;
+    for (var arg : args) {
+      if (arg.startsWith(LISTEN_OPTION)) {
+        listenAddress = arg.substring(LISTEN_OPTION.length());
+      } else {
+        LOG.warning("Unknown option: " + arg);
+      }
+    }
+    var launcher = new ServerProtocolLauncher<SP>(protocolClass, serverFactory);
+    if (listenAddress == null) {
+      launcher.startServer(System.in, System.out);
+      return;
+    }
+    try {
+      launcher.listen(bind(listenAddress));
+    } catch (IOException e) {
+      LOG.log(Level.SEVERE, "Failed to listen on " + listenAddress, e);
+    }
+  }
+
+  /**
+   * Launches a server given by the names of its protocol and implementation classes, followed by the options of launch.
+   */
+  public static void main(String[] args) {
     if (args.length < 2) {
       LOG.info("DSP Server protocol and implementation classes missing in args");
       return;
@@ -74,9 +262,15 @@ public class ServerProtocolLauncher<SP extends DocumentServerProtocol> {
         LOG.severe("DSP Server Implementation must implement DocumentServerProtocol");
         return;
       }
-      var dsp = (DocumentServerProtocol) dspImplClass.getDeclaredConstructor().newInstance();
-      new ServerProtocolLauncher((Class<DocumentServerProtocol>) dspClass, dsp)
-          .startServer(System.in, System.out);
+      var constructor = dspImplClass.getDeclaredConstructor();
+      Supplier<DocumentServerProtocol> serverFactory = () -> {
+        try {
+          return (DocumentServerProtocol) constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+          throw new IllegalStateException("Failed to instantiate DSP Server Implementation", e);
+        }
+      };
+      launch((Class<DocumentServerProtocol>) dspClass, serverFactory, Arrays.copyOfRange(args, 2, args.length));
     } catch (Exception e) {
       LOG.log(Level.SEVERE, "Failed to instantiate DSP Server Implementation", e);
       e.printStackTrace(System.err);
@@ -0,0 +1,136 @@
+package no.hal.tsp.launcher;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.json.StreamMessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+
+/**
+ * Records the requests and notifications a server receives, as JSON lines with the method and params,
+ * so the session of a user can be replayed, e.g. by a load test.
+ * The launcher records a session to the file given by the {@value #RECORD_PROPERTY} system property,
+ * or when it listens for connections, the session of each connection to its own file, see {@link #connectionFile}.
+ */
+public class SessionRecorder implements Closeable {
+
+  public static final String RECORD_PROPERTY = "tsp.session.record";
+
+  /**
+   * A recorded request or notification.
+   *
+   * @param method the JSON-RPC method
+   * @param params the params, as JSON
+   * @param notification whether it was a notification, rather than a request
+   */
+  public record RecordedMessage(String method, JsonElement params, boolean notification) {
+  }
+
+  private final Writer writer;
+  private final Gson gson = new MessageJsonHandler(Map.of()).getGson();
+
+  /**
+   * @param file the file to append the session to
+   * @throws IOException if the file can't be opened
+   */
+  public SessionRecorder(Path file) throws IOException {
+    this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Returns the file of the session of a connection, named after the file of the sessions,
+   * with the id of the process and the connection, e.g. session-1234-1.jsonl for session.jsonl,
+   * so connections served by the same or another process are recorded separately.
+   *
+   * @param file the file of the sessions
+   * @param connectionId the id of the connection, unique in the process
+   * @return the file of the connection
+   */
+  public static Path connectionFile(Path file, int connectionId) {
+    var name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    var tag = "-" + ProcessHandle.current().pid() + "-" + connectionId;
+    return file.resolveSibling(dot > 0 ? name.substring(0, dot) + tag + name.substring(dot) : name + tag);
+  }
+
+  /**
+   * Returns a message wrapper for a launcher, that records the messages it receives.
+   * Messages that are sent are passed on unwrapped, so other wrappers can tell them apart, see MessageMetrics.
+   *
+   * @return the message wrapper
+   */
+  public Function<MessageConsumer, MessageConsumer> messageWrapper() {
+    return consumer -> consumer instanceof StreamMessageConsumer
+        ? consumer
+        : message -> {
+          record(message);
+          consumer.consume(message);
+        };
+  }
+
+  private void record(Message message) {
+    RecordedMessage recorded = null;
+    if (message instanceof RequestMessage request) {
+      recorded = new RecordedMessage(request.getMethod(), gson.toJsonTree(request.getParams()), false);
+    } else if (message instanceof NotificationMessage notification) {
+      recorded = new RecordedMessage(notification.getMethod(), gson.toJsonTree(notification.getParams()), true);
+    }
+    if (recorded != null) {
+      var line = new JsonObject();
+      line.addProperty("method", recorded.method());
+      line.add("params", recorded.params());
+      if (recorded.notification()) {
+        line.addProperty("notification", true);
+      }
+      write(gson.toJson(line));
+    }
+  }
+
+  // flushed for each message, since the server may be stopped at any time
+  private synchronized void write(String line) {
+    try {
+      writer.write(line);
+      writer.write('\n');
+      writer.flush();
+    } catch (IOException e) {
+      System.err.println("Failed to record message: " + e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    writer.close();
+  }
+
+  /**
+   * Reads a recorded session.
+   *
+   * @param file the file with the recorded session
+   * @return the recorded messages, in order
+   * @throws IOException if the file can't be read
+   */
+  public static List<RecordedMessage> read(Path file) throws IOException {
+    return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+        .filter(line -> !line.isBlank())
+        .map(line -> JsonParser.parseString(line).getAsJsonObject())
+        .map(json -> new RecordedMessage(json.get("method").getAsString(), json.get("params"),
+            json.has("notification") && json.get("notification").getAsBoolean()))
+        .toList();
+  }
+}
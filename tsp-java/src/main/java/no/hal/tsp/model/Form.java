@@ -2,15 +2,64 @@ package no.hal.tsp.model;
 
 import java.util.List;
 
+/**
+ * A form for editing a tree node.
+ *
+ * @param items the form items
+ * @param schemaId identifies the schema of the form, i.e. everything but the values,
+ *     so a client holding a form with the same schema only needs the {@link Values}
+ */
 public record Form(
-    List<Item> items
+    List<Item> items,
+    String schemaId
 ) {
-  
+
+  public Form(List<Item> items) {
+    this(items, null);
+  }
+
+  /**
+   * A form item.
+   *
+   * @param valueOptions the value options, if there are few enough to be included,
+   *     otherwise null, and they must be requested in pages
+   * @param valueOptionCount the number of value options, 0 if the value can be freely edited
+   */
   public record Item(
       Property property,
       Label label,
       List<Property.Value> valueOptions,
-      boolean editable
+      boolean editable,
+      int valueOptionCount
+  ) {
+    public Item(Property property, Label label, List<Property.Value> valueOptions, boolean editable) {
+      this(property, label, valueOptions, editable, valueOptions != null ? valueOptions.size() : 0);
+    }
+  }
+
+  /**
+   * A page of the value options of a property.
+   *
+   * @param offset the offset of the page among the matching options
+   * @param totalCount the number of matching options
+   * @param options the options of the page
+   */
+  public record ValueOptionsPage(
+      int offset,
+      int totalCount,
+      List<Property.Value> options
+  ) {
+  }
+
+  /**
+   * The values of a form, without the schema.
+   *
+   * @param schemaId identifies the schema the values belong to
+   * @param properties the properties, in the order of the form items
+   */
+  public record Values(
+      String schemaId,
+      List<Property> properties
   ) {
   }
 
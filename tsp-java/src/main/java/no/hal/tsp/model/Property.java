@@ -10,11 +10,22 @@ public record Property(
     this(name, null);
   }
 
+  /**
+   * A property value.
+   *
+   * @param id identifies the value among the value options of the property, if it has options,
+   *     so a value can be committed without matching it by its text
+   */
   public record Value(
       String semanticType,
       String stringValue,
-      List<String> stringValues
+      List<String> stringValues,
+      String id
   ) {
+    public Value(String semanticType, String stringValue, List<String> stringValues) {
+      this(semanticType, stringValue, stringValues, null);
+    }
+
     public Value(String semanticType, String stringValue) {
       this(semanticType, stringValue, null);
     }
@@ -22,6 +33,10 @@ public record Property(
     public Value(String semanticType, List<String> stringValues) {
       this(semanticType, null, stringValues);
     }
+
+    public Value withId(String id) {
+      return new Value(semanticType, stringValue, stringValues, id);
+    }
   }
 
   public Property withValue(String semanticType, String stringValue) {
@@ -0,0 +1,66 @@
+package no.hal.tsp.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metrics of a server, for finding where time and memory is spent.
+ *
+ * @param uptimeMillis the time since the server started, or since the method metrics were last reset
+ * @param startupMillis the time from the start of the JVM to its first tree/getChildren response, or -1 if none yet
+ * @param methods the metrics of each JSON-RPC method, for requests and notifications in both directions
+ * @param documents the metrics of each open document
+ * @param caches the counters of the caches of the server, by cache name
+ */
+public record ServerMetrics(
+    long uptimeMillis,
+    long startupMillis,
+    List<MethodMetrics> methods,
+    List<DocumentMetrics> documents,
+    Map<String, Map<String, Number>> caches
+) {
+
+  /**
+   * The metrics of a JSON-RPC method. Latencies are from receiving a request until its response is sent,
+   * and are rounded up to the resolution of the histogram, about 12%. Notifications have no latency.
+   *
+   * @param kind request, notification or sent notification
+   * @param requestBytes the total size of the received requests or notifications, or of the sent notifications
+   * @param responseBytes the total size of the responses
+   */
+  public record MethodMetrics(
+      String method,
+      String kind,
+      long count,
+      long errorCount,
+      double meanMillis,
+      double p50Millis,
+      double p90Millis,
+      double p99Millis,
+      double maxMillis,
+      long requestBytes,
+      long responseBytes
+  ) {
+  }
+
+  /**
+   * The metrics of an open document.
+   *
+   * @param objectCount the number of objects in the document
+   * @param undoCount the number of edits that can be undone
+   * @param redoCount the number of edits that can be redone
+   * @param loadMillis the time it took to load the document
+   * @param saveMillis the time the last save took, serializing and writing, or -1 if not saved
+   * @param savedBytes the size of the last save, or -1 if not saved
+   */
+  public record DocumentMetrics(
+      String documentUri,
+      int objectCount,
+      int undoCount,
+      int redoCount,
+      long loadMillis,
+      long saveMillis,
+      long savedBytes
+  ) {
+  }
+}
@@ -2,15 +2,26 @@ package no.hal.tsp.model;
 
 /**
  * Represents a node in the tree structure.
+ * The children are only included when the node is expanded, while the childCount is always included,
+ * so clients can tell a leaf from an unexpanded node.
  */
 public record TreeNode(
     String id,
     String type,
     String semanticType,
     Label label,
-    TreeNode[] children
+    TreeNode[] children,
+    int childCount
 ) {
     public TreeNode(String id, String type, String semanticType, Label label) {
         this(id, type, semanticType, label, null);
     }
+
+    public TreeNode(String id, String type, String semanticType, Label label, TreeNode[] children) {
+        this(id, type, semanticType, label, children, children != null ? children.length : -1);
+    }
+
+    public boolean hasChildren() {
+        return childCount > 0;
+    }
 }
@@ -0,0 +1,39 @@
+package no.hal.tsp.model;
+
+/**
+ * The children of several tree nodes, resolved against the same state of the model.
+ * The types, semantic types and labels of the nodes are shared, and given as indices
+ * into the strings and labels tables, since they are mostly the same for many nodes.
+ */
+public record TreeNodeBatch(
+    String[] strings,
+    Label[] labels,
+    Result[] results
+) {
+
+  /**
+   * The children of one of the requested tree nodes, in the order of the requests.
+   * If the node wasn't found, the error is set and there are no children.
+   */
+  public record Result(
+      String treeNodeId,
+      int totalCount,
+      Node[] children,
+      String error
+  ) {
+  }
+
+  /**
+   * A tree node, like {@link TreeNode}, with the type and semanticType as indices into the strings table
+   * and the label as index into the labels table, -1 means null.
+   */
+  public record Node(
+      String id,
+      int type,
+      int semanticType,
+      int label,
+      Node[] children,
+      int childCount
+  ) {
+  }
+}
@@ -0,0 +1,38 @@
+package no.hal.tsp.model;
+
+/**
+ * Tree nodes as parallel arrays, with one element per node, for expanding many nodes at once.
+ * The nodes are in depth-first order, so a node comes before its children, and the children of each node
+ * above the requested depth are included, as for {@link TreeNode}.
+ * The types, semantic types and image URIs are indices into the strings table, -1 means null,
+ * since they are mostly the same for many nodes.
+ *
+ * @param strings the types, semantic types and image URIs of the nodes
+ * @param parents the index of the parent of each node, -1 for the children of the requested node
+ * @param ids the id of each node
+ * @param types the type of each node
+ * @param semanticTypes the semantic type of each node
+ * @param texts the label text of each node
+ * @param descriptions the label description of each node, or null if no node has one
+ * @param images the label image URI of each node
+ * @param childCounts the number of children of each node
+ */
+public record TreeNodeColumns(
+    String[] strings,
+    int[] parents,
+    String[] ids,
+    int[] types,
+    int[] semanticTypes,
+    String[] texts,
+    String[] descriptions,
+    int[] images,
+    int[] childCounts
+) {
+
+  /**
+   * @return the number of nodes
+   */
+  public int size() {
+    return ids.length;
+  }
+}
@@ -0,0 +1,43 @@
+package no.hal.tsp.model;
+
+/**
+ * Represents a change to the tree structure, that a client can apply to its tree in place.
+ * Deltas are meant to be applied in order, and the indices refer to the tree as it is
+ * after the preceding deltas have been applied.
+ */
+public record TreeNodeDelta(
+    Kind kind,
+    String parentId,
+    String treeNodeId,
+    int index,
+    int oldIndex,
+    TreeNode treeNode
+) {
+
+  public enum Kind {
+    /** A child node was inserted at index, treeNode is the new node. */
+    INSERTED,
+    /** A child node was removed from index. */
+    REMOVED,
+    /** A child node was moved from oldIndex to index within the same parent. */
+    MOVED,
+    /** The node itself changed, treeNode is the node with its new label. */
+    CHANGED
+  }
+
+  public static TreeNodeDelta inserted(String parentId, int index, TreeNode treeNode) {
+    return new TreeNodeDelta(Kind.INSERTED, parentId, treeNode.id(), index, -1, treeNode);
+  }
+
+  public static TreeNodeDelta removed(String parentId, String treeNodeId, int index) {
+    return new TreeNodeDelta(Kind.REMOVED, parentId, treeNodeId, index, -1, null);
+  }
+
+  public static TreeNodeDelta moved(String parentId, String treeNodeId, int oldIndex, int index) {
+    return new TreeNodeDelta(Kind.MOVED, parentId, treeNodeId, index, oldIndex, null);
+  }
+
+  public static TreeNodeDelta changed(TreeNode treeNode) {
+    return new TreeNodeDelta(Kind.CHANGED, null, treeNode.id(), -1, -1, treeNode);
+  }
+}
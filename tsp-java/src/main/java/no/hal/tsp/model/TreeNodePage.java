@@ -0,0 +1,11 @@
+package no.hal.tsp.model;
+
+/**
+ * A page of the children of a tree node.
+ */
+public record TreeNodePage(
+    int offset,
+    int totalCount,
+    TreeNode[] children
+) {
+}
@@ -25,6 +25,24 @@ public interface DocumentApi {
   @JsonRequest("document/openDocument")
   CompletableFuture<Void> openDocument(OpenDocumentParams params);
 
+  /**
+   * Parameters for loadProgress notification, sent while a document is loading.
+   * The root nodes that are loaded can be retrieved while the document is loading,
+   * but with provisional labels and no children.
+   *
+   * @param loadedBytes the number of bytes read so far
+   * @param totalBytes the size of the document, or -1 if unknown
+   * @param rootCount the number of root nodes loaded so far
+   * @param done whether loading is finished, successfully or not
+   */
+  record LoadProgressParams(
+      String documentUri,
+      long loadedBytes,
+      long totalBytes,
+      int rootCount,
+      boolean done
+  ) implements DocumentParams {}
+
   /**
    * Parameters for saveDocument request.
    * Supports save, saveAs and saveBackup operations based on NewUriOptions.
@@ -48,6 +66,24 @@ public interface DocumentApi {
   @JsonRequest("document/saveDocument")
   CompletableFuture<Void> saveDocument(SaveDocumentParams params);
 
+  /**
+   * Parameters for saved notification, sent when a save is completed.
+   *
+   * @param savedUri the uri the document was saved to
+   * @param written whether the content was written, false if it was unchanged
+   * @param byteCount the size of the saved content
+   * @param serializeMillis the time used for serializing the document, while it couldn't be edited
+   * @param writeMillis the time used for writing the content
+   */
+  record DocumentSavedParams(
+      String documentUri,
+      String savedUri,
+      boolean written,
+      long byteCount,
+      long serializeMillis,
+      long writeMillis
+  ) implements DocumentParams {}
+
   /**
    * Parameters for closeDocument request.
    */
@@ -14,4 +14,10 @@ public interface DocumentClientProtocol {
 
   @JsonNotification("document/edited")
   void documentEdited(DocumentServerProtocol.DocumentEditedParams params);
+
+  @JsonNotification("document/loadProgress")
+  void loadProgress(DocumentServerProtocol.LoadProgressParams params);
+
+  @JsonNotification("document/saved")
+  void documentSaved(DocumentServerProtocol.DocumentSavedParams params);
 }
@@ -28,6 +28,43 @@ public interface FormApi {
   @JsonRequest("form/getTreeNodeForm")
   CompletableFuture<Form> getTreeNodeForm(GetTreeNodeFormParams params);
 
+  /**
+   * Request to get only the values of the form for a specific tree node,
+   * for refreshing a form whose schema the client already holds.
+   * If the schema id differs from the client's, the whole form must be requested.
+   *
+   * @param params reference to the treeNode
+   * @return the values of the form, with the id of its schema
+   */
+  @JsonRequest("form/getTreeNodeFormValues")
+  CompletableFuture<Form.Values> getTreeNodeFormValues(GetTreeNodeFormParams params);
+
+  /**
+   * Parameters for getValueOptions request.
+   * The offset and limit select a page of the matching options, a limit of zero or less means all options.
+   *
+   * @param propertyName the name of the property
+   * @param filter text the option labels must contain, ignoring case, or null for all options
+   */
+  record GetValueOptionsParams(
+      String documentUri,
+      String treeNodeId,
+      String propertyName,
+      String filter,
+      int offset,
+      int limit
+  ) implements TreeNodeParams {}
+
+  /**
+   * Request to get a page of the value options of a property of a tree node.
+   * The options have ids, which can be used in the committed value.
+   *
+   * @param params reference to the treeNode and property, with the filter and page
+   * @return the page of value options
+   */
+  @JsonRequest("form/getValueOptions")
+  CompletableFuture<Form.ValueOptionsPage> getValueOptions(GetValueOptionsParams params);
+
   /**
    * Parameters for validateTreeNodeForm request.
    */
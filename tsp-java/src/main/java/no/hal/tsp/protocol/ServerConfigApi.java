@@ -2,6 +2,7 @@ package no.hal.tsp.protocol;
 
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import no.hal.tsp.model.ServerMetrics;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 
 /**
@@ -16,4 +17,23 @@ public interface ServerConfigApi {
 
   @JsonRequest("server/configure")
   CompletableFuture<Void> configure(ConfigureParams params);
+
+  /**
+   * Parameters for getMetrics request.
+   *
+   * @param reset whether to reset the method metrics, so the next request gets the metrics of the time in between
+   */
+  record GetMetricsParams(
+      boolean reset
+  ) {
+  }
+
+  /**
+   * Retrieve the metrics of the server, i.e. of its JSON-RPC methods, open documents and caches.
+   *
+   * @param params Parameters telling whether to reset the method metrics
+   * @return A future containing the metrics
+   */
+  @JsonRequest("server/getMetrics")
+  CompletableFuture<ServerMetrics> getMetrics(GetMetricsParams params);
 }
@@ -1,7 +1,10 @@
 package no.hal.tsp.protocol;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import no.hal.tsp.model.MenuItem.Menu;
+import no.hal.tsp.model.Property;
+import no.hal.tsp.protocol.UndoRedoApi.DocumentEditedParams;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 
 /**
@@ -56,4 +59,75 @@ public interface TreeEditApi {
    */
   @JsonRequest("tree/doCommand")
   CompletableFuture<TreeEditedParams> doCommand(DoCommandParams params);
+
+  /**
+   * An edit operation on a tree node, one of the operations of a doEdits request.
+   *
+   * @param kind the kind of operation
+   * @param treeNodeId the tree node to edit
+   * @param commandId the command to do, for DO_COMMAND, as in the command menu of the tree node
+   * @param propertyName the property to set, as in the form of the tree node, for SET,
+   *     or the many-valued feature to add to or remove from, for ADD and REMOVE
+   * @param value the value to set, add or remove, with the id of a value option or tree node,
+   *     when the value is an object
+   * @param index the position to add at, -1 means at the end
+   */
+  record EditOperation(
+      Kind kind,
+      String treeNodeId,
+      String commandId,
+      String propertyName,
+      Property.Value value,
+      int index
+  ) {
+
+    public enum Kind {
+      /** Do a command of the command menu of the tree node. */
+      DO_COMMAND,
+      /** Set a property of the tree node. */
+      SET,
+      /** Add a value to a many-valued feature of the tree node. */
+      ADD,
+      /** Remove a value from a many-valued feature of the tree node, or the tree node itself, if no property is given. */
+      REMOVE
+    }
+
+    public static EditOperation doCommand(String treeNodeId, String commandId) {
+      return new EditOperation(Kind.DO_COMMAND, treeNodeId, commandId, null, null, -1);
+    }
+
+    public static EditOperation set(String treeNodeId, String propertyName, Property.Value value) {
+      return new EditOperation(Kind.SET, treeNodeId, null, propertyName, value, -1);
+    }
+
+    public static EditOperation add(String treeNodeId, String propertyName, Property.Value value, int index) {
+      return new EditOperation(Kind.ADD, treeNodeId, null, propertyName, value, index);
+    }
+
+    public static EditOperation remove(String treeNodeId, String propertyName, Property.Value value) {
+      return new EditOperation(Kind.REMOVE, treeNodeId, null, propertyName, value, -1);
+    }
+  }
+
+  /**
+   * Parameters for doEdits request.
+   *
+   * @param label the label of the edit, e.g. for the undo menu, or null for a default label
+   */
+  record DoEditsParams(
+      String documentUri,
+      String label,
+      List<EditOperation> operations
+  ) implements DocumentParams {}
+
+  /**
+   * Do several edit operations as one edit, that is undone and redone in one step.
+   * The operations are resolved against the model before the edit, and done in order.
+   * The edit is all-or-nothing, if any operation cannot be done, none are, and the request fails.
+   *
+   * @param params Parameters containing the operations
+   * @return A future containing the objects affected by all the operations, and the deltas of the edit
+   */
+  @JsonRequest("tree/doEdits")
+  CompletableFuture<DocumentEditedParams> doEdits(DoEditsParams params);
 }
@@ -1,8 +1,12 @@
 package no.hal.tsp.protocol;
 
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import no.hal.tsp.model.TreeNode;
+import no.hal.tsp.model.TreeNodeBatch;
+import no.hal.tsp.model.TreeNodeColumns;
+import no.hal.tsp.model.TreeNodePage;
 
 /**
  * Tree Structure Protocol interface.
@@ -12,12 +16,41 @@ public interface TreeStructureApi {
 
   /**
    * Parameters for getChildren request.
+   * The offset and limit select a page of the children of the tree node,
+   * a limit of zero or less means all children. The limit also applies to the children
+   * of nested nodes, when depth > 0.
    */
   record GetChildrenParams(
       String documentUri,
       String treeNodeId,
-      int depth
-  ) implements TreeNodeParams {}
+      int depth,
+      int offset,
+      int limit
+  ) implements TreeNodeParams {
+    public GetChildrenParams(String documentUri, String treeNodeId, int depth) {
+      this(documentUri, treeNodeId, depth, 0, 0);
+    }
+  }
+
+  /**
+   * A request for the children of one tree node, as in {@link GetChildrenParams}.
+   */
+  record ChildrenRequest(
+      String treeNodeId,
+      int depth,
+      int offset,
+      int limit
+  ) {
+  }
+
+  /**
+   * Parameters for getChildrenBatch request.
+   */
+  record GetChildrenBatchParams(
+      String documentUri,
+      List<ChildrenRequest> requests
+  ) implements DocumentParams {
+  }
 
   /**
    * Retrieve the root nodes of the tree for a given document.
@@ -27,4 +60,34 @@ public interface TreeStructureApi {
    */
   @JsonRequest("tree/getChildren")
   CompletableFuture<TreeNode[]> getChildren(GetChildrenParams params);
+
+  /**
+   * Retrieve a page of the children of a tree node, together with the total number of children.
+   *
+   * @param params Parameters containing the tree node reference and the page to retrieve
+   * @return A future containing the page of child nodes
+   */
+  @JsonRequest("tree/getChildrenPage")
+  CompletableFuture<TreeNodePage> getChildrenPage(GetChildrenParams params);
+
+  /**
+   * Retrieve the children of many tree nodes in one request, e.g. for restoring the expanded nodes of a tree.
+   * All children are resolved against the same state of the model, and a node that isn't found
+   * gives an error in its result, rather than failing the whole request.
+   *
+   * @param params Parameters containing the tree node references, each with its own depth and page
+   * @return A future containing the children of each tree node, in the order of the requests
+   */
+  @JsonRequest("tree/getChildrenBatch")
+  CompletableFuture<TreeNodeBatch> getChildrenBatch(GetChildrenBatchParams params);
+
+  /**
+   * Retrieve the children of a tree node, as for getChildren, but as parallel arrays rather than nested nodes,
+   * with shared strings, so expanding to a depth > 0 gives smaller responses that are faster to serialize.
+   *
+   * @param params Parameters containing the tree node reference, the depth and the page to retrieve
+   * @return A future containing the child nodes, and their children down to the depth, in depth-first order
+   */
+  @JsonRequest("tree/getChildrenColumns")
+  CompletableFuture<TreeNodeColumns> getChildrenColumns(GetChildrenParams params);
 }
@@ -3,6 +3,7 @@ package no.hal.tsp.protocol;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import no.hal.tsp.model.TreeNodeDelta;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 
 /**
@@ -14,7 +15,9 @@ public interface UndoRedoApi {
   enum EditKind {
     UNDO,
     NORMAL,
-    REDO
+    REDO,
+    /** A normal edit that was merged into the previous one, so it is undone together with it. */
+    MERGED
   }
 
   /**
@@ -27,11 +30,13 @@ public interface UndoRedoApi {
 
   /**
    * Parameters for documentEdited notification.
+   * The deltas describe the structural and label changes of the edit, in the order they happened.
    */
   record DocumentEditedParams(
       String documentUri,
       String kind,
-      Collection<String> affectedObjectIds
+      Collection<String> affectedObjectIds,
+      List<TreeNodeDelta> deltas
   ) implements DocumentParams {
     public DocumentEditedParams(String documentUri) {
       this(documentUri, EditKind.NORMAL.name(), List.of());
@@ -39,6 +44,9 @@ public interface UndoRedoApi {
     public DocumentEditedParams(String documentUri, EditKind kind) {
       this(documentUri, kind.name(), List.of());
     }
+    public DocumentEditedParams(String documentUri, String kind, Collection<String> affectedObjectIds) {
+      this(documentUri, kind, affectedObjectIds, List.of());
+    }
   }
 
   /**
@@ -2,6 +2,43 @@ export interface ConfigureParams {
   settings: Record<string, string>;
 }
 
+export interface GetMetricsParams {
+  reset: boolean;
+}
+
+export interface MethodMetrics {
+  method: string;
+  kind: 'request' | 'notification' | 'sent notification';
+  count: number;
+  errorCount: number;
+  meanMillis: number;
+  p50Millis: number;
+  p90Millis: number;
+  p99Millis: number;
+  maxMillis: number;
+  requestBytes: number;
+  responseBytes: number;
+}
+
+export interface DocumentMetrics {
+  documentUri: string;
+  objectCount: number;
+  undoCount: number;
+  redoCount: number;
+  loadMillis: number;
+  saveMillis: number;
+  savedBytes: number;
+}
+
+export interface ServerMetrics {
+  uptimeMillis: number;
+  // from JVM start to the first tree/getChildren response, -1 if none yet
+  startupMillis: number;
+  methods: MethodMetrics[];
+  documents: DocumentMetrics[];
+  caches: Record<string, Record<string, number>>;
+}
+
 export interface NewUriOptions {
   newUri: string;
   useNewUri: boolean;
@@ -21,6 +58,13 @@ export interface UndoRedoParams {
   count: number;
 }
 
+export interface DocumentEditedParams {
+  documentUri?: string;
+  kind?: 'NORMAL' | 'UNDO' | 'REDO' | 'MERGED';
+  affectedObjectIds?: string[];
+  deltas?: unknown[];
+}
+
 export namespace ServerProtocol {
   export function configure(params: ConfigureParams): {
     method: 'server/configure';
@@ -31,6 +75,16 @@ export namespace ServerProtocol {
       params,
     };
   }
+
+  export function getMetrics(params: GetMetricsParams): {
+    method: 'server/getMetrics';
+    params: GetMetricsParams;
+  } {
+    return {
+      method: 'server/getMetrics',
+      params,
+    };
+  }
 }
 
 export namespace DocumentProtocol {
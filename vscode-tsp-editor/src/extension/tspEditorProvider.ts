@@ -1,12 +1,16 @@
 import * as vscode from 'vscode';
 import * as cp from 'child_process';
+import * as fs from 'fs';
+import * as net from 'net';
 import * as path from 'path';
 import * as rpc from 'vscode-jsonrpc/node';
-import { DocumentProtocol, ServerProtocol } from './server-protocol';
+import { DocumentEditedParams, DocumentProtocol, ServerProtocol } from './server-protocol';
 
 // Shared TSP server connection
 let tspConnection: rpc.MessageConnection | null = null;
 let tspServerProcess: cp.ChildProcess | null = null;
+// connection to a server that is shared by windows, see the tsp.server.address setting
+let tspServerSocket: net.Socket | null = null;
 const documentWebviews = new Map<string, vscode.WebviewPanel>();
 const openDocuments = new Map<string, vscode.CustomDocument>();
 
@@ -17,6 +21,7 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
   public readonly onDidChangeCustomDocument = this._onDidChangeCustomDocument.event;
 
   private labelImagesUri: vscode.Uri;
+  private loadCacheUri: vscode.Uri;
 
   public static register(context: vscode.ExtensionContext): vscode.Disposable {
     const provider = new TspEditorProvider(context);
@@ -42,6 +47,10 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
           tspServerProcess.kill();
           tspServerProcess = null;
         }
+        if (tspServerSocket) {
+          tspServerSocket.destroy();
+          tspServerSocket = null;
+        }
       }
     });
 
@@ -52,6 +61,9 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
     this.labelImagesUri = context.globalStorageUri
       ? vscode.Uri.joinPath(context.globalStorageUri, 'label-images')
       : vscode.Uri.joinPath(context.extensionUri, 'label-images');
+    this.loadCacheUri = context.globalStorageUri
+      ? vscode.Uri.joinPath(context.globalStorageUri, 'load-cache')
+      : vscode.Uri.joinPath(context.extensionUri, 'load-cache');
   }
 
   public async openCustomDocument(
@@ -120,6 +132,9 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
           console.log('Forwarding request to TSP server:',
             message.method, " ", paramsWithDocumentUri.documentUri);
           const result = await tspConnection.sendRequest(message.method, paramsWithDocumentUri);
+          if (message.method === 'tree/doEdits' && result) {
+            this.handleDocumentEdited(result as DocumentEditedParams);
+          }
           // Send response back to webview
           console.log('Forwarding response to webview:',
             message.method, " ", JSON.stringify(result));
@@ -152,6 +167,72 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
 
     await vscode.workspace.fs.createDirectory(this.labelImagesUri);
 
+    const serverAddress = vscode.workspace.getConfiguration('tsp').get<string>('server.address', '').trim();
+    tspConnection = serverAddress
+      ? await this.connectToTspServer(serverAddress)
+      : this.startTspServerProcess();
+
+    // Start listening
+    tspConnection.listen();
+
+    tspConnection.onNotification('document/edited', (params: DocumentEditedParams) => {
+      console.log(`document/edited ${JSON.stringify(params)}`);
+      this.handleDocumentEdited(params);
+    });
+
+    tspConnection.onNotification('document/loadProgress', (params: {
+      documentUri?: string,
+      loadedBytes?: number,
+      totalBytes?: number,
+      rootCount?: number,
+      done?: boolean
+    }) => {
+      if (!params.documentUri) {
+        return;
+      }
+      documentWebviews.get(params.documentUri)?.webview.postMessage({
+        jsonrpc: '2.0',
+        method: 'document/loadProgress',
+        params
+      });
+    });
+
+    tspConnection.onNotification('document/saved', (params: {
+      documentUri?: string,
+      savedUri?: string,
+      written?: boolean,
+      byteCount?: number,
+      serializeMillis?: number,
+      writeMillis?: number
+    }) => {
+      console.log(`${params.written ? 'Saved' : 'Unchanged'} ${params.savedUri}: ${params.byteCount} bytes, `
+        + `serialized in ${params.serializeMillis} ms, written in ${params.writeMillis} ms`);
+    });
+
+    console.log('TSP server started');
+  }
+
+  // connects to a server that was started with --listen=<address>, and is shared by windows
+  private async connectToTspServer(serverAddress: string): Promise<rpc.MessageConnection> {
+    const socket = serverAddress.startsWith('unix:')
+      ? net.createConnection(serverAddress.substring('unix:'.length))
+      : net.createConnection(Number(serverAddress.replace(/^tcp:/, '')), '127.0.0.1');
+    await new Promise<void>((resolve, reject) => {
+      socket.once('connect', resolve);
+      socket.once('error', reject);
+    });
+    tspServerSocket = socket;
+
+    socket.on('close', () => {
+      console.log(`Connection to TSP server at ${serverAddress} closed`);
+      tspConnection = null;
+      tspServerSocket = null;
+    });
+
+    return rpc.createMessageConnection(new rpc.StreamMessageReader(socket), new rpc.StreamMessageWriter(socket));
+  }
+
+  private startTspServerProcess(): rpc.MessageConnection {
     const javaPath = 'java'; // Could be configured in settings
     const tspServerDir = path.join(
       this.context.extensionPath,
@@ -162,16 +243,26 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
       'tsp-emf-1.0.0-SNAPSHOT-standalone.jar'
     );
 
+    // class data sharing archive, dumped by the build (mvn package -Pcds) or by the JVM when the server exits,
+    // relative to the server folder, since the JVM only loads it if the jars are the same as when it was dumped
+    const cdsArchive = path.join(tspServerDir, 'tsp-server.jsa');
+    if (fs.existsSync(cdsArchive) && fs.statSync(cdsArchive).mtimeMs < fs.statSync(tspServerJar).mtimeMs) {
+      // a stale archive isn't replaced by the JVM, so it's removed for a new one to be dumped
+      fs.rmSync(cdsArchive, { force: true });
+    }
     tspServerProcess = cp.spawn(
       javaPath,
-      ['-jar', tspServerJar],
+      [
+        '-XX:SharedArchiveFile=tsp-server.jsa', '-XX:+AutoCreateSharedArchive', '-Xlog:cds=off', '-Xlog:cds+dynamic=off',
+        '-jar', tspServerJar
+      ],
       { cwd: tspServerDir }
     );
 
     // Create JSON-RPC connection
     const reader = new rpc.StreamMessageReader(tspServerProcess.stdout!);
     const writer = new rpc.StreamMessageWriter(tspServerProcess.stdin!);
-    tspConnection = rpc.createMessageConnection(reader, writer);
+    const connection = rpc.createMessageConnection(reader, writer);
 
     // Log stderr
     tspServerProcess.stderr?.on('data', (data) => {
@@ -184,47 +275,42 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
       tspServerProcess = null;
     });
 
-    // Start listening
-    tspConnection.listen();
+    return connection;
+  }
 
-    tspConnection.onNotification('document/edited', (params: {
-      documentUri?: string,
-      kind?: 'NORMAL' | 'UNDO' | 'REDO',
-      affectedObjectIds?: string[]
-    }) => {
-      console.log(`document/edited ${JSON.stringify(params)}`);
-      if (!params.documentUri) {
-        return;
+  // handles edits from notifications and from the replies of requests, since replied edits aren't notified
+  private handleDocumentEdited(params: DocumentEditedParams): void {
+    if (!params.documentUri) {
+      return;
+    }
+    const kind = params.kind ?? 'NORMAL';
+    documentWebviews.get(params.documentUri)?.webview.postMessage({
+      jsonrpc: '2.0',
+      method: 'document/edited',
+      params: {
+        documentUri: params.documentUri,
+        kind,
+        affectedObjectIds: params.affectedObjectIds ?? [],
+        deltas: params.deltas ?? []
       }
-      const kind = params.kind ?? 'NORMAL';
-      documentWebviews.get(params.documentUri)?.webview.postMessage({
-        jsonrpc: '2.0',
-        method: 'document/edited',
-        params: {
-          documentUri: params.documentUri,
-          kind,
-          affectedObjectIds: params.affectedObjectIds ?? []
+    });
+    // undone and redone edits, and edits merged into the previous one, don't add undo entries
+    if (kind !== 'NORMAL') {
+      return;
+    }
+    const document = openDocuments.get(params.documentUri);
+    if (document) {
+      this._onDidChangeCustomDocument.fire({
+        document,
+        label: 'TSP Edit',
+        undo: async () => {
+          await this.performUndo(document);
+        },
+        redo: async () => {
+          await this.performRedo(document);
         }
       });
-      if (kind !== 'NORMAL') {
-        return;
-      }
-      const document = openDocuments.get(params.documentUri);
-      if (document) {
-        this._onDidChangeCustomDocument.fire({
-          document,
-          label: 'TSP Edit',
-          undo: async () => {
-            await this.performUndo(document);
-          },
-          redo: async () => {
-            await this.performRedo(document);
-          }
-        });
-      }
-    });
-
-    console.log('TSP server started');
+    }
   }
 
   private async configureServerForWebview(webview: vscode.Webview): Promise<void> {
@@ -236,6 +322,10 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
       settings: {
         'tsp.label.images.dir': this.labelImagesUri.fsPath,
         'tsp.label.images.uri': labelImagesUri,
+        'tsp.load.cache.dir': this.loadCacheUri.fsPath,
+        'tsp.load.profile': 'fast',
+        'tsp.edit.notify.window.ms': '50',
+        'tsp.edit.notify.replied': 'false',
       }
     });
     await tspConnection.sendRequest(configureRequest.method, configureRequest.params);
@@ -320,7 +410,8 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
       documentUri,
       count: 1,
     });
-    await tspConnection.sendRequest(undoRequest.method, undoRequest.params);
+    const edited = await tspConnection.sendRequest(undoRequest.method, undoRequest.params) as DocumentEditedParams;
+    this.handleDocumentEdited({ ...edited, documentUri });
   }
 
   private async performRedo(document: vscode.CustomDocument): Promise<void> {
@@ -332,7 +423,8 @@ export class TspEditorProvider implements vscode.CustomEditorProvider {
       documentUri,
       count: 1,
     });
-    await tspConnection.sendRequest(redoRequest.method, redoRequest.params);
+    const edited = await tspConnection.sendRequest(redoRequest.method, redoRequest.params) as DocumentEditedParams;
+    this.handleDocumentEdited({ ...edited, documentUri });
   }
 
   private getHtmlForWebview(webview: vscode.Webview, documentUri: vscode.Uri): string {
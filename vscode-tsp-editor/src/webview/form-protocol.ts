@@ -3,6 +3,12 @@ import { TreeNodeParams } from "./tree-protocol";
 
 export interface Form {
   items: FormItem[];
+  schemaId?: string;
+}
+
+export interface FormValues {
+  schemaId?: string;
+  properties: Property[];
 }
 
 export interface FormItem {
@@ -10,6 +16,13 @@ export interface FormItem {
   label: Label;
   valueOptions?: PropertyValue[];
   editable: boolean;
+  valueOptionCount?: number;
+}
+
+export interface ValueOptionsPage {
+  offset: number;
+  totalCount: number;
+  options: PropertyValue[];
 }
 
 export interface ValidationItem {
@@ -29,6 +42,7 @@ export interface PropertyValue {
   semanticType: string;
   stringValue?: string;
   stringValues?: string[];
+  id?: string;
 }
 
 /**
@@ -37,6 +51,13 @@ export interface PropertyValue {
 export interface GetTreeNodeFormParams extends TreeNodeParams {
 }
 
+export interface GetValueOptionsParams extends TreeNodeParams {
+  propertyName: string;
+  filter?: string;
+  offset: number;
+  limit: number;
+}
+
 export interface CommitTreeNodeFormParams extends TreeNodeParams {
   formProperties: Property[];
 }
@@ -46,6 +67,14 @@ export namespace FormProtocol {
     return createProtocolMessage<'form/getTreeNodeForm', GetTreeNodeFormParams>('form/getTreeNodeForm', params);
   }
 
+  export function getTreeNodeFormValues(params: GetTreeNodeFormParams): ProtocolMessage<'form/getTreeNodeFormValues', GetTreeNodeFormParams> {
+    return createProtocolMessage<'form/getTreeNodeFormValues', GetTreeNodeFormParams>('form/getTreeNodeFormValues', params);
+  }
+
+  export function getValueOptions(params: GetValueOptionsParams): ProtocolMessage<'form/getValueOptions', GetValueOptionsParams> {
+    return createProtocolMessage<'form/getValueOptions', GetValueOptionsParams>('form/getValueOptions', params);
+  }
+
   export function commitTreeNodeForm(params: CommitTreeNodeFormParams): ProtocolMessage<'form/commitTreeNodeForm', CommitTreeNodeFormParams> {
     return createProtocolMessage<'form/commitTreeNodeForm', CommitTreeNodeFormParams>('form/commitTreeNodeForm', params);
   }
@@ -1,8 +1,10 @@
-import { Form, FormItem, FormProtocol, PropertyValue } from "./form-protocol";
+import { Form, FormItem, FormProtocol, FormValues, PropertyValue, ValueOptionsPage } from "./form-protocol";
 import { submit } from "./main";
 
 export class FormView {
 
+  private static readonly MAX_LOADED_VALUE_OPTIONS = 1000;
+
   private form : HTMLElement;
   private selectedTreeNodeId: string | null = null;
   private currentForm: Form | null = null;
@@ -25,8 +27,30 @@ export class FormView {
       return;
     }
     if (!affectedObjectIds || affectedObjectIds.length === 0 || affectedObjectIds.includes(this.selectedTreeNodeId)) {
+      this.refreshFormValues();
+    }
+  }
+
+  // only fetches the values, if the form's schema is unchanged
+  private refreshFormValues(): void {
+    const treeNodeId = this.selectedTreeNodeId;
+    const schemaId = this.currentForm?.schemaId;
+    if (!treeNodeId || !schemaId) {
       this.reloadForm();
+      return;
     }
+    submit<FormValues>(FormProtocol.getTreeNodeFormValues({ treeNodeId }))
+        .then(values => {
+          if (treeNodeId !== this.selectedTreeNodeId || !this.currentForm) {
+            return;
+          }
+          if (values.schemaId !== this.currentForm.schemaId || values.properties.length !== this.currentForm.items.length) {
+            this.reloadForm();
+            return;
+          }
+          const items = this.currentForm.items.map((item, index) => ({ ...item, property: values.properties[index] }));
+          this.updateForm({ ...this.currentForm, items });
+        });
   }
 
   private reloadForm(): void {
@@ -41,7 +65,7 @@ export class FormView {
     console.log('Updating form with data: ', JSON.stringify(form));
     this.form.innerHTML = '';
     this.currentForm = form;
-    this.initialFormValues = form.items.map((item) => this.propertyValueToString(item.property.value));
+    this.initialFormValues = form.items.map((item) => this.selectedOptionValue(item.property.value));
 
     const formHeader = document.createElement('div');
     formHeader.className = 'form-header';
@@ -76,7 +100,7 @@ export class FormView {
     label.textContent = item.label.text;
     itemContainer.appendChild(label);
 
-    if (item.valueOptions && item.valueOptions.length > 0) {
+    if ((item.valueOptions && item.valueOptions.length > 0) || (item.valueOptionCount ?? 0) > 0) {
       itemContainer.appendChild(this.createSelectInput(item, controlId));
     } else {
       itemContainer.appendChild(this.createTextInput(item, controlId));
@@ -124,12 +148,14 @@ export class FormView {
       return;
     }
 
+    // options with ids are committed by id
     const formProperties = this.currentForm.items.map((item, index) => ({
       name: item.property.name,
       value: {
         semanticType: item.property.value.semanticType,
-        stringValue: this.controlValue(index),
+        stringValue: item.property.value.id !== undefined ? undefined : this.controlValue(index),
         stringValues: undefined,
+        id: item.property.value.id !== undefined ? this.controlValue(index) : undefined,
       },
     }));
 
@@ -138,7 +164,7 @@ export class FormView {
       formProperties,
     }));
 
-    this.reloadForm();
+    this.refreshFormValues();
   }
 
   private updateActionButtons(): void {
@@ -190,22 +216,50 @@ export class FormView {
     if (! item.editable) {
       select.setAttribute('disabled', '');
     }
-    const selectedValue = this.propertyValueToString(item.property.value);
-
-    item.valueOptions?.forEach((option, index) => {
+    const selectedValue = this.selectedOptionValue(item.property.value);
+    const addOption = (option: PropertyValue, index: number) => {
       const optionElement = document.createElement('vscode-option');
-      const optionValue = this.propertyValueToString(option) || String(index);
+      const optionValue = this.selectedOptionValue(option, item.property.value.id !== undefined) || String(index);
       optionElement.setAttribute('value', optionValue);
       optionElement.textContent = this.propertyValueToString(option);
       if (optionValue === selectedValue) {
         optionElement.setAttribute('selected', '');
       }
       select.appendChild(optionElement);
-    });
+    };
+
+    if (item.valueOptions) {
+      item.valueOptions.forEach(addOption);
+    } else {
+      // too many options to include in the form, so they are loaded when needed, and can be searched
+      select.setAttribute('combobox', '');
+      addOption(item.property.value, 0);
+      const treeNodeId = this.selectedTreeNodeId;
+      select.addEventListener('focus', () => {
+        if (!treeNodeId) {
+          return;
+        }
+        submit<ValueOptionsPage>(FormProtocol.getValueOptions({
+          treeNodeId,
+          propertyName: item.property.name,
+          offset: 0,
+          limit: FormView.MAX_LOADED_VALUE_OPTIONS,
+        })).then(page => {
+          page.options
+              .filter(option => this.selectedOptionValue(option) !== selectedValue)
+              .forEach((option, index) => addOption(option, index + 1));
+        });
+      }, { once: true });
+    }
 
     return select;
   }
 
+  // the value of the control for a property value, i.e. the option id, if options are identified by id
+  private selectedOptionValue(value: PropertyValue, useId: boolean = value.id !== undefined): string {
+    return useId ? (value.id ?? '') : this.propertyValueToString(value);
+  }
+
   private propertyValueToString(value: PropertyValue): string {
     return value.stringValue ?? "?";
   }
@@ -5,7 +5,7 @@
 
 import { FormView } from "./form-view";
 import { ProtocolMessage } from "./protocol";
-import { TreeNode, TreeProtocol } from "./tree-protocol";
+import { TreeNode, TreeNodeDelta, TreeProtocol } from "./tree-protocol";
 import { TreeView } from "./tree-view";
 import "./styles.css";
 
@@ -32,12 +32,12 @@ customElements.whenDefined('vscode-tree').then(() => {
   
   console.log('Sending openResource request for document: ', (window as any).documentUri);
   submit<void>(TreeProtocol.openDocument({ depth: 0 }))
-      .then(() => {
-        submit<TreeNode[]>(TreeProtocol.getChildren({ treeNodeId: null, depth: 0 }))
-            .then(nodes => {
-              console.log('Received response for openResource or getChildren: ', JSON.stringify(nodes));
-              treeView?.setTreeNodeItems(nodes);
-            });
+      .then(() => treeView?.handleDocumentLoaded());
+  // the roots can be listed while the document is loading, with provisional labels
+  submit<TreeNode[]>(TreeProtocol.getChildren({ treeNodeId: null, depth: 0 }))
+      .then(nodes => {
+        console.log('Received response for getChildren: ', JSON.stringify(nodes));
+        treeView?.setTreeNodeItems(nodes);
       });
 });
 
@@ -45,8 +45,17 @@ export const pendingRequests = new Map<number, { resolve: (result: any) => void;
 
 interface DocumentEditedNotification {
   documentUri?: string;
-  kind?: 'NORMAL' | 'UNDO' | 'REDO';
+  kind?: 'NORMAL' | 'UNDO' | 'REDO' | 'MERGED';
   affectedObjectIds?: string[];
+  deltas?: TreeNodeDelta[];
+}
+
+interface LoadProgressNotification {
+  documentUri?: string;
+  loadedBytes?: number;
+  totalBytes?: number;
+  rootCount?: number;
+  done?: boolean;
 }
 
 export function submit<T>(message: ProtocolMessage<string, any>): Promise<T> {
@@ -72,7 +81,11 @@ window.addEventListener('message', (event) => {
     }
   } else if (message.jsonrpc === '2.0' && message.method === 'document/edited') {
     const params = (message.params ?? {}) as DocumentEditedNotification;
-    treeView?.handleDocumentEdited(params.affectedObjectIds);
+    treeView?.handleDocumentEdited(params.affectedObjectIds, params.deltas);
     formView?.handleDocumentEdited(params.affectedObjectIds);
+  } else if (message.jsonrpc === '2.0' && message.method === 'document/loadProgress') {
+    const params = (message.params ?? {}) as LoadProgressNotification;
+    console.log(`Loaded ${params.loadedBytes} of ${params.totalBytes} bytes, ${params.rootCount} roots`);
+    treeView?.handleLoadProgress(params.rootCount ?? 0);
   }
 });
@@ -2,6 +2,7 @@
  * TypeScript protocol definitions matching the Java TSP protocol.
  */
 
+import type { PropertyValue } from "./form-protocol";
 import { createProtocolMessage, Label, ProtocolMessage } from "./protocol";
 
 export interface TreeNode {
@@ -10,6 +11,106 @@ export interface TreeNode {
   semanticType: string;
   label: Label;
   children?: TreeNode[];
+  childCount?: number;
+}
+
+export interface TreeNodePage {
+  offset: number;
+  totalCount: number;
+  children: TreeNode[];
+}
+
+/**
+ * The children of several tree nodes, with types, semantic types and labels as indices
+ * into the shared strings and labels tables, -1 means none.
+ */
+export interface TreeNodeBatch {
+  strings: string[];
+  labels: Label[];
+  results: TreeNodeBatchResult[];
+}
+
+export interface TreeNodeBatchResult {
+  treeNodeId: string | null;
+  totalCount: number;
+  children?: TreeNodeBatchNode[];
+  error?: string;
+}
+
+export interface TreeNodeBatchNode {
+  id: string;
+  type: number;
+  semanticType: number;
+  label: number;
+  children?: TreeNodeBatchNode[];
+  childCount: number;
+}
+
+export function decodeTreeNodes(batch: TreeNodeBatch, nodes?: TreeNodeBatchNode[]): TreeNode[] | undefined {
+  return nodes?.map(node => ({
+    id: node.id,
+    type: batch.strings[node.type],
+    semanticType: batch.strings[node.semanticType],
+    label: batch.labels[node.label],
+    children: decodeTreeNodes(batch, node.children),
+    childCount: node.childCount
+  }));
+}
+
+/**
+ * Tree nodes as parallel arrays in depth-first order, with types, semantic types and images as indices
+ * into the shared strings table, -1 means none, and parents as indices of earlier nodes,
+ * -1 for the children of the requested node.
+ */
+export interface TreeNodeColumns {
+  strings: string[];
+  parents: number[];
+  ids: string[];
+  types: number[];
+  semanticTypes: number[];
+  texts: string[];
+  descriptions?: string[];
+  images: number[];
+  childCounts: number[];
+}
+
+export function decodeTreeNodeColumns(columns: TreeNodeColumns): TreeNode[] {
+  const roots: TreeNode[] = [];
+  const nodes: TreeNode[] = [];
+  columns.ids.forEach((id, i) => {
+    const image = columns.images[i];
+    const node: TreeNode = {
+      id,
+      type: columns.strings[columns.types[i]],
+      semanticType: columns.strings[columns.semanticTypes[i]],
+      label: {
+        text: columns.texts[i],
+        description: columns.descriptions?.[i] ?? '',
+        imageUri: image >= 0 ? columns.strings[image] : undefined
+      },
+      childCount: columns.childCounts[i]
+    };
+    nodes.push(node);
+    const parent = columns.parents[i] >= 0 ? nodes[columns.parents[i]] : undefined;
+    if (parent) {
+      parent.children = parent.children ?? [];
+      parent.children.push(node);
+    } else {
+      roots.push(node);
+    }
+  });
+  return roots;
+}
+
+export type TreeNodeDeltaKind = 'INSERTED' | 'REMOVED' | 'MOVED' | 'CHANGED';
+
+export interface TreeNodeDelta {
+  kind: TreeNodeDeltaKind;
+  parentId?: string;
+  treeNodeId: string;
+  index: number;
+  oldIndex: number;
+  treeNode?: TreeNode;
 }
 
 export interface OpenDocumentParams {
@@ -22,6 +123,19 @@ export interface TreeNodeParams {
 
 export interface GetChildrenParams extends TreeNodeParams {
   depth: number;
+  offset?: number;
+  limit?: number;
+}
+
+export interface ChildrenRequest {
+  treeNodeId: string | null;
+  depth: number;
+  offset?: number;
+  limit?: number;
+}
+
+export interface GetChildrenBatchParams {
+  requests: ChildrenRequest[];
 }
 
 export interface TreeCommand {
@@ -41,6 +155,27 @@ export interface DoCommandParams extends TreeNodeParams {
   commandId: string;
 }
 
+export type EditOperationKind = 'DO_COMMAND' | 'SET' | 'ADD' | 'REMOVE';
+
+export interface EditOperation {
+  kind: EditOperationKind;
+  treeNodeId: string;
+  commandId?: string;
+  propertyName?: string;
+  value?: PropertyValue;
+  index?: number;
+}
+
+export interface DoEditsParams {
+  label?: string;
+  operations: EditOperation[];
+}
+
+export interface EditsResult {
+  affectedObjectIds: string[];
+  deltas: TreeNodeDelta[];
+}
+
 export namespace TreeProtocol {
   export function openDocument(params: OpenDocumentParams): ProtocolMessage<'document/openDocument', OpenDocumentParams> {
     return createProtocolMessage<'document/openDocument', OpenDocumentParams>('document/openDocument', params);
@@ -48,6 +183,15 @@ export namespace TreeProtocol {
   export function getChildren(params: GetChildrenParams): ProtocolMessage<'tree/getChildren', GetChildrenParams> {
     return createProtocolMessage<'tree/getChildren', GetChildrenParams>('tree/getChildren', params);
   }
+  export function getChildrenPage(params: GetChildrenParams): ProtocolMessage<'tree/getChildrenPage', GetChildrenParams> {
+    return createProtocolMessage<'tree/getChildrenPage', GetChildrenParams>('tree/getChildrenPage', params);
+  }
+  export function getChildrenBatch(params: GetChildrenBatchParams): ProtocolMessage<'tree/getChildrenBatch', GetChildrenBatchParams> {
+    return createProtocolMessage<'tree/getChildrenBatch', GetChildrenBatchParams>('tree/getChildrenBatch', params);
+  }
+  export function getChildrenColumns(params: GetChildrenParams): ProtocolMessage<'tree/getChildrenColumns', GetChildrenParams> {
+    return createProtocolMessage<'tree/getChildrenColumns', GetChildrenParams>('tree/getChildrenColumns', params);
+  }
 
   export function getCommandMenu(params: GetCommandMenuParams): ProtocolMessage<'tree/getCommandMenu', GetCommandMenuParams> {
     return createProtocolMessage<'tree/getCommandMenu', GetCommandMenuParams>('tree/getCommandMenu', params);
@@ -56,4 +200,8 @@ export namespace TreeProtocol {
   export function doCommand(params: DoCommandParams): ProtocolMessage<'tree/doCommand', DoCommandParams> {
     return createProtocolMessage<'tree/doCommand', DoCommandParams>('tree/doCommand', params);
   }
+
+  export function doEdits(params: DoEditsParams): ProtocolMessage<'tree/doEdits', DoEditsParams> {
+    return createProtocolMessage<'tree/doEdits', DoEditsParams>('tree/doEdits', params);
+  }
 }
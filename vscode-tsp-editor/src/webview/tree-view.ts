@@ -1,11 +1,12 @@
 import { submit } from "./main";
-import { TreeCommand, TreeCommandMenu, TreeNode, TreeProtocol } from "./tree-protocol";
+import { decodeTreeNodes, TreeCommand, TreeCommandMenu, TreeNode, TreeNodeBatch, TreeNodeDelta, TreeProtocol } from "./tree-protocol";
 
 export class TreeView {
 
   private tree : HTMLElement;
   private selectionHandler: ((treeNodeId: string, isSelected: boolean) => void) | undefined;
   private contextMenu: HTMLElement | null = null;
+  private loadingRootCount = 0;
 
   private observer = new MutationObserver((mutations) => {
     mutations.forEach((mutation) => {
@@ -47,11 +48,23 @@ export class TreeView {
     this.selectionHandler = handler;
   }
 
-  public handleDocumentEdited(affectedObjectIds?: string[]): void {
-    this.refreshEditedTreeNodes(affectedObjectIds);
+  public handleLoadProgress(rootCount: number): void {
+    if (rootCount > this.loadingRootCount) {
+      this.loadingRootCount = rootCount;
+      this.reloadRootNodes();
+    }
+  }
+
+  public handleDocumentLoaded(): void {
+    // replaces the provisional root nodes
+    this.reloadRootNodes();
+  }
+
+  public handleDocumentEdited(affectedObjectIds?: string[], deltas?: TreeNodeDelta[]): void {
+    this.refreshEditedTreeNodes(affectedObjectIds, deltas);
   }
 
-  private async refreshEditedTreeNodes(affectedObjectIds?: string[]): Promise<void> {
+  private async refreshEditedTreeNodes(affectedObjectIds?: string[], deltas?: TreeNodeDelta[]): Promise<void> {
     if (!affectedObjectIds || affectedObjectIds.length === 0) {
       await this.reloadRootNodes();
       return;
@@ -65,22 +78,54 @@ export class TreeView {
         refreshNodeIds.add(parentObjectId);
       }
     }
+    // object ids are opaque, so parents of inserted, removed and moved nodes are taken from the deltas
+    for (const delta of deltas ?? []) {
+      if (delta.parentId && delta.kind !== 'CHANGED') {
+        refreshNodeIds.add(delta.parentId);
+      }
+    }
 
-    let refreshedAny = false;
+    const treeItems = new Map<string, HTMLElement>();
     for (const treeNodeId of refreshNodeIds) {
       const treeItem = this.tree.querySelector(`vscode-tree-item[treeNodeId="${treeNodeId}"]`);
       if (treeItem instanceof HTMLElement) {
-        const children = await submit<TreeNode[]>(TreeProtocol.getChildren({ treeNodeId, depth: 0 }));
-        this.setTreeNodeItems(children, treeItem);
-        refreshedAny = true;
+        treeItems.set(treeNodeId, treeItem);
       }
     }
 
-    if (!refreshedAny) {
+    if (treeItems.size === 0) {
       await this.reloadRootNodes();
+      return;
+    }
+    const expandedChildren = await this.getExpandedChildren([...treeItems.keys()]);
+    for (const [treeNodeId, treeItem] of treeItems) {
+      if (expandedChildren.has(treeNodeId) && treeItem.isConnected) {
+        this.setTreeNodeItems(expandedChildren.get(treeNodeId), treeItem, expandedChildren);
+      }
     }
   }
 
+  /**
+   * Gets the children of tree nodes, together with those of the expanded nodes, in one request,
+   * so the expanded nodes can be restored when the tree nodes are rebuilt.
+   */
+  private async getExpandedChildren(treeNodeIds: Array<string | null>): Promise<Map<string | null, TreeNode[]>> {
+    const requestIds = new Set<string | null>(treeNodeIds);
+    this.tree.querySelectorAll('vscode-tree-item[open]').forEach(treeItem => {
+      requestIds.add(treeItem.getAttribute('treeNodeId'));
+    });
+    const batch = await submit<TreeNodeBatch>(TreeProtocol.getChildrenBatch({
+      requests: [...requestIds].map(treeNodeId => ({ treeNodeId, depth: 0 }))
+    }));
+    const children = new Map<string | null, TreeNode[]>();
+    for (const result of batch.results) {
+      if (!result.error) {
+        children.set(result.treeNodeId, decodeTreeNodes(batch, result.children) ?? []);
+      }
+    }
+    return children;
+  }
+
   private parentTreeNodeId(treeNodeId: string): string | null {
     const separatorIndex = treeNodeId.lastIndexOf('/');
     if (separatorIndex <= 0) {
@@ -90,6 +135,11 @@ export class TreeView {
   }
 
   private async reloadRootNodes(): Promise<void> {
+    if (this.tree.querySelector('vscode-tree-item[open]')) {
+      const expandedChildren = await this.getExpandedChildren([null]);
+      this.setTreeNodeItems(expandedChildren.get(null), this.tree, expandedChildren);
+      return;
+    }
     const rootNodes = await submit<TreeNode[]>(TreeProtocol.getChildren({ treeNodeId: null, depth: 0 }));
     this.setTreeNodeItems(rootNodes);
   }
@@ -193,12 +243,20 @@ export class TreeView {
         ?.replaceWith(this.toTreeItem(treeNode));
   }
 
-  public toTreeItem(treeNode: TreeNode): HTMLElement {
+  public toTreeItem(treeNode: TreeNode, expandedChildren?: Map<string | null, TreeNode[]>): HTMLElement {
     const treeItem = document.createElement('vscode-tree-item');
     treeItem.setAttribute('treeNodeId', treeNode.id);
-    treeItem.setAttribute('branch', String(treeNode.children !== undefined));
+    const hasChildren = treeNode.childCount !== undefined && treeNode.childCount >= 0
+      ? treeNode.childCount > 0
+      : treeNode.children !== undefined;
+    treeItem.setAttribute('branch', String(hasChildren));
     this.addTreeItemLabel(treeItem, treeNode.label.text, treeNode.label.imageUri);
-    this.addTreeNodeItems(treeNode.children, treeItem);
+    // the item is opened before it is added to the tree, so the observer doesn't request the children again
+    const children = expandedChildren?.get(treeNode.id);
+    if (hasChildren && children) {
+      treeItem.setAttribute('open', '');
+    }
+    this.addTreeNodeItems(treeNode.children ?? children, treeItem, expandedChildren);
     return treeItem;
   }
 
@@ -265,14 +323,16 @@ export class TreeView {
     this.addChildNodes(container, treeItemNodes);
   }
 
-  public setTreeNodeItems(treeNodes?: TreeNode[], container: Element = this.tree): void {
+  public setTreeNodeItems(treeNodes?: TreeNode[], container: Element = this.tree,
+      expandedChildren?: Map<string | null, TreeNode[]>): void {
     const labelNodes = this.getLabelNodes(container);
     container.innerHTML = '';
     this.addChildNodes(container, labelNodes);
-    this.addTreeNodeItems(treeNodes, container);
+    this.addTreeNodeItems(treeNodes, container, expandedChildren);
   }
 
-  public addTreeNodeItems(treeNodes?: TreeNode[], container: Element = this.tree): void {
-    this.addChildren<TreeNode>(container, treeNodes, (treeNode) => this.toTreeItem(treeNode));
+  public addTreeNodeItems(treeNodes?: TreeNode[], container: Element = this.tree,
+      expandedChildren?: Map<string | null, TreeNode[]>): void {
+    this.addChildren<TreeNode>(container, treeNodes, (treeNode) => this.toTreeItem(treeNode, expandedChildren));
   }
 }
\ No newline at end of file